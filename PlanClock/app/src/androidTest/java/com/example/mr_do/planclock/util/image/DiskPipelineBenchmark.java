@@ -0,0 +1,170 @@
+package com.example.mr_do.planclock.util.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.mr_do.planclock.util.HeadCaptureInputStream;
+import com.example.mr_do.planclock.util.IOUtil;
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 对比磁盘缓存写入+解码的单张图片耗时,
+ * legacy为改动前的做法:逐字节拷贝,每次put都flush,宽高和像素各解码一次;
+ * pipeline为现在的做法:按块拷贝,批量flush,宽高从内存中的文件头读取,像素只解码一次
+ */
+@RunWith(AndroidJUnit4.class)
+public class DiskPipelineBenchmark {
+    private static final String TAG = "DiskPipelineBenchmark";
+    private static final int IMAGE_COUNT = 10;
+    private static final int REQ_WIDTH = 120;
+    private static final int REQ_HEIGHT = 150;
+    private static final int FLUSH_BATCH_SIZE = 8;
+
+    private byte[] mJpeg;
+    private File mLegacyDir;
+    private File mPipelineDir;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mLegacyDir = new File(context.getCacheDir(), "bench_legacy");
+        mPipelineDir = new File(context.getCacheDir(), "bench_pipeline");
+        mJpeg = createJpeg(1080, 1440);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        DiskLruCache.open(mLegacyDir, 1, 1, Long.MAX_VALUE).delete();
+        DiskLruCache.open(mPipelineDir, 1, 1, Long.MAX_VALUE).delete();
+    }
+
+    @Test
+    public void writeAndDecodeLatency() throws Exception {
+        long[] legacy = new long[IMAGE_COUNT];
+        DiskLruCache legacyCache = DiskLruCache.open(mLegacyDir, 1, 1, Long.MAX_VALUE);
+        for(int i = 0; i < IMAGE_COUNT; i++){
+            long start = System.nanoTime();
+            assertNotNull(legacyWriteAndDecode(legacyCache, "legacy" + i));
+            legacy[i] = System.nanoTime() - start;
+        }
+        legacyCache.close();
+
+        long[] pipeline = new long[IMAGE_COUNT];
+        DiskLruCache pipelineCache = DiskLruCache.open(mPipelineDir, 1, 1, Long.MAX_VALUE);
+        for(int i = 0; i < IMAGE_COUNT; i++){
+            long start = System.nanoTime();
+            assertNotNull(pipelineWriteAndDecode(pipelineCache, "pipeline" + i, i));
+            pipeline[i] = System.nanoTime() - start;
+        }
+        pipelineCache.close();
+
+        long legacyMedian = median(legacy);
+        long pipelineMedian = median(pipeline);
+        Log.i(TAG, "jpeg=" + mJpeg.length + "B"
+                + " legacy median=" + legacyMedian / 1000 + "us"
+                + " pipeline median=" + pipelineMedian / 1000 + "us");
+        assertTrue(pipelineMedian < legacyMedian);
+    }
+
+    private Bitmap legacyWriteAndDecode(DiskLruCache cache, String key) throws IOException {
+        InputStream in = new ByteArrayInputStream(mJpeg);
+        DiskLruCache.Editor editor = cache.edit(key);
+        OutputStream out = editor.newOutputStream(0);
+        int b;
+        while((b = in.read()) != -1){
+            out.write(b);
+        }
+        out.close();
+        editor.commit();
+        cache.flush();
+
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        try {
+            FileDescriptor fd = ((FileInputStream) snapshot.getInputStream(0)).getFD();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(fd, null, options);
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight);
+            options.inJustDecodeBounds = false;
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private Bitmap pipelineWriteAndDecode(DiskLruCache cache, String key, int index) throws IOException {
+        HeadCaptureInputStream in = new HeadCaptureInputStream(new ByteArrayInputStream(mJpeg), 64 * 1024);
+        DiskLruCache.Editor editor = cache.edit(key);
+        OutputStream out = editor.newOutputStream(0);
+        IOUtil.copy(in, out);
+        out.close();
+        editor.commit();
+        if((index + 1) % FLUSH_BATCH_SIZE == 0){
+            cache.flush();
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(in.getHead(), 0, in.getHeadLength(), options);
+        DiskLruCache.Snapshot snapshot = cache.get(key);
+        try {
+            FileDescriptor fd = ((FileInputStream) snapshot.getInputStream(0)).getFD();
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight);
+            options.inJustDecodeBounds = false;
+            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static int sampleSize(int width, int height){
+        int inSampleSize = 1;
+        while((height / 2 / inSampleSize) > REQ_HEIGHT && (width / 2 / inSampleSize) > REQ_WIDTH){
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static long median(long[] values){
+        long[] sorted = Arrays.copyOf(values, values.length);
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    //用随机噪声生成一张接近真实照片大小的JPEG
+    private static byte[] createJpeg(int width, int height){
+        int[] colors = new int[width * height];
+        Random random = new Random(42);
+        for(int i = 0; i < colors.length; i++){
+            colors[i] = 0xFF000000 | random.nextInt(0xFFFFFF);
+        }
+        Bitmap bitmap = Bitmap.createBitmap(colors, width, height, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 85, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
@@ -1,14 +1,17 @@
 package com.example.mr_do.planclock;
 
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.DisplayMetrics;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.ViewGroup;
 import com.example.mr_do.planclock.util.IOUtil;
+import com.example.mr_do.planclock.util.image.FrameLoadDispatcher;
 import com.example.mr_do.planclock.util.image.IImageLoader;
 import com.example.mr_do.planclock.util.image.ImageRecyclerView;
 import com.example.mr_do.planclock.util.image.NativeImageLoader;
@@ -23,12 +26,14 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class MainActivity extends AppCompatActivity {
     private ArrayList<String> mBitmapUrls;
     private static final String uri = "http://t2.hddhhn.com/uploads/tu/201804/9999/b8cd152a12.jpg";
+    private static final String STARTUP_TAG = "Startup";
     private ImageRecyclerView mRecyclerView;
     private IImageLoader mImageLoader;
     private int mScreenWidth = 0;
@@ -48,8 +53,10 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        final long createStart = SystemClock.uptimeMillis();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        logFirstFrame(createStart);
 
         mScreenWidth = getScreenWidth();
         mBitmapUrls = new ArrayList<>();
@@ -58,7 +65,13 @@ public class MainActivity extends AppCompatActivity {
         mRecyclerView.setLayoutManager(new GridLayoutManager(this,3));
         mAdapter = new ImageAdapter();
         mRecyclerView.setAdapter(mAdapter);
-        mRecyclerView.setOnIdleListener(mListener);
+        mRecyclerView.setLoadRequestCollector(mImageLoader, mRequestCollector);
+        mRecyclerView.enablePrefetch(mImageLoader, new ImageRecyclerView.PrefetchSource() {
+            @Override
+            public String getImageUri(int position) {
+                return position < mBitmapUrls.size() ? mBitmapUrls.get(position) : null;
+            }
+        }, 120, 150, 3);
         mHandler = new MyHandler();
         Thread thread = new Thread(new Runnable() {
             @Override
@@ -70,6 +83,24 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
+    /**
+     * 记录从onCreate到第一帧画完的耗时,
+     * 第一个帧回调在第一帧绘制之前执行,在它里面再注册一次,下一次回调时第一帧已经画完
+     */
+    private void logFirstFrame(final long createStart){
+        Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        LogUtil.logI(STARTUP_TAG, "first frame ms=" + (SystemClock.uptimeMillis() - createStart));
+                    }
+                });
+            }
+        });
+    }
+
     private void getImageUrls(){
         HttpURLConnection httpURLConnection = null;
         InputStream inputStream = null;
@@ -140,19 +171,14 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private ImageRecyclerView.OnIdleListener mListener = new ImageRecyclerView.OnIdleListener() {
+    private FrameLoadDispatcher.LoadRequestCollector mRequestCollector = new FrameLoadDispatcher.LoadRequestCollector() {
         @Override
-        public void onIdle(ImageRecyclerView imageRecyclerView) {
+        public void collectLoadRequests(ImageRecyclerView imageRecyclerView, List<FrameLoadDispatcher.LoadRequest> requests) {
             int childCount = imageRecyclerView.getChildCount();
             for(int i=childCount-1;i>=0;i--){
                 ImageHolder holder = (ImageHolder) imageRecyclerView.getChildViewHolder(imageRecyclerView.getChildAt(i));
-                if(holder.isEmptyView()){
-                    LogUtil.logE("EMPTY",i+" "+holder.getUrl());
-                    try {
-                        mImageLoader.asyncLoadImageFromWeb(holder.getUrl(),120,150,holder.getView());
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                if(holder.isEmptyView() && holder.getUrl() != null){
+                    requests.add(new FrameLoadDispatcher.LoadRequest(holder.getUrl(),120,150,holder.getView()));
                 }
             }
         }
@@ -0,0 +1,25 @@
+package com.example.mr_do.planclock;
+
+import android.app.Application;
+import android.os.SystemClock;
+
+import com.example.mr_do.planclock.util.image.ImageLoaderConfig;
+import com.example.mr_do.planclock.util.image.NativeImageLoader;
+import com.example.mr_do.planclock.util.log.LogUtil;
+
+/**
+ * 在进程启动时配置图片加载器,缓存跟着进程走,各个Activity共用
+ */
+
+public class PlanClockApplication extends Application {
+    private static final String STARTUP_TAG = "Startup";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        //加载器在这里创建,冷启动里它的耗时只能在这里量
+        final long initStart = SystemClock.uptimeMillis();
+        NativeImageLoader.init(this, new ImageLoaderConfig.Builder(this).build());
+        LogUtil.logI(STARTUP_TAG, "image loader init ms=" + (SystemClock.uptimeMillis() - initStart));
+    }
+}
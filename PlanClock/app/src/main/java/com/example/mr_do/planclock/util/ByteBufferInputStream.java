@@ -0,0 +1,73 @@
+package com.example.mr_do.planclock.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 把ByteBuffer从position到limit的数据包装成输入流,
+ * 支持mark/reset,解码器可以先读文件头再回到开头
+ */
+
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer mBuffer;
+    private int mMark;
+
+    /**
+     * @param buffer 读取时会移动它的position,多个流共享数据时传入各自的duplicate
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        mBuffer = buffer;
+        mMark = buffer.position();
+    }
+
+    @Override
+    public int read() {
+        if(!mBuffer.hasRemaining()){
+            return -1;
+        }
+        return mBuffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) {
+        if(count == 0){
+            return 0;
+        }
+        if(!mBuffer.hasRemaining()){
+            return -1;
+        }
+        int len = Math.min(count, mBuffer.remaining());
+        mBuffer.get(buffer, offset, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        if(n <= 0){
+            return 0;
+        }
+        int skipped = (int) Math.min(n, mBuffer.remaining());
+        mBuffer.position(mBuffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mMark = mBuffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        mBuffer.position(mMark);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.mr_do.planclock.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 读取的同时把流开头的一段字节保存下来,
+ * 用于在流写完之后直接从内存中解析文件头(比如图片的宽高)
+ */
+
+public class HeadCaptureInputStream extends FilterInputStream {
+    private final byte[] mHead;
+    private int mHeadLength = 0;
+
+    public HeadCaptureInputStream(InputStream in, int headSize) {
+        super(in);
+        mHead = new byte[headSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b != -1 && mHeadLength < mHead.length){
+            mHead[mHeadLength++] = (byte) b;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int len = super.read(buffer, offset, count);
+        if(len > 0 && mHeadLength < mHead.length){
+            int captured = Math.min(len, mHead.length - mHeadLength);
+            System.arraycopy(buffer, offset, mHead, mHeadLength, captured);
+            mHeadLength += captured;
+        }
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //跳过的字节也要记录下来,否则文件头就不连续了
+        long skipped = 0;
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        while(skipped < n){
+            int len = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if(len == -1){
+                break;
+            }
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public byte[] getHead() {
+        return mHead;
+    }
+
+    public int getHeadLength() {
+        return mHeadLength;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.mr_do.planclock.util;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -9,6 +10,8 @@ import java.io.OutputStream;
  */
 
 public class IOUtil {
+    private static final int COPY_BUFFER_SIZE = 16*1024;
+
     public static void close(InputStream in){
         if(in == null)
             return;
@@ -28,4 +31,29 @@ public class IOUtil {
             e.printStackTrace();
         }
     }
+
+    public static void close(Closeable closeable){
+        if(closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 按块把输入流拷贝到输出流,不关闭两个流
+     * @return 拷贝的字节数
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long count = 0;
+        int len;
+        while((len = in.read(buffer)) != -1){
+            out.write(buffer, 0, len);
+            count += len;
+        }
+        return count;
+    }
 }
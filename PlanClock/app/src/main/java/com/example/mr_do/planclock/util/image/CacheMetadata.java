@@ -0,0 +1,152 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.Locale;
+
+/**
+ * 和磁盘缓存的图片一起保存的HTTP响应信息,
+ * 用来判断缓存是否过期,以及过期后发起条件请求(If-None-Match/If-Modified-Since)
+ */
+
+public final class CacheMetadata {
+    //没有任何缓存相关的响应头时,认为缓存在这段时间内有效
+    static final long DEFAULT_FRESHNESS_MILLIS = 24L * 60 * 60 * 1000;
+    //只有Last-Modified时,按(当前时间-Last-Modified)的10%估算有效期,最多不超过默认有效期
+    private static final int HEURISTIC_FRESHNESS_PERCENT = 10;
+    private static final String KEY_ETAG = "ETag";
+    private static final String KEY_LAST_MODIFIED = "Last-Modified";
+    private static final String KEY_EXPIRES_AT = "Expires-At";
+
+    private final String mETag;
+    private final String mLastModified;
+    private final long mExpiresAt;
+
+    CacheMetadata(String eTag, String lastModified, long expiresAt) {
+        mETag = eTag;
+        mLastModified = lastModified;
+        mExpiresAt = expiresAt;
+    }
+
+    /**
+     * 根据响应头计算缓存信息
+     * @param eTag ETag响应头,没有传null
+     * @param lastModified Last-Modified响应头,没有传null
+     * @param lastModifiedMillis Last-Modified对应的时间,没有传0
+     * @param cacheControl Cache-Control响应头,没有传null
+     * @param expiresMillis Expires响应头对应的时间,没有传0
+     * @param now 收到响应的时间
+     */
+    public static CacheMetadata fromHeaders(String eTag, String lastModified, long lastModifiedMillis,
+                                     String cacheControl, long expiresMillis, long now) {
+        return new CacheMetadata(eTag, lastModified,
+                computeExpiresAt(lastModifiedMillis, cacheControl, expiresMillis, now));
+    }
+
+    private static long computeExpiresAt(long lastModifiedMillis, String cacheControl,
+                                         long expiresMillis, long now) {
+        if(cacheControl != null) {
+            for(String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+                directive = directive.trim();
+                if(directive.equals("no-cache") || directive.equals("no-store")) {
+                    //每次使用前都要重新验证
+                    return now;
+                }
+                if(directive.startsWith("max-age=")) {
+                    try {
+                        long maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+                        return now + Math.max(0, maxAge) * 1000;
+                    } catch (NumberFormatException e) {
+                        //忽略格式不对的max-age,继续看其他响应头
+                    }
+                }
+            }
+        }
+        if(expiresMillis > 0) {
+            return expiresMillis;
+        }
+        if(lastModifiedMillis > 0 && lastModifiedMillis < now) {
+            long heuristic = (now - lastModifiedMillis) * HEURISTIC_FRESHNESS_PERCENT / 100;
+            return now + Math.min(heuristic, DEFAULT_FRESHNESS_MILLIS);
+        }
+        return now + DEFAULT_FRESHNESS_MILLIS;
+    }
+
+    /**
+     * 收到304后合并新的响应信息,304里没有带的校验字段沿用旧的
+     */
+    public CacheMetadata revalidated(CacheMetadata response) {
+        return new CacheMetadata(
+                response.mETag != null ? response.mETag : mETag,
+                response.mLastModified != null ? response.mLastModified : mLastModified,
+                response.mExpiresAt);
+    }
+
+    public boolean isFresh(long now) {
+        return now < mExpiresAt;
+    }
+
+    /**
+     * 是否可以发起条件请求
+     */
+    public boolean hasValidator() {
+        return mETag != null || mLastModified != null;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public long getExpiresAt() {
+        return mExpiresAt;
+    }
+
+    /**
+     * 序列化成多行的"键: 值"文本,存到磁盘缓存中
+     */
+    String serialize() {
+        StringBuilder sb = new StringBuilder();
+        if(mETag != null) {
+            sb.append(KEY_ETAG).append(": ").append(mETag).append('\n');
+        }
+        if(mLastModified != null) {
+            sb.append(KEY_LAST_MODIFIED).append(": ").append(mLastModified).append('\n');
+        }
+        sb.append(KEY_EXPIRES_AT).append(": ").append(mExpiresAt).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * 解析{@link #serialize()}的结果,解析不了的字段忽略,
+     * 没有过期时间时认为已经过期
+     */
+    static CacheMetadata parse(String text) {
+        String eTag = null;
+        String lastModified = null;
+        long expiresAt = 0;
+        if(text != null) {
+            for(String line : text.split("\n")) {
+                int colon = line.indexOf(": ");
+                if(colon <= 0) {
+                    continue;
+                }
+                String key = line.substring(0, colon);
+                String value = line.substring(colon + 2);
+                if(KEY_ETAG.equals(key)) {
+                    eTag = value;
+                } else if(KEY_LAST_MODIFIED.equals(key)) {
+                    lastModified = value;
+                } else if(KEY_EXPIRES_AT.equals(key)) {
+                    try {
+                        expiresAt = Long.parseLong(value.trim());
+                    } catch (NumberFormatException e) {
+                        expiresAt = 0;
+                    }
+                }
+            }
+        }
+        return new CacheMetadata(eTag, lastModified, expiresAt);
+    }
+}
@@ -0,0 +1,533 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.example.mr_do.planclock.util.HeadCaptureInputStream;
+import com.example.mr_do.planclock.util.IOUtil;
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * 图片缓存实现类,磁盘缓存,
+ * 每条缓存保存图片的原始数据和HTTP缓存信息,
+ * 打开DiskLruCache要读取和回放journal,推迟到第一次使用或者{@link #openInBackground()}时在工作线程完成,
+ * 提交时DiskLruCache已经把journal写入文件,flush和超出大小后的清理攒起来在低优先级的后台线程做,不占用加载线程,
+ * DiskLruCache的方法都是同步的,缓存按key的前两位分到几个子目录,每个子目录一个DiskLruCache,
+ * 磁盘线程读写不同分片的图片时不用互相等待
+ */
+
+class DiskCache<T> {
+    //默认的磁盘缓存大小
+    static final long DISK_CACHE_SIZE = 1024*1024*50;
+    //默认的分片数,每个分片占总大小的相同比例
+    static final int DISK_CACHE_SHARDS = 4;
+    //key是MD5的十六进制,前两位决定分片,最多256个分片
+    private static final int MAX_SHARDS = 256;
+    //不分片时DiskLruCache的journal直接在缓存目录下
+    private static final String LEGACY_JOURNAL = "journal";
+    private static final String LEGACY_JOURNAL_TMP = "journal.tmp";
+    private static final String LEGACY_JOURNAL_BKP = "journal.bkp";
+    //DiskLruCache的图片文件是<key>.<index>,写入中的是<key>.<index>.tmp
+    private static final Pattern LEGACY_ENTRY = Pattern.compile("[a-z0-9_-]{1,64}\\.\\d+(\\.tmp)?");
+    //版本号或者每条缓存的值的个数变化时,DiskLruCache会清空旧的缓存
+    private static final int DISK_CACHE_VERSION = 2;
+    private static final int DISK_CACHE_VALUE_COUNT = 2;
+    static final int DISK_CACHE_INDEX = 0;
+    //和图片一起保存的HTTP缓存信息
+    private static final int METADATA_INDEX = 1;
+    //保存下来用于读取宽高的文件头长度,JPEG的SOF一般在EXIF之后,64K足够
+    private static final int HEADER_CAPTURE_SIZE = 64*1024;
+    //每写入这么多张图片才flush一次journal
+    static final int FLUSH_BATCH_SIZE = 8;
+    //写入不够一批时,最多等这么久也flush
+    static final long FLUSH_DELAY_MILLIS = 2000;
+    //后台线程空闲这么久后退出
+    private static final long MAINTENANCE_KEEP_ALIVE = 10L;
+    private final AtomicInteger mPendingFlushCount = new AtomicInteger(0);
+    //定时的flush已经安排好了
+    private final AtomicBoolean mFlushScheduled = new AtomicBoolean(false);
+    //攒满一批后立即执行的flush已经提交了,多个线程同时攒满时只提交一次
+    private final AtomicBoolean mBatchFlushQueued = new AtomicBoolean(false);
+    private final AtomicBoolean mShutdown = new AtomicBoolean(false);
+    //flush journal和清理超出大小的缓存的后台线程
+    private final ScheduledThreadPoolExecutor mMaintenance;
+    //以下两个字段在mOpenLock中赋值,mOpened变为true之后只读
+    private DiskLruCache[] mShards;
+    //下载到一半的图片,完整后再写入mShards
+    private DownloadStaging mStaging;
+    private final Object mOpenLock = new Object();
+    private volatile boolean mOpened = false;
+    //打开耗时,没打开之前为-1
+    private volatile long mOpenMillis = -1;
+    private final Directories mDirectories;
+    private final long mMaxSize;
+    private final int mShardCount;
+    private final ImageDecoder<T> mDecoder;
+    private final MainThreadDispatcher mDispatcher;
+
+    /**
+     * 提供缓存目录,打开磁盘缓存时才在工作线程调用,可以在里面查询存储空间
+     */
+    public interface Directories {
+        /**
+         * @return 缓存目录,不能使用磁盘缓存时返回null
+         */
+        File getCacheDir();
+
+        /**
+         * @return 下载到一半的图片的目录,要和缓存目录分开,版本变化时DiskLruCache会删掉整个缓存目录
+         */
+        File getStagingDir();
+    }
+
+    /**
+     * @param diskCacheDir 缓存目录,为null时不使用磁盘缓存
+     * @param stagingDir 下载到一半的图片的目录,要和diskCacheDir分开,版本变化时DiskLruCache会删掉整个目录
+     */
+    public DiskCache(final File diskCacheDir, final File stagingDir, ImageDecoder<T> decoder, MainThreadDispatcher dispatcher){
+        this(new Directories() {
+            @Override
+            public File getCacheDir() {
+                return diskCacheDir;
+            }
+
+            @Override
+            public File getStagingDir() {
+                return stagingDir;
+            }
+        }, decoder, dispatcher);
+    }
+
+    public DiskCache(Directories directories, ImageDecoder<T> decoder, MainThreadDispatcher dispatcher){
+        this(directories, DISK_CACHE_SIZE, decoder, dispatcher);
+    }
+
+    /**
+     * 构造时不做任何IO,可以在主线程调用
+     * @param maxSize 最多占用的字节数
+     */
+    public DiskCache(Directories directories, long maxSize, ImageDecoder<T> decoder, MainThreadDispatcher dispatcher){
+        this(directories, maxSize, DISK_CACHE_SHARDS, decoder, dispatcher);
+    }
+
+    /**
+     * @param shardCount 分片数,为1时缓存直接放在缓存目录下,和分片之前一样
+     */
+    DiskCache(Directories directories, long maxSize, int shardCount, ImageDecoder<T> decoder,
+              MainThreadDispatcher dispatcher){
+        if(shardCount < 1 || shardCount > MAX_SHARDS){
+            throw new IllegalArgumentException("shardCount must be in [1, " + MAX_SHARDS + "]: " + shardCount);
+        }
+        mDirectories = directories;
+        mMaxSize = maxSize;
+        mShardCount = shardCount;
+        mDecoder = decoder;
+        mDispatcher = dispatcher;
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "disk-cache-maintenance");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        //线程在第一次flush时才创建
+        mMaintenance = new ScheduledThreadPoolExecutor(1, threadFactory);
+        mMaintenance.setKeepAliveTime(MAINTENANCE_KEEP_ALIVE, TimeUnit.SECONDS);
+        mMaintenance.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 在后台线程提前打开,打开完成之前到达的请求在磁盘线程上等待打开完成
+     */
+    public void openInBackground(){
+        if(mOpened){
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ensureOpen();
+            }
+        }, "disk-cache-open");
+        thread.start();
+    }
+
+    /**
+     * @return 是否已经打开,打开失败或者不使用磁盘缓存也算已经打开
+     */
+    public boolean isOpened(){
+        return mOpened;
+    }
+
+    /**
+     * @return 最多占用的字节数
+     */
+    public long getMaxSize(){
+        return mMaxSize;
+    }
+
+    /**
+     * @return 分片数
+     */
+    public int getShardCount(){
+        return mShardCount;
+    }
+
+    /**
+     * @return 打开磁盘缓存的耗时,还没有打开时返回-1
+     */
+    public long getOpenMillis(){
+        return mOpenMillis;
+    }
+
+    //第一次调用的线程负责打开,同时到达的线程等它打开完成
+    private void ensureOpen(){
+        if(mOpened){
+            return;
+        }
+        synchronized (mOpenLock){
+            if(mOpened){
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                //shutdown之后不再打开,打开了也没有机会关闭
+                File diskCacheDir = mShutdown.get() ? null : mDirectories.getCacheDir();
+                if(diskCacheDir != null){
+                    if(!diskCacheDir.exists()){
+                        diskCacheDir.mkdirs();
+                    }
+                    mShards = openShards(diskCacheDir);
+                    mStaging = new DownloadStaging(mDirectories.getStagingDir());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                mShards = null;
+                mStaging = null;
+            } finally {
+                mOpenMillis = (System.nanoTime() - start) / 1000000;
+                mOpened = true;
+            }
+        }
+    }
+
+    //每个分片一个子目录,一个分片打开失败时关闭已经打开的分片,整个磁盘缓存不可用
+    private DiskLruCache[] openShards(File diskCacheDir) throws IOException {
+        if(mShardCount == 1){
+            return new DiskLruCache[]{
+                    DiskLruCache.open(diskCacheDir,DISK_CACHE_VERSION,DISK_CACHE_VALUE_COUNT,mMaxSize)};
+        }
+        if(new File(diskCacheDir, LEGACY_JOURNAL).exists()){
+            //分片之前的缓存,子目录里的DiskLruCache不会清理它,直接删掉
+            deleteLegacyFiles(diskCacheDir);
+        }
+        final DiskLruCache[] shards = new DiskLruCache[mShardCount];
+        final long shardSize = mMaxSize / mShardCount;
+        try {
+            for(int i = 0; i < mShardCount; i++){
+                shards[i] = DiskLruCache.open(new File(diskCacheDir, Integer.toString(i)),
+                        DISK_CACHE_VERSION, DISK_CACHE_VALUE_COUNT, shardSize);
+            }
+        } catch (IOException e) {
+            for(DiskLruCache shard : shards){
+                IOUtil.close(shard);
+            }
+            throw e;
+        }
+        return shards;
+    }
+
+    /**
+     * 只删除DiskLruCache在缓存目录下留下的文件,缓存目录可能是调用者传进来的,
+     * 里面别的文件和分片子目录都不动
+     */
+    private static void deleteLegacyFiles(File dir){
+        File[] files = dir.listFiles();
+        if(files == null){
+            return;
+        }
+        for(File file : files){
+            if(!file.isFile()){
+                continue;
+            }
+            final String name = file.getName();
+            if(LEGACY_JOURNAL.equals(name) || LEGACY_JOURNAL_TMP.equals(name) || LEGACY_JOURNAL_BKP.equals(name)
+                    || LEGACY_ENTRY.matcher(name).matches()){
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * @return key所在的分片,MD5的前两位是均匀分布的
+     */
+    private DiskLruCache shardOf(String key){
+        final int high = Character.digit(key.charAt(0), 16);
+        final int low = key.length() > 1 ? Character.digit(key.charAt(1), 16) : 0;
+        //MD5不可用时key是hashCode的十进制,可能以负号开头
+        final int prefix = high < 0 || low < 0 ? key.hashCode() & 0xff : high << 4 | low;
+        return mShards[prefix * mShardCount >>> 8];
+    }
+
+    private void checkNotMainThread(){
+        if(mDispatcher.isMainThread())
+            throw new RuntimeException("can not visit disk from UI Thread");
+    }
+
+    /**
+     * 把网络流写入磁盘缓存,
+     * 写入时顺便保存文件头,宽高直接从内存中的文件头读取到outSize里,
+     * 文件头里没有宽高时outSize保持为0
+     * @param metadata 和图片一起保存的HTTP缓存信息
+     * @return 是否成功写入
+     */
+    public boolean putAndReadBounds(String url, InputStream inputStream, CacheMetadata metadata, int[] outSize) {
+        checkNotMainThread();
+        ensureOpen();
+        if(mShards == null)
+            return false;
+        HeadCaptureInputStream captureStream = new HeadCaptureInputStream(inputStream, HEADER_CAPTURE_SIZE);
+        try {
+            if(!writeEntry(hashKeyFormUrl(url), captureStream, metadata)){
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } catch (IllegalStateException e) {
+            //已经shutdown,缓存关闭了
+            IOUtil.close(captureStream);
+            return false;
+        }
+        if(!mDecoder.decodeBounds(captureStream.getHead(), captureStream.getHeadLength(), outSize)){
+            outSize[0] = 0;
+            outSize[1] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * 占用一条缓存对应的暂存文件,用完后必须关闭
+     * @return 没有磁盘缓存或者别的任务正在下载同一张图片时返回null
+     */
+    public DownloadStaging.Partial acquirePartial(String url) {
+        checkNotMainThread();
+        ensureOpen();
+        if(mStaging == null)
+            return null;
+        return mStaging.acquire(hashKeyFormUrl(url));
+    }
+
+    /**
+     * 暂存的数据完整时写入磁盘缓存,并删除暂存文件
+     * @return 是否成功写入,数据不完整时会丢掉暂存文件
+     */
+    public boolean promotePartial(String url, DownloadStaging.Partial partial, CacheMetadata metadata,
+                                  int[] outSize) throws IOException {
+        if(!partial.isComplete()){
+            //服务器给的长度和实际收到的对不上,不能再续传了
+            partial.delete();
+            return false;
+        }
+        if(!putAndReadBounds(url, partial.openInput(), metadata, outSize)){
+            return false;
+        }
+        partial.delete();
+        return true;
+    }
+
+    /**
+     * 读取一条缓存的HTTP缓存信息
+     */
+    public CacheMetadata readMetadata(DiskLruCache.Snapshot snapshot) throws IOException {
+        return CacheMetadata.parse(snapshot.getString(METADATA_INDEX));
+    }
+
+    /**
+     * 服务器返回304后只更新缓存信息,图片内容保持不变
+     * @return 是否更新成功
+     */
+    public boolean updateMetadata(String url, CacheMetadata metadata) {
+        checkNotMainThread();
+        ensureOpen();
+        if(mShards == null)
+            return false;
+        try {
+            final String key = hashKeyFormUrl(url);
+            DiskLruCache.Editor editor = shardOf(key).edit(key);
+            if(editor == null){
+                return false;
+            }
+            editor.set(METADATA_INDEX, metadata.serialize());
+            editor.commit();
+            scheduleFlush();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } catch (IllegalStateException e) {
+            //已经shutdown,缓存关闭了
+            return false;
+        }
+    }
+
+    /**
+     * 打开一条缓存,用完后调用者负责关闭
+     * @return 没有缓存或者已经shutdown时返回null
+     */
+    public DiskLruCache.Snapshot openSnapshot(String url) throws IOException {
+        checkNotMainThread();
+        ensureOpen();
+        if(mShards == null)
+            return null;
+        final String key = hashKeyFormUrl(url);
+        try {
+            return shardOf(key).get(key);
+        } catch (IllegalStateException e) {
+            //已经shutdown,缓存关闭了
+            return null;
+        }
+    }
+
+    /**
+     * 解码一条缓存,不关闭snapshot
+     * @param srcWidth 图片原始宽度,不知道时传0,会先从文件读取宽高
+     * @param srcHeight 图片原始高度,不知道时传0
+     * @param flags 请求方允许的解码方式
+     */
+    public T decodeSnapshot(DiskLruCache.Snapshot snapshot, int srcWidth, int srcHeight,
+                            int reqWidth, int reqHeight, int flags) throws IOException {
+        FileInputStream fileInputStream = (FileInputStream) snapshot.getInputStream(DISK_CACHE_INDEX);
+        return mDecoder.decodeFile(fileInputStream.getFD(), srcWidth, srcHeight, reqWidth, reqHeight, flags);
+    }
+
+    /**
+     * 把一条缓存的图片整个读入内存,按位置读取,之后仍然可以用{@link #decodeSnapshot}从头解码,不关闭snapshot
+     * @return 图片比encodedCache能放下的大时返回null
+     */
+    public ByteBuffer readSnapshot(DiskLruCache.Snapshot snapshot, EncodedMemoryCache encodedCache) throws IOException {
+        FileInputStream fileInputStream = (FileInputStream) snapshot.getInputStream(DISK_CACHE_INDEX);
+        return encodedCache.read(fileInputStream.getChannel(), snapshot.getLength(DISK_CACHE_INDEX));
+    }
+
+    /**
+     * 把输入流写入一条缓存,写完后关闭输入流
+     * @return 是否成功提交
+     */
+    private boolean writeEntry(String key, InputStream inputStream, CacheMetadata metadata) throws IOException {
+        DiskLruCache.Editor editor = shardOf(key).edit(key);
+        if(editor == null){
+            //同一个key正在被别的线程写入
+            IOUtil.close(inputStream);
+            return false;
+        }
+        OutputStream outputStream = editor.newOutputStream(DISK_CACHE_INDEX);
+        boolean committed = false;
+        if(writeToStream(inputStream, outputStream)){
+            editor.set(METADATA_INDEX, metadata.serialize());
+            editor.commit();
+            committed = true;
+        }else{
+            editor.abort();
+        }
+        scheduleFlush();
+        return committed;
+    }
+
+    /**
+     * 停止后台线程,还没flush的写入在后台线程上flush完后关闭所有分片,
+     * 之后读不到缓存也不能写入,可以重复调用
+     */
+    public void shutdown(){
+        if(!mShutdown.compareAndSet(false, true)){
+            return;
+        }
+        mMaintenance.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFlushTask.run();
+                closeShards();
+            }
+        });
+        mMaintenance.shutdown();
+    }
+
+    //mOpenLock保证不会和打开同时进行,关闭后正在写入的editor提交时会抛出IllegalStateException
+    private void closeShards(){
+        synchronized (mOpenLock){
+            if(mShards == null){
+                return;
+            }
+            for(DiskLruCache shard : mShards){
+                IOUtil.close(shard);
+            }
+        }
+    }
+
+    //commit时journal已经写入,进程被杀也不会丢,flush只是把多次写入攒起来在后台做一次
+    private void scheduleFlush(){
+        try {
+            if(mPendingFlushCount.incrementAndGet() >= FLUSH_BATCH_SIZE){
+                if(mBatchFlushQueued.compareAndSet(false, true)){
+                    mMaintenance.execute(mFlushTask);
+                }
+            }else if(mFlushScheduled.compareAndSet(false, true)){
+                mMaintenance.schedule(mFlushTask, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            //已经shutdown
+        }
+    }
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            //先清除标记再取计数,这之后攒满的一批会再提交一次,不会漏掉
+            mBatchFlushQueued.set(false);
+            mFlushScheduled.set(false);
+            if(mPendingFlushCount.getAndSet(0) == 0 || mShards == null){
+                return;
+            }
+            for(DiskLruCache shard : mShards){
+                try {
+                    //同时把超出大小的缓存删掉
+                    shard.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (IllegalStateException e) {
+                    //缓存已经关闭
+                }
+            }
+        }
+    };
+
+    private boolean writeToStream(InputStream inputStream,OutputStream outputStream) throws IOException {
+        try {
+            IOUtil.copy(inputStream, outputStream);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }finally {
+            IOUtil.close(inputStream);
+            IOUtil.close(outputStream);
+        }
+    }
+
+    private String hashKeyFormUrl(String url){
+        return ImageUtil.hashKeyFormUrl(url);
+    }
+}
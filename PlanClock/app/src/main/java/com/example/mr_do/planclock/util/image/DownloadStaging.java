@@ -0,0 +1,172 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.example.mr_do.planclock.util.IOUtil;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 下载到一半的图片的暂存区,
+ * 每个key对应一个.part文件保存已经收到的数据,一个.state文件保存续传用的校验字段和总长度,
+ * 下载完整并校验通过后再由调用者写入DiskLruCache
+ */
+
+final class DownloadStaging {
+    private static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".state";
+    //超过这个时间没有续传完的文件直接删掉
+    private static final long MAX_AGE_MILLIS = 3L * 24 * 60 * 60 * 1000;
+
+    private final File mDirectory;
+    //正在被下载任务使用的key
+    private final Set<String> mAcquiredKeys = new HashSet<>();
+
+    DownloadStaging(File directory) {
+        mDirectory = directory;
+        if(!mDirectory.exists()) {
+            mDirectory.mkdirs();
+        }
+        deleteExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * 占用一个key的暂存文件,用完后必须调用{@link Partial#close()}
+     * @return 别的任务正在使用这个key时返回null
+     */
+    Partial acquire(String key) {
+        synchronized (mAcquiredKeys) {
+            if(!mAcquiredKeys.add(key)) {
+                return null;
+            }
+        }
+        return new Partial(key);
+    }
+
+    private void deleteExpired(long now) {
+        File[] files = mDirectory.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            if(now - file.lastModified() > MAX_AGE_MILLIS) {
+                file.delete();
+            }
+        }
+    }
+
+    final class Partial implements Closeable {
+        private final String mKey;
+        private final File mPartFile;
+        private final File mStateFile;
+        private String mValidator;
+        private long mTotalLength = -1;
+
+        private Partial(String key) {
+            mKey = key;
+            mPartFile = new File(mDirectory, key + PART_SUFFIX);
+            mStateFile = new File(mDirectory, key + STATE_SUFFIX);
+            readState();
+        }
+
+        /**
+         * @return 已经收到的字节数
+         */
+        long length() {
+            return mPartFile.length();
+        }
+
+        /**
+         * @return 续传时放在If-Range里的ETag或者Last-Modified,没有时不能续传
+         */
+        String getValidator() {
+            return mValidator;
+        }
+
+        /**
+         * @return 能续传时返回已经收到的字节数,否则返回0
+         */
+        long resumeOffset() {
+            return mValidator != null ? length() : 0;
+        }
+
+        /**
+         * 写入数据前先保存校验字段和总长度,进程被杀掉后也能续传
+         * @param totalLength 图片总长度,不知道时传-1
+         */
+        void saveState(String validator, long totalLength) throws IOException {
+            mValidator = validator;
+            mTotalLength = totalLength;
+            OutputStream out = new FileOutputStream(mStateFile);
+            try {
+                out.write(((validator != null ? validator : "") + "\n" + totalLength + "\n").getBytes("UTF-8"));
+            } finally {
+                IOUtil.close(out);
+            }
+        }
+
+        /**
+         * @param start 从哪个位置开始写,0表示丢弃已经收到的数据重新开始
+         */
+        OutputStream openOutput(long start) throws IOException {
+            if(start != 0 && start != length()) {
+                throw new IOException("Cannot resume " + mKey + " at " + start + ", have " + length());
+            }
+            return new FileOutputStream(mPartFile, start != 0);
+        }
+
+        /**
+         * 知道总长度时,收到的字节数必须和总长度一致
+         */
+        boolean isComplete() {
+            return mTotalLength < 0 || length() == mTotalLength;
+        }
+
+        InputStream openInput() throws IOException {
+            return new FileInputStream(mPartFile);
+        }
+
+        void delete() {
+            mPartFile.delete();
+            mStateFile.delete();
+            mValidator = null;
+            mTotalLength = -1;
+        }
+
+        @Override
+        public void close() {
+            synchronized (mAcquiredKeys) {
+                mAcquiredKeys.remove(mKey);
+            }
+        }
+
+        private void readState() {
+            if(!mStateFile.exists() || !mPartFile.exists()) {
+                return;
+            }
+            InputStream in = null;
+            try {
+                in = new FileInputStream(mStateFile);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+                String validator = reader.readLine();
+                String totalLength = reader.readLine();
+                mValidator = validator == null || validator.isEmpty() ? null : validator;
+                mTotalLength = totalLength == null ? -1 : Long.parseLong(totalLength);
+            } catch (IOException | NumberFormatException e) {
+                //状态文件坏了就从头下载
+                mValidator = null;
+                mTotalLength = -1;
+            } finally {
+                IOUtil.close(in);
+            }
+        }
+    }
+}
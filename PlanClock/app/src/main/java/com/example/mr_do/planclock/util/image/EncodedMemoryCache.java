@@ -0,0 +1,189 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 图片缓存实现类,介于内存缓存和磁盘缓存之间,按最近使用的顺序淘汰,
+ * 保存图片压缩后的原始数据,大小只有解码后的十分之一左右,
+ * 内存缓存淘汰的图片再次显示时直接从这里解码,不用再读磁盘,
+ * 每条数据带着磁盘缓存里的过期时间,过期后和磁盘缓存一样要先重新验证
+ */
+
+class EncodedMemoryCache {
+    //单张图片最多占预算的这个比例,一张大图放进来会挤掉很多小图
+    private static final int MAX_ENTRY_DIVISOR = 8;
+    //按访问顺序排列,最早访问的在最前面
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    //正常情况下的预算
+    private final long mBaseMaxSize;
+    //当前的预算,内存不足时比mBaseMaxSize小
+    private long mMaxSize;
+    //当前的预算在这个时间之后恢复,System.nanoTime的时间
+    private long mRestoreAtNanos;
+    private long mSize = 0;
+
+    /**
+     * 一张图片的原始数据,data的内容不会再被修改,读取时用{@link #newReader()}
+     */
+    static final class Entry {
+        private final ByteBuffer data;
+        //图片原始宽高,不知道时为0
+        final int width;
+        final int height;
+        //见CacheMetadata#getExpiresAt
+        final long expiresAt;
+
+        Entry(ByteBuffer data, int width, int height, long expiresAt) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        /**
+         * @return 共享数据但位置独立的只读视图,多个线程可以同时解码
+         */
+        ByteBuffer newReader() {
+            return data.asReadOnlyBuffer();
+        }
+
+        int length() {
+            return data.capacity();
+        }
+    }
+
+    /**
+     * @param maxSize 最多占用的字节数,为0时不缓存
+     */
+    public EncodedMemoryCache(long maxSize) {
+        mBaseMaxSize = maxSize;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return 能放进来的最大的单张图片的字节数
+     */
+    public long getMaxEntrySize() {
+        return mBaseMaxSize / MAX_ENTRY_DIVISOR;
+    }
+
+    /**
+     * 把文件读入直接内存,不经过Java堆上的中间数组
+     * @param length 文件长度
+     * @return 文件太大放不进来时返回null
+     */
+    public ByteBuffer read(FileChannel channel, long length) throws IOException {
+        if(length <= 0 || length > getMaxEntrySize()){
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.allocateDirect((int) length);
+        long position = 0;
+        while(data.hasRemaining()){
+            int read = channel.read(data, position);
+            if(read < 0){
+                //文件比记录的长度短
+                return null;
+            }
+            position += read;
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * 放入缓存,已经有同一份磁盘缓存的数据时保留旧的,磁盘缓存更新过时替换掉
+     * @param width 图片原始宽度,不知道时传0
+     * @param height 图片原始高度,不知道时传0
+     * @param expiresAt 磁盘缓存里这张图片的过期时间
+     * @return 缓存中的数据,太大放不进来时返回null,预算收缩时可能刚放进来就被淘汰,但返回的数据仍然可以用
+     */
+    public synchronized Entry put(String url, ByteBuffer data, int width, int height, long expiresAt) {
+        if(url == null || data == null || data.capacity() > getMaxEntrySize()){
+            return null;
+        }
+        restoreBudgetIfExpired();
+        Entry entry = mEntries.get(url);
+        if(entry != null){
+            if(entry.expiresAt == expiresAt){
+                return entry;
+            }
+            remove(url);
+        }
+        entry = new Entry(data, width, height, expiresAt);
+        mEntries.put(url, entry);
+        mSize += entry.length();
+        trimToSize(mMaxSize);
+        return entry;
+    }
+
+    /**
+     * @return 没有缓存时返回null,过期的也会返回,调用方用{@link Entry#isFresh}判断
+     */
+    public synchronized Entry get(String url) {
+        return mEntries.get(url);
+    }
+
+    /**
+     * 去掉一条缓存,正在使用这份数据的解码不受影响
+     */
+    public synchronized void remove(String url) {
+        Entry entry = mEntries.remove(url);
+        if(entry != null){
+            mSize -= entry.length();
+        }
+    }
+
+    /**
+     * 系统内存不足时收缩,淘汰到预算的ratio为止,
+     * 之后的预算在holdMillis内保持收缩,期间没有再次收缩就恢复,
+     * 放进来的数据马上就会被解码,不需要像内存缓存那样保留最低预算
+     * @param ratio 保留的比例,0表示清空
+     * @return 淘汰掉的字节数
+     */
+    public synchronized long trim(float ratio, long holdMillis) {
+        restoreBudgetIfExpired();
+        final long before = mSize;
+        mMaxSize = Math.min(mMaxSize, (long) (mBaseMaxSize * ratio));
+        trimToSize(mMaxSize);
+        mRestoreAtNanos = System.nanoTime() + holdMillis * 1000000L;
+        return before - mSize;
+    }
+
+    //收缩的时间过了就恢复原来的预算
+    private void restoreBudgetIfExpired() {
+        if(mMaxSize < mBaseMaxSize && System.nanoTime() - mRestoreAtNanos >= 0){
+            mMaxSize = mBaseMaxSize;
+        }
+    }
+
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while(mSize > maxSize && iterator.hasNext()){
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            mSize -= eldest.length();
+        }
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized int count() {
+        return mEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EncodedMemoryCache[size=" + mSize + "/" + mMaxSize + ",count=" + mEntries.size() + "]";
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.mr_do.planclock.util.image;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 跟着Choreographer的帧回调分发加载请求,
+ * 每帧最多收集一次可见view的请求,只提交还没有在加载的,
+ * 并且每帧提交的耗时不超过预算,剩下的留到下一帧
+ */
+
+public class FrameLoadDispatcher implements Choreographer.FrameCallback {
+    //每帧用于提交请求的时间预算
+    private static final long FRAME_BUDGET_NANOS = 4000000L;
+    private final ImageRecyclerView mView;
+    private final IImageLoader mImageLoader;
+    private final LoadRequestCollector mCollector;
+    private final List<LoadRequest> mRequests = new ArrayList<>();
+    //每个view最后一次提交的请求
+    private final Map<IImageLoader.ShowView, String> mSubmitted = new WeakHashMap<>();
+    private boolean mScheduled = false;
+
+    /**
+     * 一个view的加载请求
+     */
+    public static class LoadRequest{
+        public final String uri;
+        public final int reqWidth;
+        public final int reqHeight;
+        public final IImageLoader.ShowView showView;
+
+        public LoadRequest(String uri, int reqWidth, int reqHeight, IImageLoader.ShowView showView) {
+            this.uri = uri;
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            this.showView = showView;
+        }
+    }
+
+    public interface LoadRequestCollector{
+        /**
+         * 收集可见的子view的加载请求,已经有图片的view不用放进来
+         * @param view 列表
+         * @param requests 放入请求
+         */
+        void collectLoadRequests(ImageRecyclerView view, List<LoadRequest> requests);
+    }
+
+    public FrameLoadDispatcher(ImageRecyclerView view, IImageLoader imageLoader, LoadRequestCollector collector) {
+        mView = view;
+        mImageLoader = imageLoader;
+        mCollector = collector;
+    }
+
+    /**
+     * 在下一帧分发,一帧之内多次调用只会分发一次,只能在主线程调用
+     */
+    public void requestDispatch(){
+        if(mScheduled){
+            return;
+        }
+        mScheduled = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    public void cancel(){
+        if(mScheduled){
+            Choreographer.getInstance().removeFrameCallback(this);
+            mScheduled = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        final long start = System.nanoTime();
+        mCollector.collectLoadRequests(mView, mRequests);
+        for(int i = 0; i < mRequests.size(); i++){
+            if(System.nanoTime() - start > FRAME_BUDGET_NANOS){
+                //超出这一帧的预算,剩下的下一帧重新收集后再提交
+                requestDispatch();
+                break;
+            }
+            LoadRequest request = mRequests.get(i);
+            //key包含view接受的解码方式,和正在加载的任务的key一致
+            final String key = mImageLoader.requestKey(request.uri, request.reqWidth, request.reqHeight,
+                    request.showView);
+            if(key.equals(mSubmitted.get(request.showView))
+                    && mImageLoader.isLoading(request.uri, request.reqWidth, request.reqHeight, request.showView)){
+                continue;
+            }
+            mSubmitted.put(request.showView, key);
+            try {
+                mImageLoader.asyncLoadImageFromWeb(request.uri, request.reqWidth, request.reqHeight, request.showView);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        mRequests.clear();
+    }
+}
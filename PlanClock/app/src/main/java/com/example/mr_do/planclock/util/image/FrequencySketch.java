@@ -0,0 +1,89 @@
+package com.example.mr_do.planclock.util.image;
+
+/**
+ * 估计每张图片最近被请求了多少次,count-min sketch,
+ * 每个计数4位,16个计数放在一个long里,同一个key在4行里各占一个计数,取其中最小的,
+ * 累计的次数达到采样数时所有计数减半,很久以前热门的图片慢慢降温,
+ * 不保存key本身,记录几千张图片只占几KB
+ */
+
+class FrequencySketch {
+    //每个计数最大到15
+    private static final int MAX_COUNT = 15;
+    //右移一位后清掉从相邻计数移过来的最高位
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private final long[] mTable;
+    //计数的下标掩码,计数的个数是2的幂
+    private final int mCounterMask;
+    private final int mSampleSize;
+    private int mAdditions = 0;
+
+    /**
+     * @param expectedEntries 要区分的图片数,一般比缓存能放下的多,滑过去的图片也要记住
+     */
+    public FrequencySketch(int expectedEntries) {
+        final int entries = Math.max(16, expectedEntries);
+        //每张图片4个计数,16个计数一个long,计数总数是图片数的4倍左右
+        final int tableSize = Integer.highestOneBit(entries - 1) << 1 >>> 2;
+        mTable = new long[Math.max(4, tableSize)];
+        mCounterMask = mTable.length * 16 - 1;
+        mSampleSize = 10 * entries;
+    }
+
+    /**
+     * @return 估计的请求次数,最大为15,只会比实际的多不会少
+     */
+    public int frequency(String key) {
+        final int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for(int i = 0; i < SEEDS.length; i++){
+            frequency = Math.min(frequency, count(indexOf(hash, i)));
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次请求
+     */
+    public void increment(String key) {
+        final int hash = spread(key.hashCode());
+        boolean added = false;
+        for(int i = 0; i < SEEDS.length; i++){
+            final int index = indexOf(hash, i);
+            if(count(index) < MAX_COUNT){
+                mTable[index >>> 4] += 1L << ((index & 15) << 2);
+                added = true;
+            }
+        }
+        if(added && ++mAdditions >= mSampleSize){
+            reset();
+        }
+    }
+
+    private int count(int index) {
+        return (int) ((mTable[index >>> 4] >>> ((index & 15) << 2)) & 0xf);
+    }
+
+    //所有计数减半
+    private void reset() {
+        for(int i = 0; i < mTable.length; i++){
+            mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+        }
+        mAdditions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mCounterMask;
+    }
+
+    //String的hashCode低位分布不够均匀,再打散一次
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * 用HttpURLConnection下载图片,
+ * 有缓存信息时发起条件请求,服务器返回304时不传输图片内容,
+ * 有下载到一半的数据时发起Range请求,从断开的位置继续下载
+ */
+
+class HttpImageFetcher implements ImageFetcher {
+    private static final int CONNECT_TIMEOUT = 15 * 1000;
+    private static final int READ_TIMEOUT = 20 * 1000;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * 下载图片
+     * @param uri 图片地址
+     * @param cached 磁盘缓存中已经过期的缓存信息,没有缓存时传null
+     * @return 200或者304的响应
+     * @throws IOException 网络错误或者其他的响应码
+     */
+    Response fetch(String uri, CacheMetadata cached) throws IOException {
+        return fetch(uri, cached, 0, null);
+    }
+
+    @Override
+    public Response fetch(String uri, CacheMetadata cached, long rangeStart, String rangeValidator) throws IOException {
+        final boolean ranged = rangeStart > 0 && rangeValidator != null;
+        final HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        //缓存由磁盘缓存自己管理,不经过系统的HTTP缓存
+        connection.setUseCaches(false);
+        if(cached != null) {
+            if(cached.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", cached.getETag());
+            }
+            if(cached.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        if(ranged) {
+            connection.setRequestProperty("Range", "bytes=" + rangeStart + "-");
+            connection.setRequestProperty("If-Range", rangeValidator);
+            //压缩过的响应的Range是按压缩后的数据算的,续传时要求不压缩
+            connection.setRequestProperty("Accept-Encoding", "identity");
+        }
+        //关闭响应时断开连接
+        final Closeable disconnect = new Closeable() {
+            @Override
+            public void close() {
+                connection.disconnect();
+            }
+        };
+        try {
+            final int code = connection.getResponseCode();
+            final CacheMetadata metadata = readMetadata(connection);
+            if(code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                return new Response(code, null, cached.revalidated(metadata), disconnect, 0, -1);
+            }
+            if(code == HTTP_RANGE_NOT_SATISFIABLE && ranged) {
+                //暂存的数据和服务器上的对不上,从头下载
+                connection.disconnect();
+                return fetch(uri, cached, 0, null);
+            }
+            if(code < 200 || code >= 300) {
+                throw new IOException("Unexpected response " + code + " for " + uri);
+            }
+            long start = 0;
+            long total = parseLong(connection.getHeaderField("Content-Length"));
+            if(code == HttpURLConnection.HTTP_PARTIAL) {
+                //Content-Range: bytes start-end/total
+                String contentRange = connection.getHeaderField("Content-Range");
+                start = parseRangeStart(contentRange);
+                total = parseRangeTotal(contentRange);
+                if(start != rangeStart) {
+                    throw new IOException("Unexpected Content-Range " + contentRange + " for " + uri);
+                }
+            }
+            return new Response(code, connection.getInputStream(), metadata, disconnect, start, total);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    static long parseRangeStart(String contentRange) {
+        if(contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        return dash < 0 ? -1 : parseLong(contentRange.substring("bytes ".length(), dash));
+    }
+
+    static long parseRangeTotal(String contentRange) {
+        if(contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        return slash < 0 ? -1 : parseLong(contentRange.substring(slash + 1));
+    }
+
+    private static long parseLong(String value) {
+        if(value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            //比如Content-Range里的"*"
+            return -1;
+        }
+    }
+
+    private static CacheMetadata readMetadata(HttpURLConnection connection) {
+        return CacheMetadata.fromHeaders(
+                connection.getHeaderField("ETag"),
+                connection.getHeaderField("Last-Modified"),
+                connection.getHeaderFieldDate("Last-Modified", 0),
+                connection.getHeaderField("Cache-Control"),
+                connection.getHeaderFieldDate("Expires", 0),
+                System.currentTimeMillis());
+    }
+}
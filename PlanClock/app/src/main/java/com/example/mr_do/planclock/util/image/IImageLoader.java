@@ -15,6 +15,22 @@ public interface IImageLoader {
         void bindView(Bitmap bitmap);
 
     }
+
+    /**
+     * view可以选择实现这个接口,声明自己能接受的Bitmap格式,
+     * 没有实现的view两种都接受:不透明的图片用RGB_565,支持的系统上用硬件Bitmap
+     */
+    interface BitmapConfigPolicy{
+        /**
+         * @return 不透明的图片能否用RGB_565,颜色渐变多的大图可能出现色带
+         */
+        boolean allowRgb565();
+
+        /**
+         * @return 能否用硬件Bitmap,需要在软件画布上绘制或者读取像素的view不能用
+         */
+        boolean allowHardwareBitmap();
+    }
     /**
      * 异步从网络加载图片到view上
      * @param uri 图片地址
@@ -24,12 +40,48 @@ public interface IImageLoader {
      */
     void asyncLoadImageFromWeb(String uri, int reqWidth, int reqHeight, ShowView showView) throws Exception;
 
+    /**
+     * 以低优先级把网络图片预加载到缓存中,不绑定view,
+     * 超出预加载的预算时直接忽略
+     * @param uri 图片地址
+     * @param reqWidth 需要的宽度
+     * @param reqHeight 需要的高度
+     * @return 已经在缓存中或者已经开始预加载返回true,超出预算返回false
+     */
+    boolean prefetchImageFromWeb(String uri, int reqWidth, int reqHeight);
+
+    /**
+     * 按将来要绑定的view的解码方式预加载,绑定时才能命中同一份缓存
+     * @param policy 要绑定的view声明的Bitmap格式,为null时和没有实现{@link BitmapConfigPolicy}的view一样
+     * @return 已经在缓存中或者已经开始预加载返回true,超出预算返回false
+     */
+    boolean prefetchImageFromWeb(String uri, int reqWidth, int reqHeight, BitmapConfigPolicy policy);
 
     /**
-     * 异步从磁盘加载图片到view上
+     * 同一张图片同一尺寸是否正在按默认的解码方式加载
      * @param uri 图片地址
      * @param reqWidth 需要的宽度
      * @param reqHeight 需要的高度
+     */
+    boolean isLoading(String uri, int reqWidth, int reqHeight);
+
+    /**
+     * 同一张图片同一尺寸是否正在按showView接受的解码方式加载
+     */
+    boolean isLoading(String uri, int reqWidth, int reqHeight, ShowView showView);
+
+    /**
+     * @return 加载到showView上的请求的key,和正在加载的任务的key一致,包含showView接受的解码方式
+     */
+    String requestKey(String uri, int reqWidth, int reqHeight, ShowView showView);
+
+
+    /**
+     * 异步从磁盘加载本机图片到view上,比如相册里的照片,
+     * 照片里嵌入的缩略图够大时直接用缩略图,不解码整张照片
+     * @param uri 文件路径、file://或者content://地址
+     * @param reqWidth 需要的宽度
+     * @param reqHeight 需要的高度
      * @param showView 要绑定的view
      */
     void asyncLoadImageFromDisk(String uri, int reqWidth, int reqHeight, ShowView showView);
@@ -0,0 +1,80 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+
+/**
+ * 解码图片的服务接口,T是解码出来的图片类型,Android上是Bitmap,
+ * 测试时可以换成不依赖Android的实现
+ */
+
+public interface ImageDecoder<T> {
+    //请求方允许不透明的图片用较低的色深解码,Android上是RGB_565
+    int FLAG_ALLOW_LOW_DEPTH = 1;
+    //请求方允许解码成只存在显存里的图片,Android上是硬件Bitmap
+    int FLAG_ALLOW_HARDWARE = 2;
+    //请求方希望解码成正好的尺寸,而不是只按2的幂采样,绑定时不用再缩放
+    int FLAG_EXACT_SIZE = 4;
+
+    /**
+     * 从文件头读取图片的宽高
+     * @param head 文件开头的数据
+     * @param length head中有效数据的长度
+     * @param outSize 读取到的宽高,outSize[0]是宽,outSize[1]是高
+     * @return 文件头里没有宽高时返回false
+     */
+    boolean decodeBounds(byte[] head, int length, int[] outSize);
+
+    /**
+     * 压缩文件中的图片,
+     * 如果需要的宽度或者高度为0,则说明不压缩
+     * @param fd 文件
+     * @param srcWidth 图片原始宽度,不知道时传0,会先从文件读取宽高
+     * @param srcHeight 图片原始高度,不知道时传0
+     * @param reqWidth 需要的宽度
+     * @param reqHeight 需要的高度
+     * @param flags 请求方允许的解码方式,FLAG_开头的常量的组合
+     * @return 解码失败返回null
+     */
+    T decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags);
+
+    /**
+     * 压缩内存中的图片原始数据,参数和{@link #decodeFile}一样
+     * @param data 从position到limit是完整的图片文件,可以随意移动position
+     * @return 解码失败返回null
+     */
+    T decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags);
+
+    /**
+     * 在内存中把一张较大的图片缩小,缩小后的图片和原图的解码方式一样
+     * @param flags 请求方允许的解码方式,有FLAG_EXACT_SIZE时缩小到正好的尺寸
+     * @return 缩小后的图片,不需要缩小时返回原图,没法在内存中缩小时返回null,改为从文件解码
+     */
+    T scale(T source, int reqWidth, int reqHeight, int flags);
+
+    int getWidth(T image);
+
+    int getHeight(T image);
+
+    /**
+     * @return 图片占用的内存字节数,内存缓存按这个计算大小
+     */
+    int getByteCount(T image);
+
+    /**
+     * @return 使用这张图片需要请求方允许的解码方式,普通的图片返回0
+     */
+    int getRequiredFlags(T image);
+
+    /**
+     * 图片被内存缓存淘汰,已经没有地方在用,可以回收复用
+     */
+    void recycle(T image);
+
+    /**
+     * 系统内存不足时收缩回收复用的图片
+     * @param ratio 保留的比例,0表示全部丢掉
+     * @return 释放的字节数
+     */
+    long trimRecycled(float ratio);
+}
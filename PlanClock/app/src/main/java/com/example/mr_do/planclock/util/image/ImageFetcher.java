@@ -0,0 +1,121 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 下载图片的服务接口,默认实现是{@link HttpImageFetcher},
+ * 测试时可以换成本地的实现
+ */
+
+public interface ImageFetcher {
+    int HTTP_OK = 200;
+    int HTTP_PARTIAL = 206;
+    int HTTP_NOT_MODIFIED = 304;
+
+    /**
+     * 下载图片,从rangeStart开始续传
+     * @param uri 图片地址
+     * @param cached 磁盘缓存中已经过期的缓存信息,没有缓存时传null,有的话发起条件请求
+     * @param rangeStart 已经收到的字节数,大于0并且有rangeValidator时发起Range请求
+     * @param rangeValidator 上次响应的校验字段,图片变了时返回完整的200
+     * @return 200,206或者304的响应,用完后必须关闭
+     * @throws IOException 网络错误或者其他的响应码
+     */
+    Response fetch(String uri, CacheMetadata cached, long rangeStart, String rangeValidator) throws IOException;
+
+    /**
+     * 一次请求的结果,用完后必须关闭
+     */
+    class Response implements Closeable {
+        private final int mCode;
+        private final InputStream mBody;
+        private final CacheMetadata mMetadata;
+        private final Closeable mConnection;
+        private final long mRangeStart;
+        private final long mTotalLength;
+
+        /**
+         * @param body 图片内容,304时为null
+         * @param metadata 这次响应之后应该保存的缓存信息
+         * @param connection 关闭时一起释放的连接,没有时传null
+         * @param rangeStart body在整张图片中的起始位置,200时为0
+         * @param totalLength 整张图片的长度,不知道时为-1
+         */
+        public Response(int code, InputStream body, CacheMetadata metadata, Closeable connection,
+                        long rangeStart, long totalLength) {
+            mCode = code;
+            mBody = body;
+            mMetadata = metadata;
+            mConnection = connection;
+            mRangeStart = rangeStart;
+            mTotalLength = totalLength;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        public boolean isNotModified() {
+            return mCode == HTTP_NOT_MODIFIED;
+        }
+
+        /**
+         * @return body在整张图片中的起始位置,200时为0
+         */
+        public long getRangeStart() {
+            return mRangeStart;
+        }
+
+        /**
+         * @return 整张图片的长度,不知道时为-1
+         */
+        public long getTotalLength() {
+            return mTotalLength;
+        }
+
+        /**
+         * @return 续传时可以放在If-Range里的校验字段,弱ETag不能用于If-Range,没有时返回null
+         */
+        public String getRangeValidator() {
+            String eTag = mMetadata.getETag();
+            if(eTag != null && !eTag.startsWith("W/")) {
+                return eTag;
+            }
+            return mMetadata.getLastModified();
+        }
+
+        /**
+         * @return 图片内容,304时为null
+         */
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return 这次响应之后应该保存的缓存信息,304时已经和旧的合并过
+         */
+        public CacheMetadata getMetadata() {
+            return mMetadata;
+        }
+
+        @Override
+        public void close() {
+            if(mBody != null) {
+                try {
+                    mBody.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if(mConnection != null) {
+                try {
+                    mConnection.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.mr_do.planclock.util.image;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+
+/**
+ * 图片加载器的配置,通过{@link Builder}创建,
+ * 交给{@link NativeImageLoader#init(Context, ImageLoaderConfig)}在进程内只应用一次,
+ * 没有设置的项按设备的内存档次取默认值
+ */
+
+public final class ImageLoaderConfig {
+    //低内存设备上缓存和线程都减半左右,给系统和别的进程多留一些
+    private static final long LOW_RAM_DISK_CACHE_SIZE = 1024*1024*20;
+    private static final int LOW_RAM_NETWORK_THREADS = 2;
+    private static final int LOW_RAM_DECODE_THREADS = 2;
+
+    private final long mMemoryCacheSize;
+    private final long mEncodedCacheSize;
+    private final long mTileCacheSize;
+    private final long mDiskCacheSize;
+    private final long mBitmapPoolSize;
+    private final int mNetworkThreads;
+    private final int mDecodeThreads;
+    private final IImageLoader.BitmapConfigPolicy mBitmapConfigPolicy;
+    private final File mDiskCacheDir;
+    private final boolean mFrequencyAdmissionEnabled;
+
+    private ImageLoaderConfig(Builder builder) {
+        mMemoryCacheSize = builder.mMemoryCacheSize;
+        mEncodedCacheSize = builder.mEncodedCacheSize;
+        mTileCacheSize = builder.mTileCacheSize;
+        mDiskCacheSize = builder.mDiskCacheSize;
+        mBitmapPoolSize = builder.mBitmapPoolSize;
+        mNetworkThreads = builder.mNetworkThreads;
+        mDecodeThreads = builder.mDecodeThreads;
+        mBitmapConfigPolicy = builder.mBitmapConfigPolicy;
+        mDiskCacheDir = builder.mDiskCacheDir;
+        mFrequencyAdmissionEnabled = builder.mFrequencyAdmissionEnabled;
+    }
+
+    /**
+     * @return 内存缓存最多占用的字节数
+     */
+    public long getMemoryCacheSize() {
+        return mMemoryCacheSize;
+    }
+
+    /**
+     * @return 内存中的原始数据缓存最多占用的字节数
+     */
+    public long getEncodedCacheSize() {
+        return mEncodedCacheSize;
+    }
+
+    /**
+     * @return 大图分块解码出来的块最多占用的字节数
+     */
+    public long getTileCacheSize() {
+        return mTileCacheSize;
+    }
+
+    /**
+     * @return 磁盘缓存最多占用的字节数
+     */
+    public long getDiskCacheSize() {
+        return mDiskCacheSize;
+    }
+
+    /**
+     * @return Bitmap复用池最多占用的字节数
+     */
+    public long getBitmapPoolSize() {
+        return mBitmapPoolSize;
+    }
+
+    public int getNetworkThreads() {
+        return mNetworkThreads;
+    }
+
+    public int getDecodeThreads() {
+        return mDecodeThreads;
+    }
+
+    /**
+     * @return 没有实现{@link IImageLoader.BitmapConfigPolicy}的view和预加载使用的策略,为null时两种格式都接受
+     */
+    public IImageLoader.BitmapConfigPolicy getBitmapConfigPolicy() {
+        return mBitmapConfigPolicy;
+    }
+
+    /**
+     * @return 磁盘缓存目录,为null时使用应用的缓存目录
+     */
+    public File getDiskCacheDir() {
+        return mDiskCacheDir;
+    }
+
+    /**
+     * @return 内存缓存是否按W-TinyLFU淘汰,为false时按LRU淘汰
+     */
+    public boolean isFrequencyAdmissionEnabled() {
+        return mFrequencyAdmissionEnabled;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageLoaderConfig[memory=" + mMemoryCacheSize + ",encoded=" + mEncodedCacheSize
+                + ",tile=" + mTileCacheSize + ",disk=" + mDiskCacheSize
+                + ",pool=" + mBitmapPoolSize + ",networkThreads=" + mNetworkThreads
+                + ",decodeThreads=" + mDecodeThreads + ",diskDir=" + mDiskCacheDir
+                + ",frequencyAdmission=" + mFrequencyAdmissionEnabled + "]";
+    }
+
+    public static final class Builder {
+        private final long mMaxMemory;
+        private final boolean mLowRamDevice;
+        //0表示没有设置,build时取默认值
+        private long mMemoryCacheSize;
+        private long mEncodedCacheSize;
+        private long mTileCacheSize;
+        private long mDiskCacheSize;
+        private long mBitmapPoolSize;
+        private int mNetworkThreads;
+        private int mDecodeThreads;
+        private IImageLoader.BitmapConfigPolicy mBitmapConfigPolicy;
+        private File mDiskCacheDir;
+        private boolean mFrequencyAdmissionEnabled;
+
+        /**
+         * @param context 用来查询设备是否是低内存设备
+         */
+        public Builder(@NonNull Context context) {
+            this(Runtime.getRuntime().maxMemory(), isLowRamDevice(context));
+        }
+
+        /**
+         * @param maxMemory 应用可用的最大堆内存
+         * @param lowRamDevice 是否是低内存设备
+         */
+        Builder(long maxMemory, boolean lowRamDevice) {
+            mMaxMemory = maxMemory;
+            mLowRamDevice = lowRamDevice;
+        }
+
+        private static boolean isLowRamDevice(Context context) {
+            ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            return activityManager != null && activityManager.isLowRamDevice();
+        }
+
+        /**
+         * @param bytes 内存缓存最多占用的字节数
+         */
+        public Builder setMemoryCacheSize(long bytes) {
+            mMemoryCacheSize = checkPositive(bytes, "memoryCacheSize");
+            return this;
+        }
+
+        /**
+         * @param bytes 内存中的原始数据缓存最多占用的字节数,原始数据比解码后小得多,同样的预算能多放很多张
+         */
+        public Builder setEncodedCacheSize(long bytes) {
+            mEncodedCacheSize = checkPositive(bytes, "encodedCacheSize");
+            return this;
+        }
+
+        /**
+         * @param bytes 大图分块解码出来的块最多占用的字节数,至少要放得下一屏的块,否则拖动时会反复解码
+         */
+        public Builder setTileCacheSize(long bytes) {
+            mTileCacheSize = checkPositive(bytes, "tileCacheSize");
+            return this;
+        }
+
+        /**
+         * @param bytes 磁盘缓存最多占用的字节数
+         */
+        public Builder setDiskCacheSize(long bytes) {
+            mDiskCacheSize = checkPositive(bytes, "diskCacheSize");
+            return this;
+        }
+
+        /**
+         * @param bytes Bitmap复用池最多占用的字节数
+         */
+        public Builder setBitmapPoolSize(long bytes) {
+            mBitmapPoolSize = checkPositive(bytes, "bitmapPoolSize");
+            return this;
+        }
+
+        public Builder setNetworkThreads(int threads) {
+            mNetworkThreads = (int) checkPositive(threads, "networkThreads");
+            return this;
+        }
+
+        public Builder setDecodeThreads(int threads) {
+            mDecodeThreads = (int) checkPositive(threads, "decodeThreads");
+            return this;
+        }
+
+        /**
+         * @param policy 没有实现{@link IImageLoader.BitmapConfigPolicy}的view和预加载使用的策略
+         */
+        public Builder setBitmapConfigPolicy(IImageLoader.BitmapConfigPolicy policy) {
+            mBitmapConfigPolicy = policy;
+            return this;
+        }
+
+        /**
+         * @param dir 磁盘缓存目录,下载到一半的图片放在旁边的"目录名_partial"目录中
+         */
+        public Builder setDiskCacheDir(File dir) {
+            mDiskCacheDir = dir;
+            return this;
+        }
+
+        /**
+         * @param enabled 内存缓存是否按W-TinyLFU淘汰,只看过一次的图片要比主区最老的图片请求得多才能留下,
+         *                快速滑过列表时不会挤掉反复回来看的图片,但短距离的来回滑动可能比LRU命中得少,默认按LRU淘汰
+         */
+        public Builder setFrequencyAdmissionEnabled(boolean enabled) {
+            mFrequencyAdmissionEnabled = enabled;
+            return this;
+        }
+
+        public ImageLoaderConfig build() {
+            if(mMemoryCacheSize == 0){
+                mMemoryCacheSize = mMaxMemory / (mLowRamDevice ? 16 : 8);
+            }
+            if(mEncodedCacheSize == 0){
+                mEncodedCacheSize = mMaxMemory / (mLowRamDevice ? 32 : 16);
+            }
+            if(mTileCacheSize == 0){
+                mTileCacheSize = mMaxMemory / (mLowRamDevice ? 32 : 16);
+            }
+            if(mDiskCacheSize == 0){
+                mDiskCacheSize = mLowRamDevice ? LOW_RAM_DISK_CACHE_SIZE : DiskCache.DISK_CACHE_SIZE;
+            }
+            if(mBitmapPoolSize == 0){
+                mBitmapPoolSize = mMaxMemory / (mLowRamDevice ? 64 : 32);
+            }
+            if(mNetworkThreads == 0){
+                mNetworkThreads = mLowRamDevice ? LOW_RAM_NETWORK_THREADS : ImagePipeline.DEFAULT_NETWORK_THREADS;
+            }
+            if(mDecodeThreads == 0){
+                mDecodeThreads = mLowRamDevice
+                        ? Math.min(LOW_RAM_DECODE_THREADS, ImagePipeline.DEFAULT_DECODE_THREADS)
+                        : ImagePipeline.DEFAULT_DECODE_THREADS;
+            }
+            return new ImageLoaderConfig(this);
+        }
+
+        private static long checkPositive(long value, String name) {
+            if(value <= 0){
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+    }
+}
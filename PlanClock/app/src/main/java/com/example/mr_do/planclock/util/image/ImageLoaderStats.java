@@ -0,0 +1,346 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 图片加载器某一时刻的统计数据快照,
+ * 通过{@link NativeImageLoader#getStats()}获取,{@link NativeImageLoader#resetStats()}清零
+ */
+
+public final class ImageLoaderStats {
+    private final long mElapsedMillis;
+    private final long mMemoryHits;
+    private final long mEncodedHits;
+    private final long mDiskHits;
+    private final long mThumbnailHits;
+    private final long mNetworkHits;
+    private final long mRevalidatedCount;
+    private final long mCoalescedCount;
+    private final long mFailedCount;
+    private final long mCancelledCount;
+    private final long mBytesDownloaded;
+    private final long mBytesDecoded;
+    private final long mTrimCount;
+    private final long mBytesTrimmed;
+    private final long mDiskCacheOpenMillis;
+    private final Histogram mDiskRead;
+    private final Histogram mDownload;
+    private final Histogram mDecode;
+    private final Histogram mBind;
+    private final List<Stage> mStages;
+
+    ImageLoaderStats(long elapsedMillis, long memoryHits, long encodedHits, long diskHits,
+                     long thumbnailHits, long networkHits,
+                     long revalidatedCount, long coalescedCount, long failedCount, long cancelledCount,
+                     long bytesDownloaded, long bytesDecoded, long trimCount, long bytesTrimmed,
+                     long diskCacheOpenMillis,
+                     Histogram diskRead, Histogram download, Histogram decode, Histogram bind,
+                     List<Stage> stages) {
+        mElapsedMillis = elapsedMillis;
+        mMemoryHits = memoryHits;
+        mEncodedHits = encodedHits;
+        mDiskHits = diskHits;
+        mThumbnailHits = thumbnailHits;
+        mNetworkHits = networkHits;
+        mRevalidatedCount = revalidatedCount;
+        mCoalescedCount = coalescedCount;
+        mFailedCount = failedCount;
+        mCancelledCount = cancelledCount;
+        mBytesDownloaded = bytesDownloaded;
+        mBytesDecoded = bytesDecoded;
+        mTrimCount = trimCount;
+        mBytesTrimmed = bytesTrimmed;
+        mDiskCacheOpenMillis = diskCacheOpenMillis;
+        mDiskRead = diskRead;
+        mDownload = download;
+        mDecode = decode;
+        mBind = bind;
+        mStages = Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * @return 距离上次清零的时间
+     */
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    /**
+     * @return 直接从内存缓存拿到的请求数,包括从更大的版本缩小得到的
+     */
+    public long getMemoryHits() {
+        return mMemoryHits;
+    }
+
+    /**
+     * @return 从内存中的原始数据解码的请求数,不用读磁盘
+     */
+    public long getEncodedHits() {
+        return mEncodedHits;
+    }
+
+    /**
+     * @return 从磁盘缓存读取的请求数,包括304之后沿用磁盘数据的,以及本机图片
+     */
+    public long getDiskHits() {
+        return mDiskHits;
+    }
+
+    /**
+     * @return 本机图片中直接用嵌入的缩略图的请求数,包含在{@link #getDiskHits()}里
+     */
+    public long getThumbnailHits() {
+        return mThumbnailHits;
+    }
+
+    /**
+     * @return 从网络下载图片内容的请求数
+     */
+    public long getNetworkHits() {
+        return mNetworkHits;
+    }
+
+    /**
+     * @return 过期后服务器返回304的请求数
+     */
+    public long getRevalidatedCount() {
+        return mRevalidatedCount;
+    }
+
+    /**
+     * @return 挂到已有任务上,没有单独加载的请求数
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    public long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return view已经换了图片或者被队列丢掉的任务数
+     */
+    public long getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * @return 内存缓存的命中率,没有请求时为0
+     */
+    public double getMemoryHitRate() {
+        final long total = mMemoryHits + mEncodedHits + mDiskHits + mNetworkHits + mFailedCount;
+        return total == 0 ? 0 : (double) mMemoryHits / total;
+    }
+
+    public long getBytesDownloaded() {
+        return mBytesDownloaded;
+    }
+
+    /**
+     * @return 解码出来的Bitmap占用的内存总量
+     */
+    public long getBytesDecoded() {
+        return mBytesDecoded;
+    }
+
+    /**
+     * @return 系统内存不足时收缩缓存的次数
+     */
+    public long getTrimCount() {
+        return mTrimCount;
+    }
+
+    /**
+     * @return 收缩缓存时释放的内存总量,包括内存缓存、原始数据缓存和Bitmap复用池
+     */
+    public long getBytesTrimmed() {
+        return mBytesTrimmed;
+    }
+
+    /**
+     * @return 打开磁盘缓存的耗时,在后台线程完成,还没有打开时为-1
+     */
+    public long getDiskCacheOpenMillis() {
+        return mDiskCacheOpenMillis;
+    }
+
+    public Histogram getDiskReadLatency() {
+        return mDiskRead;
+    }
+
+    public Histogram getDownloadLatency() {
+        return mDownload;
+    }
+
+    public Histogram getDecodeLatency() {
+        return mDecode;
+    }
+
+    /**
+     * @return 从工作线程完成到主线程绑定的耗时
+     */
+    public Histogram getBindLatency() {
+        return mBind;
+    }
+
+    /**
+     * @return 磁盘、网络、解码三个阶段的线程池状态
+     */
+    public List<Stage> getStages() {
+        return mStages;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageLoaderStats[elapsedMs=" + mElapsedMillis
+                + ",memory=" + mMemoryHits + ",encoded=" + mEncodedHits + ",disk=" + mDiskHits
+                + ",thumbnail=" + mThumbnailHits + ",network=" + mNetworkHits
+                + ",revalidated=" + mRevalidatedCount + ",coalesced=" + mCoalescedCount
+                + ",failed=" + mFailedCount + ",cancelled=" + mCancelledCount
+                + ",downloadedBytes=" + mBytesDownloaded + ",decodedBytes=" + mBytesDecoded
+                + ",trims=" + mTrimCount + ",trimmedBytes=" + mBytesTrimmed
+                + ",diskOpenMs=" + mDiskCacheOpenMillis
+                + "," + mDiskRead + "," + mDownload + "," + mDecode + "," + mBind
+                + "," + mStages + "]";
+    }
+
+    /**
+     * 一个阶段的耗时分布
+     */
+    public static final class Histogram {
+        private final String mName;
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mTotalNanos;
+        private final long mMaxNanos;
+
+        Histogram(String name, long[] buckets, long totalNanos, long maxNanos) {
+            mName = name;
+            mBuckets = buckets;
+            long count = 0;
+            for(long bucket : buckets) {
+                count += bucket;
+            }
+            mCount = count;
+            mTotalNanos = totalNanos;
+            mMaxNanos = maxNanos;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public double getMeanMillis() {
+            return mCount == 0 ? 0 : mTotalNanos / 1e6 / mCount;
+        }
+
+        public double getMaxMillis() {
+            return mMaxNanos / 1e6;
+        }
+
+        /**
+         * 按桶估算的分位数,返回所在桶的上界,误差在2倍以内
+         * @param percentile 0到100之间
+         */
+        public double getPercentileMillis(double percentile) {
+            if(mCount == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(mCount * percentile / 100);
+            long seen = 0;
+            for(int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if(seen >= rank && seen > 0) {
+                    return Math.min(LatencyHistogram.upperBoundMicros(i) / 1e3, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        /**
+         * @return 每个桶的次数,第i个桶的上界是2^i微秒
+         */
+        public long[] getBuckets() {
+            return mBuckets.clone();
+        }
+
+        @Override
+        public String toString() {
+            return mName + "[count=" + mCount + ",meanMs=" + getMeanMillis()
+                    + ",p50Ms=" + getPercentileMillis(50) + ",p90Ms=" + getPercentileMillis(90)
+                    + ",p99Ms=" + getPercentileMillis(99) + ",maxMs=" + getMaxMillis() + "]";
+        }
+    }
+
+    /**
+     * 一个阶段的线程池和队列状态
+     */
+    public static final class Stage {
+        private final String mName;
+        private final int mPoolSize;
+        private final int mActiveThreads;
+        private final int mQueueDepth;
+        private final int mMaxQueueDepth;
+        private final long mSubmittedCount;
+        private final long mCompletedCount;
+        private final long mDroppedCount;
+
+        Stage(String name, int poolSize, int activeThreads, int queueDepth, int maxQueueDepth,
+              long submittedCount, long completedCount, long droppedCount) {
+            mName = name;
+            mPoolSize = poolSize;
+            mActiveThreads = activeThreads;
+            mQueueDepth = queueDepth;
+            mMaxQueueDepth = maxQueueDepth;
+            mSubmittedCount = submittedCount;
+            mCompletedCount = completedCount;
+            mDroppedCount = droppedCount;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getPoolSize() {
+            return mPoolSize;
+        }
+
+        public int getActiveThreads() {
+            return mActiveThreads;
+        }
+
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        public long getSubmittedCount() {
+            return mSubmittedCount;
+        }
+
+        public long getCompletedCount() {
+            return mCompletedCount;
+        }
+
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        @Override
+        public String toString() {
+            return mName + "[pool=" + mPoolSize + ",active=" + mActiveThreads
+                    + ",queued=" + mQueueDepth + ",maxQueued=" + mMaxQueueDepth
+                    + ",submitted=" + mSubmittedCount + ",completed=" + mCompletedCount
+                    + ",dropped=" + mDroppedCount + "]";
+        }
+    }
+}
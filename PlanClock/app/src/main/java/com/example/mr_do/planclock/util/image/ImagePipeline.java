@@ -0,0 +1,847 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.example.mr_do.planclock.util.IOUtil;
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 双缓存加载流水线:内存缓存 -> 磁盘缓存 -> 网络 -> 解码 -> 主线程绑定,
+ * 下载、解码和切换主线程都通过服务接口完成,不依赖Android,可以直接在JVM上测试
+ * @param <T> 解码出来的图片类型
+ */
+
+class ImagePipeline<T> {
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    //网络请求大部分时间在等IO,线程可以多一些,慢连接不会挡住磁盘命中的图片
+    static final int DEFAULT_NETWORK_THREADS = Math.max(4, CPU_COUNT);
+    //解码是CPU密集的,和CPU核数一致
+    static final int DEFAULT_DECODE_THREADS = CPU_COUNT;
+    //可见的view的请求
+    public static final int PRIORITY_VISIBLE = 0;
+    //预加载的请求
+    public static final int PRIORITY_PREFETCH = 1;
+    //预加载同时在跑的任务上限,大部分网络线程要留给可见的图片
+    private static final int MAX_PREFETCH_IN_FLIGHT = 2;
+    //预加载每秒最多下载的字节数
+    private static final long PREFETCH_BYTES_PER_SECOND = 1024*1024;
+    //内存缓存超过这个比例以后,预加载只写磁盘不解码
+    private static final float PREFETCH_MEMORY_RATIO = 0.75f;
+    //任务依次经过的阶段
+    private static final int STAGE_DISK = 0;
+    private static final int STAGE_NETWORK = 1;
+    private static final int STAGE_DECODE = 2;
+
+    /**
+     * 等待图片的对象,一般是一个view
+     */
+    public interface Target<T> {
+        /**
+         * @return 是否还在等这张图片,view已经绑定到别的图片上时返回false
+         */
+        boolean isWaitingFor(String uri);
+
+        /**
+         * 在主线程调用
+         */
+        void onImageReady(T image);
+    }
+
+    private final MemoryCache<T> mMemoryCache;
+    private final EncodedMemoryCache mEncodedCache;
+    private final TileCache<T> mTileCache;
+    private final DiskCache<T> mDiskCache;
+    private final ImageFetcher mFetcher;
+    //为null时不能加载本机图片
+    private final LocalImageDecoder<T> mLocalDecoder;
+    private final ImageDecoder<T> mDecoder;
+    private final MainThreadDispatcher mDispatcher;
+    private final LoaderMetrics mMetrics;
+    //磁盘缓存的查找很快,少量线程即可
+    private final LoadStage mDiskStage = new LoadStage("disk", 2, 48);
+    private final LoadStage mNetworkStage;
+    private final LoadStage mDecodeStage;
+    private final ResultDelivery mResultDelivery = new ResultDelivery();
+
+    //正在进行中的请求表,同一uri同一尺寸只会有一个任务去下载和解码
+    private final Map<String, LoadTask> mInFlightTasks = new HashMap<>();
+    private final AtomicInteger mPrefetchInFlight = new AtomicInteger(0);
+    //预加载的下载量按一秒的窗口统计
+    private final Object mPrefetchBudgetLock = new Object();
+    private long mPrefetchWindowStart = 0;
+    private long mPrefetchWindowBytes = 0;
+
+    public ImagePipeline(MemoryCache<T> memoryCache, DiskCache<T> diskCache, ImageFetcher fetcher,
+                         ImageDecoder<T> decoder, MainThreadDispatcher dispatcher, LoaderMetrics metrics){
+        this(memoryCache, new EncodedMemoryCache(0), new TileCache<T>(0, decoder), diskCache, fetcher, null,
+                decoder, dispatcher, metrics, DEFAULT_NETWORK_THREADS, DEFAULT_DECODE_THREADS);
+    }
+
+    /**
+     * @param encodedCache 内存中的原始数据缓存,预算为0时不使用
+     * @param tileCache 分块显示的大图解码出来的块的缓存
+     * @param localDecoder 解码本机图片,为null时不能调用{@link #loadLocal}
+     * @param networkThreads 下载的线程数
+     * @param decodeThreads 解码的线程数
+     */
+    public ImagePipeline(MemoryCache<T> memoryCache, EncodedMemoryCache encodedCache, TileCache<T> tileCache,
+                         DiskCache<T> diskCache, ImageFetcher fetcher, LocalImageDecoder<T> localDecoder, ImageDecoder<T> decoder,
+                         MainThreadDispatcher dispatcher, LoaderMetrics metrics,
+                         int networkThreads, int decodeThreads){
+        mNetworkStage = new LoadStage("network", networkThreads, 32);
+        mDecodeStage = new LoadStage("decode", decodeThreads, 32);
+        mMemoryCache = memoryCache;
+        mEncodedCache = encodedCache;
+        mTileCache = tileCache;
+        mDiskCache = diskCache;
+        mFetcher = fetcher;
+        mLocalDecoder = localDecoder;
+        mDecoder = decoder;
+        mDispatcher = dispatcher;
+        mMetrics = metrics;
+    }
+
+    private class LoadResult{
+        public LoadResult(List<Target<T>> targets, T image, String tag) {
+            this.targets = targets;
+            this.image = image;
+            this.tag = tag;
+            this.enqueueTime = System.nanoTime();
+        }
+        public List<Target<T>> targets;
+        public T image;
+        public String tag;
+        public long enqueueTime;
+    }
+
+    /**
+     * 把工作线程完成的结果攒起来,在下一帧一次性绑定到view上,
+     * 同时统计每批的数量和从完成到绑定的延迟
+     */
+    private class ResultDelivery implements Runnable{
+        private final ConcurrentLinkedQueue<LoadResult> mPendingResults = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+        private final AtomicLong mBatchCount = new AtomicLong(0);
+        private final AtomicLong mDeliveredCount = new AtomicLong(0);
+        private final AtomicLong mMaxBatchSize = new AtomicLong(0);
+        private final AtomicLong mTotalLatencyNanos = new AtomicLong(0);
+        private final AtomicLong mMaxLatencyNanos = new AtomicLong(0);
+
+        /**
+         * 可以在任意线程调用
+         */
+        public void deliver(LoadResult result){
+            mPendingResults.offer(result);
+            if(mScheduled.compareAndSet(false, true)){
+                mDispatcher.postFrame(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            //先清标记再取结果,取的过程中新来的结果会安排到下一帧
+            mScheduled.set(false);
+            final long now = System.nanoTime();
+            int batchSize = 0;
+            LoadResult loadResult;
+            while((loadResult = mPendingResults.poll()) != null){
+                String uri = loadResult.tag;
+                for(Target<T> target : loadResult.targets){
+                    if(target.isWaitingFor(uri)){
+                        target.onImageReady(loadResult.image);
+                    }
+                }
+                final long latency = now - loadResult.enqueueTime;
+                mMetrics.bind.record(latency);
+                mTotalLatencyNanos.addAndGet(latency);
+                updateMax(mMaxLatencyNanos, latency);
+                batchSize++;
+            }
+            if(batchSize > 0){
+                mBatchCount.incrementAndGet();
+                mDeliveredCount.addAndGet(batchSize);
+                updateMax(mMaxBatchSize, batchSize);
+            }
+        }
+
+        private void updateMax(AtomicLong max, long value){
+            long current = max.get();
+            while(value > current && !max.compareAndSet(current, value)){
+                current = max.get();
+            }
+        }
+
+        public long getBatchCount() {
+            return mBatchCount.get();
+        }
+
+        public long getDeliveredCount() {
+            return mDeliveredCount.get();
+        }
+
+        public long getMaxBatchSize() {
+            return mMaxBatchSize.get();
+        }
+
+        /**
+         * @return 平均每个结果从完成到绑定的延迟,单位毫秒
+         */
+        public double getAverageLatencyMillis() {
+            final long delivered = mDeliveredCount.get();
+            return delivered == 0 ? 0 : mTotalLatencyNanos.get() / 1e6 / delivered;
+        }
+
+        public double getMaxLatencyMillis() {
+            return mMaxLatencyNanos.get() / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return "ResultDelivery[batches=" + getBatchCount() + ",delivered=" + getDeliveredCount()
+                    + ",maxBatch=" + getMaxBatchSize()
+                    + ",avgLatencyMs=" + getAverageLatencyMillis()
+                    + ",maxLatencyMs=" + getMaxLatencyMillis() + "]";
+        }
+    }
+
+    /**
+     * 一次下载/解码任务,所有等待同一张图片的view都挂在这个任务上,
+     * 任务依次经过磁盘、网络、解码三个阶段,每个阶段在各自的线程池中执行,
+     * 本机图片在磁盘阶段读取缩略图,不够大时直接到解码阶段,不经过网络
+     */
+    private class LoadTask extends MyRunnable{
+        private final int reqWidth;
+        private final int reqHeight;
+        //请求方允许的解码方式
+        private final int flags;
+        //本机图片,不经过磁盘缓存和网络
+        private final boolean local;
+        //只在持有mInFlightTasks锁的时候访问
+        private final List<Target<T>> targets = new ArrayList<>();
+        //以下字段只由当前执行任务的线程访问,阶段之间通过线程池的队列交接
+        private int stage = STAGE_DISK;
+        private DiskLruCache.Snapshot snapshot;
+        private int srcWidth;
+        private int srcHeight;
+        private T largerVariant;
+        //内存中的原始数据,有的话解码时不用读磁盘
+        private EncodedMemoryCache.Entry encoded;
+        //磁盘缓存已经过期时,用来发起条件请求的缓存信息
+        private CacheMetadata staleMetadata;
+        //预加载任务占用一个预加载名额,结束或者被可见的view用到时归还
+        private final AtomicBoolean holdsPrefetchSlot;
+
+        public LoadTask(String uri, int reqWidth, int reqHeight, int flags, int priority){
+            this(uri, reqWidth, reqHeight, flags, priority, false);
+        }
+
+        public LoadTask(String uri, int reqWidth, int reqHeight, int flags, int priority, boolean local){
+            super(uri, reqWidth, reqHeight, flags, priority);
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            this.flags = flags;
+            this.local = local;
+            this.holdsPrefetchSlot = new AtomicBoolean(priority == PRIORITY_PREFETCH);
+        }
+
+        private void releasePrefetchSlot(){
+            if(holdsPrefetchSlot.compareAndSet(true, false)){
+                mPrefetchInFlight.decrementAndGet();
+            }
+        }
+
+        private void attach(Target<T> target){
+            if(!targets.contains(target)){
+                targets.add(target);
+            }
+        }
+
+        @Override
+        public boolean isStale() {
+            synchronized (mInFlightTasks){
+                return isStaleLocked();
+            }
+        }
+
+        //去掉已经绑定到别的图片的view,一个都不剩就说明任务过期了
+        private boolean isStaleLocked(){
+            if(targets.isEmpty()){
+                return false;
+            }
+            Iterator<Target<T>> iterator = targets.iterator();
+            while(iterator.hasNext()){
+                if(!iterator.next().isWaitingFor(uri)){
+                    iterator.remove();
+                }
+            }
+            return targets.isEmpty();
+        }
+
+        //预加载的任务没有view在等,可以丢掉
+        @Override
+        public boolean isDroppable() {
+            synchronized (mInFlightTasks){
+                return targets.isEmpty();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (mInFlightTasks){
+                if(mInFlightTasks.get(requestKey) == this){
+                    mInFlightTasks.remove(requestKey);
+                }
+            }
+            closeSnapshot();
+            largerVariant = null;
+            encoded = null;
+            releasePrefetchSlot();
+            mMetrics.cancelled.increment();
+        }
+
+        /**
+         * 在每个阶段开始前检查,过期了就直接结束
+         */
+        private boolean cancelIfStale(){
+            synchronized (mInFlightTasks){
+                if(!isStaleLocked()){
+                    return false;
+                }
+            }
+            cancel();
+            return true;
+        }
+
+        /**
+         * 任务结束,从请求表中移除并把结果分发给所有等待的view
+         */
+        private void finish(T image, boolean originalSize){
+            //在工作线程放入内存缓存,并且在移出请求表之前放入,
+            //这样之后的请求一定能在内存缓存中找到
+            if(image != null){
+                mMemoryCache.put(uri, image, originalSize);
+            }
+            List<Target<T>> waitingTargets;
+            synchronized (mInFlightTasks){
+                mInFlightTasks.remove(requestKey);
+                waitingTargets = new ArrayList<>(targets);
+            }
+            releasePrefetchSlot();
+            if(image != null && !waitingTargets.isEmpty()){
+                mResultDelivery.deliver(new LoadResult(waitingTargets, image, uri));
+            }
+        }
+
+        //只有inSampleSize为1时解码结果才可能比需要的尺寸小,这时就是原图
+        private boolean isOriginalSize(T image){
+            return reqWidth == 0 || reqHeight == 0
+                    || mDecoder.getWidth(image) < reqWidth || mDecoder.getHeight(image) < reqHeight;
+        }
+
+        private void closeSnapshot(){
+            if(snapshot != null){
+                snapshot.close();
+                snapshot = null;
+            }
+        }
+
+        //预加载时内存缓存已经比较满了,只保留磁盘缓存,不解码
+        private void moveToDecodeIfNeeded(){
+            if(priority == PRIORITY_PREFETCH && !mMemoryCache.isBelow(PREFETCH_MEMORY_RATIO)){
+                closeSnapshot();
+                finish(null, false);
+                return;
+            }
+            moveTo(STAGE_DECODE);
+        }
+
+        //交给下一个阶段的线程池
+        private void moveTo(int nextStage){
+            stage = nextStage;
+            switch (nextStage){
+                case STAGE_NETWORK:
+                    mNetworkStage.execute(this);
+                    break;
+                case STAGE_DECODE:
+                    mDecodeStage.execute(this);
+                    break;
+                default:
+                    mDiskStage.execute(this);
+                    break;
+            }
+        }
+
+        @Override
+        public void run() {
+            if(cancelIfStale()){
+                return;
+            }
+            switch (stage){
+                case STAGE_NETWORK:
+                    runNetworkStage();
+                    break;
+                case STAGE_DECODE:
+                    runDecodeStage();
+                    break;
+                default:
+                    if(local){
+                        runLocalStage();
+                    }else{
+                        runDiskStage();
+                    }
+                    break;
+            }
+        }
+
+        private void runDiskStage(){
+            //内存里有更大的版本,直接在内存中缩小,不用再读磁盘
+            largerVariant = mMemoryCache.getLarger(uri, reqWidth, reqHeight, flags);
+            if(largerVariant != null){
+                mMetrics.memoryHits.increment();
+                moveTo(STAGE_DECODE);
+                return;
+            }
+            //内存缓存淘汰过的图片,原始数据可能还在内存里
+            encoded = mEncodedCache.get(uri);
+            if(encoded != null && !encoded.isFresh(System.currentTimeMillis())){
+                //过期了,和磁盘缓存一样走下面的流程到网络阶段重新验证,验证后解码时再放进来
+                mEncodedCache.remove(uri);
+                encoded = null;
+            }
+            if(encoded != null){
+                mMetrics.encodedHits.increment();
+                moveToDecodeIfNeeded();
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                snapshot = mDiskCache.openSnapshot(uri);
+                if(snapshot != null){
+                    CacheMetadata metadata = mDiskCache.readMetadata(snapshot);
+                    if(!metadata.isFresh(System.currentTimeMillis())){
+                        //过期了,先到网络阶段重新验证
+                        staleMetadata = metadata;
+                        closeSnapshot();
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                closeSnapshot();
+            }
+            mMetrics.diskRead.record(System.nanoTime() - start);
+            if(snapshot != null){
+                mMetrics.diskHits.increment();
+                moveToDecodeIfNeeded();
+            }else{
+                moveTo(STAGE_NETWORK);
+            }
+        }
+
+        /**
+         * 本机图片先试着读取嵌入的缩略图,够大就直接用,不用解码整张照片
+         */
+        private void runLocalStage(){
+            largerVariant = mMemoryCache.getLarger(uri, reqWidth, reqHeight, flags);
+            if(largerVariant != null){
+                mMetrics.memoryHits.increment();
+                moveTo(STAGE_DECODE);
+                return;
+            }
+            T thumbnail = null;
+            final long start = System.nanoTime();
+            try {
+                thumbnail = mLocalDecoder.decodeThumbnail(uri, reqWidth, reqHeight, flags);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            mMetrics.diskRead.record(System.nanoTime() - start);
+            mMetrics.diskHits.increment();
+            if(thumbnail == null){
+                moveTo(STAGE_DECODE);
+                return;
+            }
+            mMetrics.thumbnailHits.increment();
+            mMetrics.bytesDecoded.add(mDecoder.getByteCount(thumbnail));
+            //缩略图比原图小,满足不了更大的请求
+            finish(thumbnail, false);
+        }
+
+        private void runNetworkStage(){
+            ImageFetcher.Response response = null;
+            //别的尺寸的任务正在下载同一张图片时为null,直接写入磁盘缓存
+            DownloadStaging.Partial partial = mDiskCache.acquirePartial(uri);
+            final long start = System.nanoTime();
+            long downloaded = -1;
+            try {
+                if(partial != null){
+                    response = mFetcher.fetch(uri, staleMetadata, partial.resumeOffset(), partial.getValidator());
+                }else{
+                    response = mFetcher.fetch(uri, staleMetadata, 0, null);
+                }
+                if(response.isNotModified()){
+                    //没有变化,只更新缓存信息,图片沿用磁盘里的
+                    mDiskCache.updateMetadata(uri, response.getMetadata());
+                }else{
+                    int[] size = new int[2];
+                    final boolean stored;
+                    if(partial != null){
+                        downloaded = writeToStaging(partial, response);
+                        stored = mDiskCache.promotePartial(uri, partial, response.getMetadata(), size);
+                    }else{
+                        //按块直接写入磁盘,不需要再套一层BufferedInputStream
+                        stored = mDiskCache.putAndReadBounds(uri, response.getBody(), response.getMetadata(), size);
+                    }
+                    if(stored){
+                        srcWidth = size[0];
+                        srcHeight = size[1];
+                    }
+                }
+                snapshot = mDiskCache.openSnapshot(uri);
+                if(snapshot != null && !response.isNotModified()){
+                    if(downloaded < 0){
+                        downloaded = snapshot.getLength(DiskCache.DISK_CACHE_INDEX);
+                    }
+                    mMetrics.bytesDownloaded.add(downloaded);
+                    if(holdsPrefetchSlot.get()){
+                        addPrefetchBytes(downloaded);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                if(response != null)
+                    response.close();
+                if(partial != null)
+                    partial.close();
+            }
+            mMetrics.download.record(System.nanoTime() - start);
+            if(snapshot != null){
+                if(response.isNotModified()){
+                    mMetrics.revalidated.increment();
+                    mMetrics.diskHits.increment();
+                }else{
+                    mMetrics.networkHits.increment();
+                }
+            }else if(staleMetadata != null){
+                //重新验证失败,退回到过期的磁盘缓存
+                try {
+                    snapshot = mDiskCache.openSnapshot(uri);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                if(snapshot != null){
+                    mMetrics.diskHits.increment();
+                }
+            }
+            if(snapshot != null){
+                moveToDecodeIfNeeded();
+            }else{
+                mMetrics.failed.increment();
+                finish(null, false);
+            }
+        }
+
+        /**
+         * 把响应写入暂存文件,中途断开时已经收到的数据留在暂存区,下次从断开的位置续传
+         * @return 这次收到的字节数
+         */
+        private long writeToStaging(DownloadStaging.Partial partial, ImageFetcher.Response response)
+                throws IOException {
+            //先截断或者打开旧的数据再保存新的校验字段,避免旧数据配上新的校验字段
+            OutputStream out = partial.openOutput(response.getRangeStart());
+            try {
+                partial.saveState(response.getRangeValidator(), response.getTotalLength());
+                return IOUtil.copy(response.getBody(), out);
+            } finally {
+                IOUtil.close(out);
+            }
+        }
+
+        /**
+         * 把磁盘缓存中的图片整个读入内存再解码,同时放进原始数据缓存,
+         * 读一次文件既用于这次解码,也用于以后内存缓存淘汰之后的再次显示
+         * @return 图片太大或者读取失败时返回null,改为直接从文件解码
+         */
+        private EncodedMemoryCache.Entry readEncoded(){
+            try {
+                //按位置读取,不影响之后从文件解码
+                ByteBuffer data = mDiskCache.readSnapshot(snapshot, mEncodedCache);
+                if(data == null){
+                    return null;
+                }
+                //过期时间跟着磁盘缓存走,过期后不能直接用
+                final long expiresAt = mDiskCache.readMetadata(snapshot).getExpiresAt();
+                return mEncodedCache.put(uri, data, srcWidth, srcHeight, expiresAt);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        private void runDecodeStage(){
+            T image = null;
+            boolean originalSize = false;
+            final long start = System.nanoTime();
+            try {
+                if(largerVariant != null){
+                    image = mDecoder.scale(largerVariant, reqWidth, reqHeight, flags);
+                    if(image == null && !local){
+                        //没法在内存中缩小,改为从磁盘解码
+                        snapshot = mDiskCache.openSnapshot(uri);
+                    }
+                }
+                if(image == null && local){
+                    image = mLocalDecoder.decode(uri, reqWidth, reqHeight, flags);
+                    originalSize = image != null && isOriginalSize(image);
+                }
+                if(image == null && encoded == null && snapshot != null){
+                    encoded = readEncoded();
+                }
+                if(image == null && encoded != null){
+                    image = mDecoder.decodeBuffer(encoded.newReader(), encoded.width, encoded.height,
+                            reqWidth, reqHeight, flags);
+                    originalSize = image != null && isOriginalSize(image);
+                }else if(image == null && snapshot != null){
+                    image = mDiskCache.decodeSnapshot(snapshot, srcWidth, srcHeight, reqWidth, reqHeight, flags);
+                    originalSize = image != null && isOriginalSize(image);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                largerVariant = null;
+                encoded = null;
+                closeSnapshot();
+            }
+            mMetrics.decode.record(System.nanoTime() - start);
+            if(image != null){
+                mMetrics.bytesDecoded.add(mDecoder.getByteCount(image));
+            }else{
+                mMetrics.failed.increment();
+            }
+            finish(image, originalSize);
+        }
+    }
+
+    /**
+     * 加载图片,内存中有就直接绑定,否则挂到进行中的任务上或者新建一个任务,
+     * 在主线程调用
+     * @param flags 请求方允许的解码方式,见{@link ImageDecoder#FLAG_ALLOW_LOW_DEPTH}
+     */
+    public void load(final String uri, final int reqWidth, final int reqHeight, final int flags, final Target<T> target) {
+        load(uri, reqWidth, reqHeight, flags, target, false);
+    }
+
+    /**
+     * 加载本机图片,和网络图片共用内存缓存、请求表和线程池,在主线程调用
+     * @param uri 文件路径或者content://地址
+     * @throws IllegalStateException 构造时没有传入LocalImageDecoder
+     */
+    public void loadLocal(String uri, int reqWidth, int reqHeight, int flags, Target<T> target) {
+        if(mLocalDecoder == null){
+            throw new IllegalStateException("no LocalImageDecoder");
+        }
+        load(uri, reqWidth, reqHeight, flags, target, true);
+    }
+
+    /**
+     * 分块显示一张大图,块在解码线程池中解码,和普通图片共用线程,在主线程调用
+     * @param uri 文件路径或者content://地址
+     * @param factory 打开按区域解码的解码器
+     * @param flags 请求方允许的解码方式,见{@link ImageDecoder#FLAG_ALLOW_LOW_DEPTH}
+     * @param listener 图片打开或者有新的块解码好时在主线程回调
+     * @return 不再显示时要调用{@link TiledImage#close()}
+     */
+    public TiledImage<T> openTiled(String uri, RegionDecoder.Factory<T> factory, int flags, TiledImage.Listener listener) {
+        TiledImage<T> tiledImage = new TiledImage<>(uri, factory, mTileCache, mDecodeStage, mDispatcher, flags, listener);
+        tiledImage.open();
+        return tiledImage;
+    }
+
+    private void load(String uri, int reqWidth, int reqHeight, int flags, Target<T> target, boolean local) {
+        T image = mMemoryCache.get(uri,reqWidth,reqHeight,flags);
+        if(image!=null) {
+            mMetrics.memoryHits.increment();
+            if(target.isWaitingFor(uri)){
+                target.onImageReady(image);
+            }
+            return;
+        }
+        final String requestKey = MyRunnable.requestKey(uri, reqWidth, reqHeight, flags);
+        LoadTask loadTask;
+        synchronized (mInFlightTasks){
+            loadTask = mInFlightTasks.get(requestKey);
+            if(loadTask != null){
+                //已经有相同的请求在排队或者在跑,挂上去等结果即可
+                loadTask.attach(target);
+            }
+        }
+        if(loadTask != null){
+            mMetrics.coalesced.increment();
+            if(loadTask.priority != PRIORITY_VISIBLE){
+                promote(loadTask);
+            }
+            return;
+        }
+        synchronized (mInFlightTasks){
+            loadTask = mInFlightTasks.get(requestKey);
+            if(loadTask != null){
+                loadTask.attach(target);
+                mMetrics.coalesced.increment();
+                return;
+            }
+            loadTask = new LoadTask(uri, reqWidth, reqHeight, flags, PRIORITY_VISIBLE, local);
+            loadTask.attach(target);
+            mInFlightTasks.put(requestKey, loadTask);
+        }
+        mDiskStage.execute(loadTask);
+    }
+
+    /**
+     * 可见的view用到了一个预加载任务,提到可见的优先级
+     */
+    private void promote(LoadTask task){
+        task.releasePrefetchSlot();
+        if(!mDiskStage.promote(task, PRIORITY_VISIBLE)
+                && !mNetworkStage.promote(task, PRIORITY_VISIBLE)
+                && !mDecodeStage.promote(task, PRIORITY_VISIBLE)){
+            //正在执行,到下一个阶段时按新的优先级排队
+            task.priority = PRIORITY_VISIBLE;
+        }
+    }
+
+    /**
+     * 以低优先级把图片预加载进磁盘缓存和内存缓存,不绑定view
+     * @return 超出预加载预算时返回false
+     */
+    public boolean prefetch(String uri, int reqWidth, int reqHeight, int flags) {
+        if(mMemoryCache.get(uri, reqWidth, reqHeight, flags) != null){
+            return true;
+        }
+        final String requestKey = MyRunnable.requestKey(uri, reqWidth, reqHeight, flags);
+        synchronized (mInFlightTasks){
+            if(mInFlightTasks.containsKey(requestKey)){
+                return true;
+            }
+        }
+        if(!tryAcquirePrefetchSlot()){
+            return false;
+        }
+        LoadTask prefetchTask;
+        synchronized (mInFlightTasks){
+            if(mInFlightTasks.containsKey(requestKey)){
+                mPrefetchInFlight.decrementAndGet();
+                return true;
+            }
+            prefetchTask = new LoadTask(uri, reqWidth, reqHeight, flags, PRIORITY_PREFETCH);
+            mInFlightTasks.put(requestKey, prefetchTask);
+        }
+        mDiskStage.execute(prefetchTask);
+        return true;
+    }
+
+    public boolean isLoading(String uri, int reqWidth, int reqHeight, int flags) {
+        synchronized (mInFlightTasks){
+            return mInFlightTasks.containsKey(MyRunnable.requestKey(uri, reqWidth, reqHeight, flags));
+        }
+    }
+
+    /**
+     * @return 正在进行中的任务数
+     */
+    public int getInFlightCount() {
+        synchronized (mInFlightTasks){
+            return mInFlightTasks.size();
+        }
+    }
+
+    public ImageLoaderStats getStats() {
+        List<ImageLoaderStats.Stage> stages = new ArrayList<>();
+        stages.add(mDiskStage.snapshot());
+        stages.add(mNetworkStage.snapshot());
+        stages.add(mDecodeStage.snapshot());
+        return mMetrics.snapshot(stages, mDiskCache.getOpenMillis());
+    }
+
+    public void resetStats() {
+        mMetrics.reset();
+        mDiskStage.resetMetrics();
+        mNetworkStage.resetMetrics();
+        mDecodeStage.resetMetrics();
+    }
+
+    /**
+     * 系统内存不足时收缩内存缓存、原始数据缓存和回收复用的图片,并记录到统计里
+     * @param ratio 内存缓存保留的比例,0表示清空
+     * @param holdMillis 收缩后的预算保持多久,期间没有再次收缩就恢复
+     * @return 释放的字节数
+     */
+    public long trimMemory(float ratio, long holdMillis) {
+        //被淘汰的图片可能还在view上,不进复用池,复用池里原有的Bitmap按同样的比例收缩
+        long freed = mMemoryCache.trim(ratio, holdMillis);
+        freed += mEncodedCache.trim(ratio, holdMillis);
+        freed += mTileCache.trim(ratio, holdMillis);
+        freed += mDecoder.trimRecycled(ratio);
+        mMetrics.trims.increment();
+        mMetrics.bytesTrimmed.add(freed);
+        return freed;
+    }
+
+    /**
+     * 停止所有线程池,之后不能再加载
+     */
+    public void shutdown() {
+        mDiskStage.shutdown();
+        mNetworkStage.shutdown();
+        mDecodeStage.shutdown();
+        mDiskCache.shutdown();
+    }
+
+    /**
+     * 预加载的并发数和下载量都没超出预算时占用一个名额
+     */
+    private boolean tryAcquirePrefetchSlot(){
+        synchronized (mPrefetchBudgetLock){
+            if(uptimeMillis() - mPrefetchWindowStart < 1000
+                    && mPrefetchWindowBytes >= PREFETCH_BYTES_PER_SECOND){
+                return false;
+            }
+        }
+        int inFlight = mPrefetchInFlight.get();
+        while(inFlight < MAX_PREFETCH_IN_FLIGHT){
+            if(mPrefetchInFlight.compareAndSet(inFlight, inFlight + 1)){
+                return true;
+            }
+            inFlight = mPrefetchInFlight.get();
+        }
+        return false;
+    }
+
+    private void addPrefetchBytes(long bytes){
+        synchronized (mPrefetchBudgetLock){
+            final long now = uptimeMillis();
+            if(now - mPrefetchWindowStart >= 1000){
+                mPrefetchWindowStart = now;
+                mPrefetchWindowBytes = 0;
+            }
+            mPrefetchWindowBytes += bytes;
+        }
+    }
+
+    //和SystemClock.uptimeMillis一样不受系统时间修改的影响
+    private static long uptimeMillis(){
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -2,7 +2,10 @@ package com.example.mr_do.planclock.util.image;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 
@@ -11,15 +14,93 @@ import android.util.AttributeSet;
  */
 
 public class ImageRecyclerView extends RecyclerView {
+    //至少预加载的行数
+    private static final int MIN_PREFETCH_ROWS = 1;
+    //按当前速度预判多长时间之后会滑到的行
+    private static final float PREFETCH_LOOKAHEAD_SECONDS = 0.5f;
+    //速度的平滑系数,越大越依赖最新一次的速度
+    private static final float VELOCITY_SMOOTHING = 0.3f;
     private boolean isLoadable = true;
     private OnIdleListener mOnIdleListener;
+    private FrameLoadDispatcher mLoadDispatcher;
+    private PrefetchSource mPrefetchSource;
+    private IImageLoader mPrefetchLoader;
+    private int mPrefetchReqWidth;
+    private int mPrefetchReqHeight;
+    //列表里显示图片的view声明的Bitmap格式,预加载按这个格式解码,绑定时才能命中
+    private IImageLoader.BitmapConfigPolicy mPrefetchPolicy;
+    private int mMaxPrefetchRows = 3;
+    //1为向下(position变大)滑动,-1为向上
+    private int mScrollDirection = 0;
+    //每秒滑过的像素,已经做过平滑
+    private float mScrollVelocity = 0;
+    private long mLastScrollTime = 0;
+    //当前方向上已经提交过预加载的最远的position
+    private int mPrefetchedEdge = NO_POSITION;
+
     public interface OnIdleListener{
         void onIdle(ImageRecyclerView imageRecyclerView);
     }
+
+    /**
+     * 预加载时用来查询某个位置的图片地址
+     */
+    public interface PrefetchSource{
+        /**
+         * @param position adapter中的位置
+         * @return 这个位置要显示的图片地址,没有图片返回null
+         */
+        String getImageUri(int position);
+    }
+
     public void setOnIdleListener(OnIdleListener listener){
         mOnIdleListener = listener;
     }
 
+    /**
+     * 设置可见view的加载请求收集器,每帧最多收集并提交一次
+     * @param imageLoader 用来加载的图片加载器
+     * @param collector 收集可见view的请求
+     */
+    public void setLoadRequestCollector(IImageLoader imageLoader, FrameLoadDispatcher.LoadRequestCollector collector){
+        if(mLoadDispatcher != null){
+            mLoadDispatcher.cancel();
+        }
+        mLoadDispatcher = collector == null ? null : new FrameLoadDispatcher(this, imageLoader, collector);
+    }
+
+    /**
+     * 开启预加载,滑动时根据方向和速度预加载接下来几行的图片
+     * @param imageLoader 用来预加载的图片加载器
+     * @param source 查询图片地址
+     * @param reqWidth 需要的宽度
+     * @param reqHeight 需要的高度
+     * @param maxRows 最多预加载的行数
+     */
+    public void enablePrefetch(IImageLoader imageLoader, PrefetchSource source,
+                               int reqWidth, int reqHeight, int maxRows){
+        enablePrefetch(imageLoader, source, reqWidth, reqHeight, maxRows, null);
+    }
+
+    /**
+     * @param policy 列表里显示图片的view实现的{@link IImageLoader.BitmapConfigPolicy},没有实现时传null
+     */
+    public void enablePrefetch(IImageLoader imageLoader, PrefetchSource source,
+                               int reqWidth, int reqHeight, int maxRows, IImageLoader.BitmapConfigPolicy policy){
+        mPrefetchLoader = imageLoader;
+        mPrefetchPolicy = policy;
+        mPrefetchSource = source;
+        mPrefetchReqWidth = reqWidth;
+        mPrefetchReqHeight = reqHeight;
+        mMaxPrefetchRows = Math.max(MIN_PREFETCH_ROWS, maxRows);
+        mPrefetchedEdge = NO_POSITION;
+    }
+
+    public void disablePrefetch(){
+        mPrefetchLoader = null;
+        mPrefetchSource = null;
+    }
+
     public boolean isLoadable() {
         return isLoadable;
     }
@@ -39,7 +120,17 @@ public class ImageRecyclerView extends RecyclerView {
     @Override
     public void onDraw(Canvas c) {
         super.onDraw(c);
-        mOnIdleListener.onIdle(this);
+        if(mLoadDispatcher != null){
+            mLoadDispatcher.requestDispatch();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if(mLoadDispatcher != null){
+            mLoadDispatcher.cancel();
+        }
     }
 
     @Override
@@ -47,13 +138,115 @@ public class ImageRecyclerView extends RecyclerView {
         super.onScrollStateChanged(state);
         if(state == SCROLL_STATE_IDLE){
             isLoadable = true;
+            mScrollVelocity = 0;
             if(mOnIdleListener!=null){
                 mOnIdleListener.onIdle(this);
             }
+            if(mLoadDispatcher != null){
+                mLoadDispatcher.requestDispatch();
+            }
         }else {
             isLoadable = false;
         }
     }
 
+    @Override
+    public void onScrolled(int dx, int dy) {
+        super.onScrolled(dx, dy);
+        LayoutManager layoutManager = getLayoutManager();
+        if(!(layoutManager instanceof LinearLayoutManager)){
+            return;
+        }
+        final LinearLayoutManager linearLayoutManager = (LinearLayoutManager) layoutManager;
+        final int delta = linearLayoutManager.getOrientation() == LinearLayoutManager.VERTICAL ? dy : dx;
+        if(delta == 0){
+            return;
+        }
+        updateVelocity(delta);
+        final int direction = delta > 0 ? 1 : -1;
+        if(direction != mScrollDirection){
+            mScrollDirection = direction;
+            mPrefetchedEdge = NO_POSITION;
+        }
+        if(mPrefetchLoader != null && mPrefetchSource != null){
+            prefetch(linearLayoutManager);
+        }
+    }
+
+    private void updateVelocity(int delta){
+        final long now = SystemClock.uptimeMillis();
+        final long elapsed = now - mLastScrollTime;
+        mLastScrollTime = now;
+        if(elapsed <= 0 || elapsed > 100){
+            //距离上一次滑动太久,重新开始统计
+            mScrollVelocity = 0;
+            return;
+        }
+        final float velocity = Math.abs(delta) * 1000f / elapsed;
+        mScrollVelocity = mScrollVelocity == 0 ? velocity
+                : mScrollVelocity + (velocity - mScrollVelocity) * VELOCITY_SMOOTHING;
+    }
 
+    /**
+     * 按滑动方向找出接下来的几行,行数随速度增加
+     */
+    private void prefetch(LinearLayoutManager layoutManager){
+        final int itemCount = layoutManager.getItemCount();
+        final int spanCount = layoutManager instanceof GridLayoutManager
+                ? ((GridLayoutManager) layoutManager).getSpanCount() : 1;
+        final int rows = getPrefetchRows();
+        if(mScrollDirection > 0){
+            final int last = layoutManager.findLastVisibleItemPosition();
+            if(last == NO_POSITION){
+                return;
+            }
+            int start = last + 1;
+            if(mPrefetchedEdge != NO_POSITION){
+                start = Math.max(start, mPrefetchedEdge + 1);
+            }
+            final int end = Math.min(itemCount - 1, last + rows * spanCount);
+            for(int position = start; position <= end; position++){
+                if(!prefetchPosition(position)){
+                    break;
+                }
+                mPrefetchedEdge = position;
+            }
+        }else{
+            final int first = layoutManager.findFirstVisibleItemPosition();
+            if(first == NO_POSITION){
+                return;
+            }
+            int start = first - 1;
+            if(mPrefetchedEdge != NO_POSITION){
+                start = Math.min(start, mPrefetchedEdge - 1);
+            }
+            final int end = Math.max(0, first - rows * spanCount);
+            for(int position = start; position >= end; position--){
+                if(!prefetchPosition(position)){
+                    break;
+                }
+                mPrefetchedEdge = position;
+            }
+        }
+    }
+
+    private int getPrefetchRows(){
+        if(getChildCount() == 0){
+            return MIN_PREFETCH_ROWS;
+        }
+        final int rowSize = Math.max(1, getChildAt(0).getHeight());
+        final int rows = (int) Math.ceil(mScrollVelocity * PREFETCH_LOOKAHEAD_SECONDS / rowSize);
+        return Math.max(MIN_PREFETCH_ROWS, Math.min(mMaxPrefetchRows, rows));
+    }
+
+    /**
+     * @return 超出预加载预算时返回false,这个位置下次滑动时再试
+     */
+    private boolean prefetchPosition(int position){
+        final String uri = mPrefetchSource.getImageUri(position);
+        if(uri == null){
+            return true;
+        }
+        return mPrefetchLoader.prefetchImageFromWeb(uri, mPrefetchReqWidth, mPrefetchReqHeight, mPrefetchPolicy);
+    }
 }
@@ -0,0 +1,152 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 不依赖Android的图片加载工具方法,可以直接在JVM上测试和跑benchmark
+ */
+
+final class ImageUtil {
+    //判断透明度需要读取的文件头长度,够放下WebP的VP8L/VP8X头
+    static final int ALPHA_HEADER_SIZE = 32;
+    private static final byte[] RIFF = {'R', 'I', 'F', 'F'};
+
+    private ImageUtil(){}
+
+    /**
+     * 计算解码时的采样率,保证缩小后的宽高都不小于需要的宽高
+     * @param width 图片原始宽度
+     * @param height 图片原始高度
+     * @param reqWidth 需要的宽度,为0时不压缩
+     * @param reqHeight 需要的高度,为0时不压缩
+     * @return 2的幂
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight){
+        //如果需要的宽度或者高度为0,则说明不压缩
+        if(reqWidth == 0 || reqHeight == 0){
+            return 1;
+        }
+
+        //计算inSampleSize的策略
+        int inSampleSize = 1;
+        if(height > reqHeight || width > reqWidth){
+            final int halfHeight = height/2;
+            final int halfWidth = width/2;
+            while((halfHeight/inSampleSize)>reqHeight && (halfWidth/inSampleSize)>reqWidth){
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 精确缩放时解码器用的inDensity和inTargetDensity,在inSampleSize之后再按这个比例缩放一次,
+     * 缩放后保持宽高比,宽高都不小于需要的宽高,并且缩放比例较大的一边正好相等,不会放大
+     * @param sampledWidth 按inSampleSize缩小后的宽度
+     * @param sampledHeight 按inSampleSize缩小后的高度
+     * @param reqWidth 需要的宽度,为0时不缩放
+     * @param reqHeight 需要的高度,为0时不缩放
+     * @return {inDensity, inTargetDensity},不需要再缩放时返回null
+     */
+    static int[] calculateExactDensity(int sampledWidth, int sampledHeight, int reqWidth, int reqHeight){
+        if(reqWidth <= 0 || reqHeight <= 0 || sampledWidth <= 0 || sampledHeight <= 0){
+            return null;
+        }
+        //按缩放比例较大的一边对齐,另一边自然不会小于需要的尺寸
+        int density;
+        int targetDensity;
+        if((long) reqWidth * sampledHeight >= (long) reqHeight * sampledWidth){
+            density = sampledWidth;
+            targetDensity = reqWidth;
+        }else{
+            density = sampledHeight;
+            targetDensity = reqHeight;
+        }
+        //另一边四舍五入后可能差一个像素,逐步放大比例直到两边都够
+        while(targetDensity < density
+                && (scaledDimension(sampledWidth, density, targetDensity) < reqWidth
+                || scaledDimension(sampledHeight, density, targetDensity) < reqHeight)){
+            targetDensity++;
+        }
+        if(targetDensity >= density){
+            return null;
+        }
+        return new int[]{density, targetDensity};
+    }
+
+    /**
+     * 和BitmapFactory按inDensity/inTargetDensity缩放时的计算方式一致
+     */
+    static int scaledDimension(int size, int density, int targetDensity){
+        return (int) (size * ((float) targetDensity / density) + 0.5f);
+    }
+
+    /**
+     * 根据文件头判断图片是否可能带透明度,
+     * JPEG和有损的WebP一定不透明,无损和扩展格式的WebP按头里的标志判断,
+     * PNG的透明度可能在很靠后的tRNS块里,和认不出的格式一样当作带透明度
+     * @param head 文件开头的数据,至少{@link #ALPHA_HEADER_SIZE}个字节才能判断WebP
+     * @param length head中有效数据的长度
+     */
+    static boolean hasAlpha(byte[] head, int length){
+        //JPEG: FF D8 FF
+        if(length >= 3 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xd8 && (head[2] & 0xff) == 0xff){
+            return false;
+        }
+        //WebP: RIFF....WEBP,后面是VP8 /VP8L/VP8X块
+        if(length >= 16 && startsWith(head, RIFF) && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P'){
+            if(head[12] == 'V' && head[13] == 'P' && head[14] == '8'){
+                if(head[15] == ' '){
+                    //有损压缩,没有透明通道
+                    return false;
+                }
+                if(head[15] == 'L' && length >= 25){
+                    //VP8L头的第28位是alpha_is_used
+                    return (head[24] & 0x10) != 0;
+                }
+                if(head[15] == 'X' && length >= 21){
+                    //VP8X的标志字节里0x10是alpha
+                    return (head[20] & 0x10) != 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix){
+        for(int i = 0; i < prefix.length; i++){
+            if(data[i] != prefix[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 磁盘缓存的key,url的MD5
+     */
+    static String hashKeyFormUrl(String url){
+        String cacheKey;
+        try {
+            final MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            messageDigest.update(url.getBytes());
+            cacheKey = byteToHexString(messageDigest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            cacheKey = String.valueOf(url.hashCode());
+        }
+        return  cacheKey;
+    }
+
+    static String byteToHexString(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0;i<digest.length;i++){
+            String hex = Integer.toHexString(0xFF & digest[i]);
+            if(hex.length() == 1){
+                sb.append('0');
+            }
+            sb.append(hex);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 耗时分布,按微秒的2的幂分桶,第i个桶记录[2^(i-1), 2^i)微秒的次数,
+ * 记录时只做几次原子累加,不加锁
+ */
+
+final class LatencyHistogram {
+    //最后一个桶大约是33秒以上
+    static final int BUCKET_COUNT = 26;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final StripedCounter mTotalNanos = new StripedCounter();
+    private final AtomicLong mMaxNanos = new AtomicLong(0);
+
+    static int bucketOf(long nanos) {
+        final long micros = nanos / 1000;
+        if(micros <= 0) {
+            return 0;
+        }
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return 第bucket个桶的上界,单位微秒
+     */
+    static long upperBoundMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    void record(long nanos) {
+        if(nanos < 0) {
+            return;
+        }
+        mBuckets.incrementAndGet(bucketOf(nanos));
+        mTotalNanos.add(nanos);
+        long max = mMaxNanos.get();
+        while(nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    ImageLoaderStats.Histogram snapshot(String name) {
+        long[] buckets = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new ImageLoaderStats.Histogram(name, buckets, mTotalNanos.sum(), mMaxNanos.get());
+    }
+
+    void reset() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mTotalNanos.reset();
+        mMaxNanos.set(0);
+    }
+}
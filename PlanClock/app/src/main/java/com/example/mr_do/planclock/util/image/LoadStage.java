@@ -0,0 +1,121 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 加载流水线中的一个阶段,拥有自己的线程池和有上限的优先级队列
+ */
+
+class LoadStage {
+    private static final long KEEP_ALIVE = 10L;
+
+    private final String mName;
+    private final PriorityTaskQueue mQueue;
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicInteger mSubmittedCount = new AtomicInteger(0);
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger(0);
+    //线程池的完成数不能清零,清零时记下当时的值
+    private volatile long mCompletedBaseline = 0;
+
+    public LoadStage(final String name, int poolSize, int maxQueuedTasks){
+        mName = name;
+        mQueue = new PriorityTaskQueue(maxQueuedTasks);
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "ImageLoader-" + name + "#" + mCount.getAndIncrement());
+            }
+        };
+        //队列的offer总是返回true,线程数只会在核心线程数以内
+        mExecutor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE, TimeUnit.SECONDS,
+                mQueue, threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void execute(MyRunnable task){
+        mSubmittedCount.incrementAndGet();
+        mExecutor.execute(task);
+        final int depth = mQueue.size();
+        int max = mMaxQueueDepth.get();
+        while(depth > max && !mMaxQueueDepth.compareAndSet(max, depth)){
+            max = mMaxQueueDepth.get();
+        }
+    }
+
+    /**
+     * 提高一个还在队列中的任务的优先级,
+     * 优先级决定了在堆中的位置,所以要先移出队列再放回去
+     * @return 任务不在这个阶段的队列中返回false
+     */
+    public boolean promote(MyRunnable task, int priority){
+        if(!mQueue.remove(task)){
+            return false;
+        }
+        task.priority = priority;
+        mExecutor.execute(task);
+        return true;
+    }
+
+    /**
+     * 停止线程池,队列中的任务不再执行
+     */
+    public void shutdown(){
+        mExecutor.shutdownNow();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getPoolSize() {
+        return mExecutor.getCorePoolSize();
+    }
+
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    public int getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return mExecutor.getCompletedTaskCount() - mCompletedBaseline;
+    }
+
+    public int getDroppedCount() {
+        return mQueue.getDroppedCount();
+    }
+
+    public ImageLoaderStats.Stage snapshot() {
+        return new ImageLoaderStats.Stage(mName, getPoolSize(), getActiveCount(), getQueueDepth(),
+                getMaxQueueDepth(), getSubmittedCount(), getCompletedCount(), getDroppedCount());
+    }
+
+    public void resetMetrics() {
+        mSubmittedCount.set(0);
+        mMaxQueueDepth.set(mQueue.size());
+        mCompletedBaseline = mExecutor.getCompletedTaskCount();
+        mQueue.resetDroppedCount();
+    }
+
+    @Override
+    public String toString() {
+        return mName + "[pool=" + getPoolSize() + ",active=" + getActiveCount()
+                + ",queued=" + getQueueDepth() + ",maxQueued=" + getMaxQueueDepth()
+                + ",submitted=" + getSubmittedCount() + ",completed=" + getCompletedCount()
+                + ",dropped=" + getDroppedCount() + "]";
+    }
+}
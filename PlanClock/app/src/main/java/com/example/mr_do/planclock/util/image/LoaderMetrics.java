@@ -0,0 +1,65 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.List;
+
+/**
+ * 加载器的计数和耗时统计,记录时不加锁,可以在正式版本中一直开着
+ */
+
+final class LoaderMetrics {
+    final StripedCounter memoryHits = new StripedCounter();
+    final StripedCounter encodedHits = new StripedCounter();
+    final StripedCounter diskHits = new StripedCounter();
+    final StripedCounter thumbnailHits = new StripedCounter();
+    final StripedCounter networkHits = new StripedCounter();
+    final StripedCounter revalidated = new StripedCounter();
+    final StripedCounter coalesced = new StripedCounter();
+    final StripedCounter failed = new StripedCounter();
+    final StripedCounter cancelled = new StripedCounter();
+    final StripedCounter bytesDownloaded = new StripedCounter();
+    final StripedCounter bytesDecoded = new StripedCounter();
+    final StripedCounter trims = new StripedCounter();
+    final StripedCounter bytesTrimmed = new StripedCounter();
+    final LatencyHistogram diskRead = new LatencyHistogram();
+    final LatencyHistogram download = new LatencyHistogram();
+    final LatencyHistogram decode = new LatencyHistogram();
+    final LatencyHistogram bind = new LatencyHistogram();
+    private volatile long mResetTime = uptimeMillis();
+
+    ImageLoaderStats snapshot(List<ImageLoaderStats.Stage> stages, long diskCacheOpenMillis) {
+        return new ImageLoaderStats(uptimeMillis() - mResetTime,
+                memoryHits.sum(), encodedHits.sum(), diskHits.sum(), thumbnailHits.sum(), networkHits.sum(),
+                revalidated.sum(), coalesced.sum(), failed.sum(), cancelled.sum(),
+                bytesDownloaded.sum(), bytesDecoded.sum(), trims.sum(), bytesTrimmed.sum(),
+                diskCacheOpenMillis,
+                diskRead.snapshot("diskRead"), download.snapshot("download"),
+                decode.snapshot("decode"), bind.snapshot("bind"),
+                stages);
+    }
+
+    void reset() {
+        memoryHits.reset();
+        encodedHits.reset();
+        diskHits.reset();
+        thumbnailHits.reset();
+        networkHits.reset();
+        revalidated.reset();
+        coalesced.reset();
+        failed.reset();
+        cancelled.reset();
+        bytesDownloaded.reset();
+        bytesDecoded.reset();
+        trims.reset();
+        bytesTrimmed.reset();
+        diskRead.reset();
+        download.reset();
+        decode.reset();
+        bind.reset();
+        mResetTime = uptimeMillis();
+    }
+
+    //和SystemClock.uptimeMillis一样不受系统时间修改的影响,但不依赖Android
+    private static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.io.IOException;
+
+/**
+ * 解码本机图片的服务接口,比如相册里的照片,
+ * 本机的图片不经过磁盘缓存和网络,解码结果和网络图片共用内存缓存
+ * @param <T> 解码出来的图片类型
+ */
+
+public interface LocalImageDecoder<T> {
+    /**
+     * 读取文件里嵌入的缩略图,比如相机照片EXIF里的,不用解码整张图片,
+     * 在磁盘线程调用
+     * @param uri 文件路径或者content://地址
+     * @return 没有缩略图或者缩略图比需要的尺寸小时返回null
+     */
+    T decodeThumbnail(String uri, int reqWidth, int reqHeight, int flags) throws IOException;
+
+    /**
+     * 解码整张图片,在解码线程调用
+     * @param uri 文件路径或者content://地址
+     * @param flags 请求方允许的解码方式,见{@link ImageDecoder#FLAG_ALLOW_LOW_DEPTH}
+     * @return 解码失败返回null
+     */
+    T decode(String uri, int reqWidth, int reqHeight, int flags) throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.example.mr_do.planclock.util.image;
+
+/**
+ * 把加载结果切换到主线程的服务接口,
+ * Android上在下一帧的Choreographer回调中执行,测试时可以换成单线程的Executor
+ */
+
+public interface MainThreadDispatcher {
+
+    /**
+     * @return 当前线程是不是主线程,主线程上不允许读写磁盘
+     */
+    boolean isMainThread();
+
+    /**
+     * 在主线程的下一帧执行task,可以在任意线程调用
+     */
+    void postFrame(Runnable task);
+}
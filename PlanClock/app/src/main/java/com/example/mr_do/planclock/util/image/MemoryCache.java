@@ -0,0 +1,389 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 图片缓存实现类,内存缓存,默认按LRU淘汰,也可以按W-TinyLFU淘汰:
+ * 新放入的图片先进窗口区,窗口区满了以后最老的图片作为候选进入主区的试用区,
+ * 和试用区最老的图片比较最近被请求的次数,次数多的留下,
+ * 试用区的图片再次被用到时升级到保护区,
+ * 这样快速滑过一遍列表时,只看过一次的图片进不了主区,不会把反复回来看的图片挤掉,
+ * 同一张图片可以按不同的解码尺寸和解码方式缓存多份,key为url@宽x高/解码方式,请求次数按url统计
+ */
+
+class MemoryCache<T> {
+    //收缩后预算至少保留这个比例,否则刚解码的图片放进来就会被淘汰回收,而它马上要绑定到view上
+    static final float MIN_BUDGET_RATIO = 0.125f;
+    //窗口区占满整个预算,所有图片都在窗口区,就是普通的LRU
+    static final float LRU_WINDOW_RATIO = 1f;
+    //W-TinyLFU的窗口区占预算的比例,要能放下一屏多的图片,屏幕上的图片不会刚放进来就被拒绝,
+    //合成的滑动轨迹上小预算的短距离回滑反而比LRU命中得少,还没有在真实的轨迹上验证过,所以不是默认
+    static final float TINY_LFU_WINDOW_RATIO = 0.2f;
+    //保护区占主区的比例
+    private static final float PROTECTED_RATIO = 0.8f;
+    //估计请求次数时按每张图片这么大来估计要记住多少张
+    private static final int ESTIMATED_ENTRY_BYTES = 16*1024;
+    private static final int MAX_SKETCH_ENTRIES = 1 << 16;
+    private final ImageDecoder<T> mDecoder;
+    private final float mWindowRatio;
+    private final FrequencySketch mSketch;
+    //三个区都按访问顺序排列,最早访问的在最前面
+    private final LinkedHashMap<String, T> mWindow = new LinkedHashMap<>(0, 0.75f, true);
+    private final LinkedHashMap<String, T> mProbation = new LinkedHashMap<>(0, 0.75f, true);
+    private final LinkedHashMap<String, T> mProtected = new LinkedHashMap<>(0, 0.75f, true);
+    private long mWindowSize = 0;
+    private long mProbationSize = 0;
+    private long mProtectedSize = 0;
+    //url -> 这张图片已缓存的各个尺寸
+    private final Map<String, List<Variant>> mVariants = new HashMap<>();
+    //正常情况下的预算
+    private final long mBaseMaxSize;
+    //当前的预算,内存不足时比mBaseMaxSize小
+    private long mMaxSize;
+    //当前的预算在这个时间之后恢复,System.nanoTime的时间
+    private long mRestoreAtNanos;
+    private long mSize = 0;
+
+    /**
+     * 一张图片的某个解码尺寸
+     */
+    private static class Variant{
+        final String key;
+        final int width;
+        final int height;
+        //使用这份缓存需要请求方允许的解码方式
+        final int requiredFlags;
+        //没有经过压缩,已经是能拿到的最大尺寸
+        boolean originalSize;
+
+        Variant(String key, int width, int height, int requiredFlags){
+            this.key = key;
+            this.width = width;
+            this.height = height;
+            this.requiredFlags = requiredFlags;
+        }
+    }
+
+    /**
+     * 按LRU淘汰
+     * @param maxSize 最多占用的字节数
+     * @param decoder 用来计算图片大小,被淘汰的图片交给它回收复用
+     */
+    public MemoryCache(long maxSize, ImageDecoder<T> decoder){
+        this(maxSize, decoder, LRU_WINDOW_RATIO);
+    }
+
+    /**
+     * @param windowRatio 窗口区占预算的比例,{@link #LRU_WINDOW_RATIO}为普通的LRU,
+     *                    {@link #TINY_LFU_WINDOW_RATIO}为W-TinyLFU
+     */
+    MemoryCache(long maxSize, ImageDecoder<T> decoder, float windowRatio){
+        mBaseMaxSize = maxSize;
+        mMaxSize = maxSize;
+        mDecoder = decoder;
+        mWindowRatio = windowRatio;
+        mSketch = new FrequencySketch((int) Math.min(MAX_SKETCH_ENTRIES, maxSize / ESTIMATED_ENTRY_BYTES));
+    }
+
+    /**
+     * 内存缓存占用是否还低于给定的比例
+     */
+    public synchronized boolean isBelow(float ratio){
+        return mSize < mMaxSize * ratio;
+    }
+
+    public synchronized long size(){
+        return mSize;
+    }
+
+    /**
+     * @return 当前的预算,收缩期间比构造时传入的小
+     */
+    public synchronized long maxSize(){
+        return mMaxSize;
+    }
+
+    /**
+     * 系统内存不足时收缩缓存,淘汰到预算的ratio为止,
+     * 之后的预算在holdMillis内保持收缩,期间没有再次收缩就恢复,
+     * 被淘汰的图片可能还显示在屏幕上,只去掉缓存的引用,不交给复用池
+     * @param ratio 保留的比例,0表示清空
+     * @return 淘汰掉的字节数
+     */
+    public synchronized long trim(float ratio, long holdMillis){
+        restoreBudgetIfExpired();
+        final long before = mSize;
+        trimToSize((long) (mBaseMaxSize * ratio));
+        mMaxSize = Math.min(mMaxSize, (long) (mBaseMaxSize * Math.max(ratio, MIN_BUDGET_RATIO)));
+        mRestoreAtNanos = System.nanoTime() + holdMillis * 1000000L;
+        return before - mSize;
+    }
+
+    //收缩的时间过了就恢复原来的预算
+    private void restoreBudgetIfExpired(){
+        if(mMaxSize < mBaseMaxSize && System.nanoTime() - mRestoreAtNanos >= 0){
+            mMaxSize = mBaseMaxSize;
+        }
+    }
+
+    private static String variantKey(String url, int width, int height, int requiredFlags){
+        return url + "@" + width + "x" + height + "/" + requiredFlags;
+    }
+
+    /**
+     * 放入缓存
+     * @param url 用于取出图片的标志
+     * @param originalSize 图片是否是原图尺寸,原图尺寸能满足任意大小的请求
+     */
+    public synchronized void put(String url, T image, boolean originalSize) {
+        if(url == null || image == null){
+            return;
+        }
+        restoreBudgetIfExpired();
+        final int width = mDecoder.getWidth(image);
+        final int height = mDecoder.getHeight(image);
+        final int requiredFlags = mDecoder.getRequiredFlags(image);
+        final String key = variantKey(url, width, height, requiredFlags);
+        List<Variant> variants = mVariants.get(url);
+        if(variants == null){
+            variants = new ArrayList<>();
+            mVariants.put(url, variants);
+        }
+        Variant variant = null;
+        for(Variant v : variants){
+            if(v.key.equals(key)){
+                variant = v;
+                break;
+            }
+        }
+        if(variant == null){
+            variant = new Variant(key, width, height, requiredFlags);
+            variants.add(variant);
+            final int byteCount = mDecoder.getByteCount(image);
+            mWindow.put(key, image);
+            mWindowSize += byteCount;
+            mSize += byteCount;
+            evict();
+        }
+        variant.originalSize |= originalSize;
+    }
+
+    /**
+     * 取出尺寸合适的缓存,比需要的尺寸大两倍以上的不返回,
+     * 这种情况用{@link #getLarger(String, int, int, int)}取出后再缩小
+     * @param flags 请求方允许的解码方式,见{@link ImageDecoder#FLAG_ALLOW_LOW_DEPTH}
+     */
+    public synchronized T get(String url, int reqWidth, int reqHeight, int flags) {
+        //没有命中也算一次请求,下次解码好放进来时凭这个进入主区
+        mSketch.increment(url);
+        Variant variant = findVariant(url, reqWidth, reqHeight, flags);
+        if(variant == null || isOversized(variant, reqWidth, reqHeight)){
+            return null;
+        }
+        return touch(variant.key);
+    }
+
+    /**
+     * 取出比需要的尺寸大两倍以上的缓存
+     * @return 没有则返回null
+     */
+    public synchronized T getLarger(String url, int reqWidth, int reqHeight, int flags) {
+        Variant variant = findVariant(url, reqWidth, reqHeight, flags);
+        if(variant == null || !isOversized(variant, reqWidth, reqHeight)){
+            return null;
+        }
+        return touch(variant.key);
+    }
+
+    /**
+     * 更新图片的访问顺序,试用区的图片升级到保护区
+     */
+    private T touch(String key){
+        T image = mWindow.get(key);
+        if(image != null){
+            return image;
+        }
+        image = mProbation.remove(key);
+        if(image != null){
+            final int byteCount = mDecoder.getByteCount(image);
+            mProbationSize -= byteCount;
+            mProtected.put(key, image);
+            mProtectedSize += byteCount;
+            //保护区满了,最老的降回试用区
+            final long protectedMax = (long) ((mMaxSize - (long) (mMaxSize * mWindowRatio)) * PROTECTED_RATIO);
+            Iterator<Map.Entry<String, T>> iterator = mProtected.entrySet().iterator();
+            while(mProtectedSize > protectedMax && iterator.hasNext()){
+                Map.Entry<String, T> eldest = iterator.next();
+                iterator.remove();
+                final int eldestBytes = mDecoder.getByteCount(eldest.getValue());
+                mProtectedSize -= eldestBytes;
+                mProbation.put(eldest.getKey(), eldest.getValue());
+                mProbationSize += eldestBytes;
+            }
+            return image;
+        }
+        return mProtected.get(key);
+    }
+
+    /**
+     * 放入图片后调用,窗口区超出的图片移到试用区作为候选,
+     * 总量超出预算时候选和试用区最老的图片比较请求次数,次数少的被淘汰
+     */
+    private void evict(){
+        final long windowMax = (long) (mMaxSize * mWindowRatio);
+        final ArrayDeque<String> candidates = new ArrayDeque<>();
+        Iterator<Map.Entry<String, T>> iterator = mWindow.entrySet().iterator();
+        while(mWindowSize > windowMax && iterator.hasNext()){
+            Map.Entry<String, T> eldest = iterator.next();
+            iterator.remove();
+            final int byteCount = mDecoder.getByteCount(eldest.getValue());
+            mWindowSize -= byteCount;
+            mProbation.put(eldest.getKey(), eldest.getValue());
+            mProbationSize += byteCount;
+            candidates.add(eldest.getKey());
+        }
+        //从最新的候选开始和最老的图片比较,比较完的候选仍留在candidates里用来判断是否刚离开窗口区
+        final Iterator<String> nextCandidate = candidates.descendingIterator();
+        while(mSize > mMaxSize){
+            final String victim = eldestKey();
+            if(victim == null){
+                break;
+            }
+            final String candidate = nextCandidate.hasNext() ? nextCandidate.next() : null;
+            if(candidate != null && !mProbation.containsKey(candidate)){
+                //已经作为最老的图片被淘汰了
+                continue;
+            }
+            if(candidate == null || candidate.equals(victim)
+                    || mSketch.frequency(urlOf(candidate)) > mSketch.frequency(urlOf(victim))){
+                remove(victim, isRecyclable(victim, candidates));
+            }else{
+                //被拒绝的候选刚离开窗口区,可能还显示在屏幕上,不能交给复用池
+                remove(candidate, false);
+            }
+        }
+    }
+
+    /**
+     * 只有试用区里早已离开窗口区的图片才交给复用池,
+     * 这次刚离开窗口区的候选(包括刚放进来的图片)、保护区和窗口区的图片可能还在view上,
+     * 窗口区占满整个预算时就是普通的LRU,最老的图片早已滑出屏幕,照常复用
+     */
+    private boolean isRecyclable(String victim, ArrayDeque<String> candidates){
+        if(!mProbation.containsKey(victim)){
+            return false;
+        }
+        return mWindowRatio >= 1f || !candidates.contains(victim);
+    }
+
+    //依次从试用区、保护区、窗口区找最老的图片
+    private String eldestKey(){
+        if(!mProbation.isEmpty()){
+            return mProbation.keySet().iterator().next();
+        }
+        if(!mProtected.isEmpty()){
+            return mProtected.keySet().iterator().next();
+        }
+        if(!mWindow.isEmpty()){
+            return mWindow.keySet().iterator().next();
+        }
+        return null;
+    }
+
+    /**
+     * 不经过准入比较,依次淘汰试用区、保护区、窗口区最老的图片,直到占用不超过maxSize,
+     * 窗口区和保护区的图片可能还在view上,被淘汰的图片都不交给复用池
+     */
+    public synchronized void trimToSize(long maxSize){
+        String eldest;
+        while(mSize > maxSize && (eldest = eldestKey()) != null){
+            remove(eldest, false);
+        }
+    }
+
+    /**
+     * @param recycle 是否交给复用池,被淘汰的一般是早已滑出屏幕的图片
+     */
+    private void remove(String key, boolean recycle){
+        T image = mWindow.remove(key);
+        final int byteCount;
+        if(image != null){
+            byteCount = mDecoder.getByteCount(image);
+            mWindowSize -= byteCount;
+        }else if((image = mProbation.remove(key)) != null){
+            byteCount = mDecoder.getByteCount(image);
+            mProbationSize -= byteCount;
+        }else if((image = mProtected.remove(key)) != null){
+            byteCount = mDecoder.getByteCount(image);
+            mProtectedSize -= byteCount;
+        }else{
+            return;
+        }
+        mSize -= byteCount;
+        removeVariant(key);
+        if(recycle){
+            mDecoder.recycle(image);
+        }
+    }
+
+    /**
+     * 找出能满足需要的最小的缓存尺寸,
+     * 如果需要的宽度或者高度为0,则只有原图尺寸满足,
+     * 请求方不允许的解码方式的缓存不满足
+     */
+    private Variant findVariant(String url, int reqWidth, int reqHeight, int flags){
+        List<Variant> variants = mVariants.get(url);
+        if(variants == null){
+            return null;
+        }
+        Variant best = null;
+        for(Variant v : variants){
+            if((v.requiredFlags & ~flags) != 0){
+                continue;
+            }
+            final boolean fits;
+            if(reqWidth == 0 || reqHeight == 0){
+                fits = v.originalSize;
+            }else{
+                fits = v.originalSize || (v.width >= reqWidth && v.height >= reqHeight);
+            }
+            if(fits && (best == null || (long) v.width * v.height < (long) best.width * best.height)){
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    //宽高都还能再压缩一半,说明缓存的尺寸太大了
+    private static boolean isOversized(Variant variant, int reqWidth, int reqHeight){
+        return reqWidth != 0 && reqHeight != 0
+                && variant.width >= reqWidth * 2 && variant.height >= reqHeight * 2;
+    }
+
+    private static String urlOf(String key){
+        return key.substring(0, key.lastIndexOf('@'));
+    }
+
+    private void removeVariant(String key){
+        final String url = urlOf(key);
+        List<Variant> variants = mVariants.get(url);
+        if(variants == null){
+            return;
+        }
+        for(int i = 0; i < variants.size(); i++){
+            if(variants.get(i).key.equals(key)){
+                variants.remove(i);
+                break;
+            }
+        }
+        if(variants.isEmpty()){
+            mVariants.remove(url);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 变成可以通过请求key(uri+尺寸+解码方式)来判定是否相等的runnable,
+ * 在队列中按优先级排序,同一优先级后提交的先执行
+ */
+
+abstract class MyRunnable implements Runnable, Comparable<MyRunnable>{
+    private static final AtomicLong SEQUENCE = new AtomicLong(0);
+    protected final String uri;
+    protected final String requestKey;
+    private final long sequence = SEQUENCE.getAndIncrement();
+    protected volatile int priority;
+
+    public MyRunnable(String uri, int reqWidth, int reqHeight, int priority){
+        this(uri, reqWidth, reqHeight, 0, priority);
+    }
+
+    public MyRunnable(String uri, int reqWidth, int reqHeight, int flags, int priority){
+        this.uri = uri;
+        this.requestKey = requestKey(uri, reqWidth, reqHeight, flags);
+        this.priority = priority;
+    }
+
+    /**
+     * 同一张图片同一尺寸的请求共用一个key
+     */
+    public static String requestKey(String uri, int reqWidth, int reqHeight){
+        return requestKey(uri, reqWidth, reqHeight, 0);
+    }
+
+    /**
+     * 同一张图片同一尺寸同一解码方式的请求共用一个key,解码方式不同时解码出来的图片不能共用
+     * @param flags 请求方允许的解码方式,见{@link ImageDecoder#FLAG_ALLOW_LOW_DEPTH}
+     */
+    public static String requestKey(String uri, int reqWidth, int reqHeight, int flags){
+        if(flags == 0){
+            return uri + "#" + reqWidth + "x" + reqHeight;
+        }
+        return uri + "#" + reqWidth + "x" + reqHeight + "/" + flags;
+    }
+
+    /**
+     * 等待这个任务的view是否都已经绑定到别的图片上了
+     */
+    public abstract boolean isStale();
+
+    /**
+     * 队列满了时能不能丢掉,没有view在等的任务(比如预加载)才能丢掉,
+     * 有view在等的任务丢掉后view会一直显示占位图
+     */
+    public abstract boolean isDroppable();
+
+    /**
+     * 任务被丢弃,不会再执行
+     */
+    public abstract void cancel();
+
+    @Override
+    public int compareTo(MyRunnable other) {
+        if(priority != other.priority){
+            return priority < other.priority ? -1 : 1;
+        }
+        return sequence > other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(obj instanceof MyRunnable)
+            return ((MyRunnable)obj).requestKey.equals(requestKey);
+        else
+            return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return requestKey.hashCode();
+    }
+}
@@ -1,39 +1,38 @@
 package com.example.mr_do.planclock.util.image;
 
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.media.ExifInterface;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
+import android.os.ParcelFileDescriptor;
 import android.os.StatFs;
 import android.support.annotation.NonNull;
-import android.util.LruCache;
+import android.view.Choreographer;
 import com.example.mr_do.planclock.R;
+import com.example.mr_do.planclock.util.ByteBufferInputStream;
 import com.example.mr_do.planclock.util.IOUtil;
 import com.example.mr_do.planclock.util.log.LogUtil;
-import com.jakewharton.disklrucache.DiskLruCache;
-import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.TreeMap;
 
 /**
  * Created by Mr_Do on 2018/4/4.
@@ -42,46 +41,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class NativeImageLoader implements IImageLoader {
 
-    private interface IImageCache {
-        /**
-         * 用来存放缓存元素的类
-         * 因为缓存元素有可能不是Bitmap
-         */
-        class CacheElement{
-            private Bitmap bitmap;
-            private InputStream inputStream;
-
-            public Bitmap getBitmap() {
-                return bitmap;
-            }
-
-            public void setBitmap(Bitmap bitmap) {
-                this.bitmap = bitmap;
-            }
-
-            public InputStream getInputStream() {
-                return inputStream;
-            }
-
-            public void setInputStream(InputStream inputStream) {
-                this.inputStream = inputStream;
-            }
-        }
-
-        /**
-         * 放入缓存
-         * @param url 用于取出图片的标志
-         * @param cacheElement 要放入缓存元素
-         */
-        void put(String url, CacheElement cacheElement);
-
-        /**
-         * 从缓存中取出
-         * @param url 图片的标志,这里建议用url进行标志
-         */
-        Bitmap get(String url, int reqWidth, int reqHeight);
-    }
-
     private interface IImageResizer {
 
         /**
@@ -109,14 +68,260 @@ public class NativeImageLoader implements IImageLoader {
         Bitmap decodeSampledBitmapFromFileDescriptor(FileDescriptor fd,
                                                      int reqWidth,
                                                      int reqHeight);
+
+        /**
+         * 压缩文件中的图片,图片的原始宽高已经知道,不用再解码一次文件头
+         * @param fd 文件
+         * @param srcWidth 图片原始宽度
+         * @param srcHeight 图片原始高度
+         * @param reqWidth 需要的宽度
+         * @param reqHeight 需要的高度
+         * @return 返回压缩后的图片
+         */
+        Bitmap decodeSampledBitmapFromFileDescriptor(FileDescriptor fd,
+                                                     int srcWidth,
+                                                     int srcHeight,
+                                                     int reqWidth,
+                                                     int reqHeight);
+
+        /**
+         * 在内存中把一张较大的图片缩小,
+         * 缩小的比例和从文件解码时的inSampleSize一致
+         * @param source 原来的图片
+         * @param reqWidth 需要的宽度
+         * @param reqHeight 需要的高度
+         * @return 缩小后的图片,不需要缩小时返回原图
+         */
+        Bitmap decodeSampledBitmapFromBitmap(Bitmap source,
+                                             int reqWidth,
+                                             int reqHeight);
     }
 
     private interface ILoadStrategy{
         void loadToView(String uri, int reqWidth, int reqHeight, ShowView showView);
+
+        void loadLocalToView(String uri, int reqWidth, int reqHeight, ShowView showView);
+
+        /**
+         * 以低优先级把图片预加载进磁盘缓存和内存缓存,不绑定view
+         * @return 超出预加载预算时返回false
+         */
+        boolean prefetch(String uri, int reqWidth, int reqHeight, BitmapConfigPolicy policy);
+
+        boolean isLoading(String uri, int reqWidth, int reqHeight, ShowView showView);
+
+        String requestKey(String uri, int reqWidth, int reqHeight, ShowView showView);
+
+        TiledImage<Bitmap> openTiled(String uri, TiledImage.Listener listener);
+
+        ImageLoaderStats getStats();
+
+        void resetStats();
     }
 
-    //图片压缩内部类
-    private static class NativeImageResizer implements IImageResizer {
+    /**
+     * Bitmap复用池,按Bitmap实际占用的内存大小分桶,
+     * 被内存缓存淘汰的Bitmap放进来,解码时通过inBitmap复用,减少分配和GC
+     */
+    private static class BitmapPool {
+        //复用的Bitmap最多比需要的大这么多倍,再大就浪费内存了
+        private static final int MAX_SIZE_MULTIPLE = 4;
+        private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<>();
+        //按放入的先后顺序,超出预算时先丢最早放入的
+        private final LinkedList<Bitmap> mInsertOrder = new LinkedList<>();
+        private final long mMaxSize;
+        private long mCurrentSize = 0;
+        private int mHitCount = 0;
+        private int mMissCount = 0;
+        private int mPutCount = 0;
+        private int mEvictionCount = 0;
+
+        public BitmapPool(long maxSize){
+            mMaxSize = maxSize;
+        }
+
+        /**
+         * 放入一个不再使用的Bitmap,不可变或者已回收的直接丢弃
+         */
+        public synchronized void put(Bitmap bitmap){
+            if(bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()){
+                return;
+            }
+            final int size = bitmap.getAllocationByteCount();
+            if(size > mMaxSize){
+                return;
+            }
+            LinkedList<Bitmap> bucket = mBuckets.get(size);
+            if(bucket == null){
+                bucket = new LinkedList<>();
+                mBuckets.put(size, bucket);
+            }
+            bucket.addLast(bitmap);
+            mInsertOrder.addLast(bitmap);
+            mCurrentSize += size;
+            mPutCount++;
+            trimToSize(mMaxSize);
+        }
+
+        /**
+         * 取出一个能装下width*height像素的Bitmap
+         * @return 没有合适的就返回null
+         */
+        public synchronized Bitmap get(int width, int height, Bitmap.Config config){
+            final int required = width * height * getBytesPerPixel(config);
+            Integer size = mBuckets.ceilingKey(required);
+            if(required <= 0 || size == null || size > required * MAX_SIZE_MULTIPLE){
+                mMissCount++;
+                return null;
+            }
+            LinkedList<Bitmap> bucket = mBuckets.get(size);
+            Bitmap bitmap = bucket.removeLast();
+            if(bucket.isEmpty()){
+                mBuckets.remove(size);
+            }
+            mInsertOrder.remove(bitmap);
+            mCurrentSize -= size;
+            mHitCount++;
+            return bitmap;
+        }
+
+        private void trimToSize(long maxSize){
+            while(mCurrentSize > maxSize && !mInsertOrder.isEmpty()){
+                Bitmap eldest = mInsertOrder.removeFirst();
+                final int size = eldest.getAllocationByteCount();
+                LinkedList<Bitmap> bucket = mBuckets.get(size);
+                if(bucket != null){
+                    bucket.remove(eldest);
+                    if(bucket.isEmpty()){
+                        mBuckets.remove(size);
+                    }
+                }
+                mCurrentSize -= size;
+                mEvictionCount++;
+            }
+        }
+
+        public synchronized void clear(){
+            trimToSize(0);
+        }
+
+        /**
+         * 系统内存不足时收缩到预算的ratio
+         * @return 释放的字节数
+         */
+        public synchronized long trim(float ratio){
+            final long before = mCurrentSize;
+            trimToSize((long) (mMaxSize * ratio));
+            return before - mCurrentSize;
+        }
+
+        public synchronized int getHitCount() {
+            return mHitCount;
+        }
+
+        public synchronized int getMissCount() {
+            return mMissCount;
+        }
+
+        public synchronized int getPutCount() {
+            return mPutCount;
+        }
+
+        public synchronized int getEvictionCount() {
+            return mEvictionCount;
+        }
+
+        public synchronized long getCurrentSize() {
+            return mCurrentSize;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "BitmapPool[size=" + mCurrentSize + "/" + mMaxSize
+                    + ",hits=" + mHitCount + ",misses=" + mMissCount
+                    + ",puts=" + mPutCount + ",evictions=" + mEvictionCount + "]";
+        }
+
+        private static int getBytesPerPixel(Bitmap.Config config){
+            if(config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444){
+                return 2;
+            }
+            if(config == Bitmap.Config.ALPHA_8){
+                return 1;
+            }
+            return 4;
+        }
+    }
+
+    /**
+     * 待解码的图片数据,可以是磁盘缓存的文件,也可以是内存中的原始数据
+     */
+    private interface EncodedSource {
+        Bitmap decode(BitmapFactory.Options options);
+
+        /**
+         * 读取开头的数据,读完之后仍然从头解码
+         * @return 读到的长度
+         */
+        int readHead(byte[] head) throws IOException;
+    }
+
+    private static class FileSource implements EncodedSource {
+        private final FileDescriptor mFd;
+
+        FileSource(FileDescriptor fd){
+            mFd = fd;
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeFileDescriptor(mFd, null, options);
+        }
+
+        @Override
+        public int readHead(byte[] head) throws IOException {
+            //不能关闭,fd归磁盘缓存所有
+            FileInputStream in = new FileInputStream(mFd);
+            int length = 0;
+            int read;
+            while(length < head.length && (read = in.read(head, length, head.length - length)) > 0){
+                length += read;
+            }
+            in.getChannel().position(0);
+            return length;
+        }
+    }
+
+    private static class BufferSource implements EncodedSource {
+        private final ByteBuffer mData;
+
+        BufferSource(ByteBuffer data){
+            mData = data;
+        }
+
+        //每次都用独立的position读取,同一份数据可以先读文件头再解码
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(mData.duplicate()), null, options);
+        }
+
+        @Override
+        public int readHead(byte[] head) {
+            ByteBuffer data = mData.duplicate();
+            final int length = Math.min(head.length, data.remaining());
+            data.get(head, 0, length);
+            return length;
+        }
+    }
+
+    //图片压缩内部类,同时作为流水线的解码实现
+    private static class NativeImageResizer implements IImageResizer, ImageDecoder<Bitmap> {
+        private static final String POOL_TAG = "BitmapPool_ImageLoader";
+        private final BitmapPool mBitmapPool;
+
+        public NativeImageResizer(BitmapPool bitmapPool){
+            mBitmapPool = bitmapPool;
+        }
 
         @Override
         public Bitmap decodeSampledBitmapFromResource(Resources res, int resId, int reqWidth, int reqHeight) {
@@ -124,371 +329,727 @@ public class NativeImageLoader implements IImageLoader {
             options.inJustDecodeBounds = true;
             BitmapFactory.decodeResource(res, resId, options);
 
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
             options.inJustDecodeBounds = false;
             return BitmapFactory.decodeResource(res, resId, options);
         }
 
         @Override
         public Bitmap decodeSampledBitmapFromFileDescriptor(FileDescriptor fd, int reqWidth, int reqHeight) {
+            return decodeSampledBitmap(new FileSource(fd), reqWidth, reqHeight, Bitmap.Config.ARGB_8888, false);
+        }
+
+        private Bitmap decodeSampledBitmap(EncodedSource source, int reqWidth, int reqHeight,
+                                           Bitmap.Config config, boolean exact) {
             final BitmapFactory.Options options = new BitmapFactory.Options();
             options.inJustDecodeBounds = true;
-            BitmapFactory.decodeFileDescriptor(fd, null, options);
+            source.decode(options);
+            return decodeSampledBitmap(source, options.outWidth, options.outHeight,
+                    reqWidth, reqHeight, config, exact);
+        }
 
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-            options.inJustDecodeBounds = false;
-            return BitmapFactory.decodeFileDescriptor(fd, null, options);
+        @Override
+        public Bitmap decodeSampledBitmapFromFileDescriptor(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+            return decodeSampledBitmap(new FileSource(fd), srcWidth, srcHeight, reqWidth, reqHeight,
+                    Bitmap.Config.ARGB_8888, false);
         }
 
-        private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight){
-            //如果需要的宽度或者高度为0,则说明不压缩
-            if(reqWidth == 0 || reqHeight == 0){
-                return 1;
+        /**
+         * @param exact 是否在按2的幂采样之后,再通过inDensity/inTargetDensity缩放到正好的尺寸,
+         *              缩放在解码时一次完成,不会多分配一张中间的Bitmap
+         */
+        private Bitmap decodeSampledBitmap(EncodedSource source, int srcWidth, int srcHeight,
+                                           int reqWidth, int reqHeight, Bitmap.Config config,
+                                           boolean exact) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = calculateInSampleSize(srcWidth, srcHeight, reqWidth, reqHeight);
+            options.inPreferredConfig = config;
+            int width = (srcWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (srcHeight + options.inSampleSize - 1) / options.inSampleSize;
+            if(exact){
+                final int[] density = ImageUtil.calculateExactDensity(width, height, reqWidth, reqHeight);
+                if(density != null){
+                    options.inScaled = true;
+                    options.inDensity = density[0];
+                    options.inTargetDensity = density[1];
+                    width = ImageUtil.scaledDimension(width, density[0], density[1]);
+                    height = ImageUtil.scaledDimension(height, density[0], density[1]);
+                }
             }
-
-            final int height = options.outHeight;
-            final int width = options.outWidth;
-
-            //计算inSampleSize的策略
-            int inSampleSize = 1;
-            if(height > reqHeight || width > reqWidth){
-                final int halfHeight = height/2;
-                final int halfWidth = width/2;
-                while((halfHeight/inSampleSize)>reqHeight && (halfWidth/inSampleSize)>reqWidth){
-                    inSampleSize *= 2;
+            if(isHardware(config)){
+                //硬件Bitmap不可变,也不能复用别的Bitmap
+                return decode(source, options);
+            }
+            //解码出来的Bitmap要可变才能在以后放回复用池
+            options.inMutable = true;
+            if(mBitmapPool != null){
+                options.inBitmap = mBitmapPool.get(width, height, options.inPreferredConfig);
+            }
+            if(options.inBitmap != null){
+                try {
+                    return decode(source, options);
+                } catch (IllegalArgumentException e) {
+                    //复用的Bitmap不满足条件,不复用重新解码一次
+                    LogUtil.logE(POOL_TAG, "inBitmap rejected: " + e.getMessage());
+                    options.inBitmap = null;
                 }
             }
-            return inSampleSize;
+            return decode(source, options);
         }
-    }
 
-    //图片缓存实现类,内存缓存
-    private static class MemoryCache implements IImageCache{
-        private LruCache<String, Bitmap> mMemoryCache;
-        public MemoryCache(){
-            final int maxMemory = (int)(Runtime.getRuntime().maxMemory()/1024);
-            final int cacheSize = maxMemory/8;
-            mMemoryCache = new LruCache<String, Bitmap>(cacheSize){
-                @Override
-                protected int sizeOf(String key, Bitmap value) {
-                    return value.getRowBytes()*value.getHeight()/1024;
-                }
-            };
+        //按inDensity缩放后Bitmap的density是inTargetDensity,改回屏幕的density,否则绘制时会按density再缩放一次
+        private static Bitmap decode(EncodedSource source, BitmapFactory.Options options){
+            Bitmap bitmap = source.decode(options);
+            if(bitmap != null && options.inDensity != 0){
+                bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+            }
+            return bitmap;
         }
+
         @Override
-        public void put(String url, CacheElement cacheElement) {
-            if(mMemoryCache.get(url)==null&&url!=null&&cacheElement.getBitmap()!=null){
-                mMemoryCache.put(url, cacheElement.getBitmap());
+        public Bitmap decodeSampledBitmapFromBitmap(Bitmap source, int reqWidth, int reqHeight) {
+            if(isHardware(source.getConfig())){
+                //硬件Bitmap的像素不在内存里,不能用软件画布缩小
+                return null;
+            }
+            final int inSampleSize = calculateInSampleSize(source.getWidth(), source.getHeight(), reqWidth, reqHeight);
+            if(inSampleSize == 1){
+                return source;
             }
+            return Bitmap.createScaledBitmap(source,
+                    source.getWidth() / inSampleSize, source.getHeight() / inSampleSize, true);
         }
 
         @Override
-        public Bitmap get(String url, int reqWidth, int reqHeight) {
-            return mMemoryCache.get(url);
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(head, 0, length, options);
+            outSize[0] = options.outWidth;
+            outSize[1] = options.outHeight;
+            return options.outWidth > 0 && options.outHeight > 0;
         }
-    }
 
-    //图片缓存实现类,磁盘缓存
-    private static class DiskCache implements IImageCache{
-        private static final long DISK_CACHE_SIZE = 1024*1024*50;
-        private static final int DISK_CACHE_INDEX = 0;
-        private DiskLruCache mDiskLruCache;
-        private Context mContext;
-        private File diskCacheDir;
-        private IImageResizer mImageResizer;
-        private boolean mIsDiskLruCacheCreated = false;
+        @Override
+        public Bitmap decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return decodeSource(new FileSource(fd), srcWidth, srcHeight, reqWidth, reqHeight, flags);
+        }
 
-        public boolean ismIsDiskLruCacheCreated(){
-            return mIsDiskLruCacheCreated;
+        //内存中的原始数据通过流解码,BitmapFactory每次只读一小块,不需要再拷贝出一个完整的数组
+        @Override
+        public Bitmap decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return decodeSource(new BufferSource(data), srcWidth, srcHeight, reqWidth, reqHeight, flags);
         }
 
-        public DiskCache(Context context){
-            mContext = context;
-            mImageResizer = new NativeImageResizer();
-            diskCacheDir = getDiskCacheDir(mContext,"bitmap");
-            if(!diskCacheDir.exists()){
-                diskCacheDir.mkdirs();
+        private Bitmap decodeSource(EncodedSource source, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            final Bitmap.Config config = chooseConfig(source, flags);
+            final boolean exact = (flags & FLAG_EXACT_SIZE) != 0;
+            if(srcWidth > 0 && srcHeight > 0){
+                return decodeSampledBitmap(source, srcWidth, srcHeight, reqWidth, reqHeight, config, exact);
             }
-            if(getUsableSpace(diskCacheDir) > DISK_CACHE_SIZE){
-                try {
-                    mDiskLruCache = DiskLruCache.open(diskCacheDir,1,1,DISK_CACHE_SIZE);
-                    mIsDiskLruCacheCreated = true;
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            return decodeSampledBitmap(source, reqWidth, reqHeight, config, exact);
+        }
+
+        /**
+         * 不透明的图片优先用RGB_565,内存减半,
+         * 带透明度或者不允许RGB_565时,支持的系统上用硬件Bitmap,否则用ARGB_8888
+         */
+        private Bitmap.Config chooseConfig(EncodedSource source, int flags){
+            if((flags & FLAG_ALLOW_LOW_DEPTH) != 0 && !hasAlpha(source)){
+                return Bitmap.Config.RGB_565;
+            }
+            if((flags & FLAG_ALLOW_HARDWARE) != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
+                return Bitmap.Config.HARDWARE;
             }
+            return Bitmap.Config.ARGB_8888;
         }
 
-        @Override
-        public void put(String url, CacheElement cacheElement) {
-            if(Looper.myLooper() == Looper.getMainLooper())
-                throw new RuntimeException("can not visit disk from UI Thread");
-            String key = hashKeyFormUrl(url);
-            OutputStream outputStream = null;
-            DiskLruCache.Editor editor = null;
+        //Bitmap.Config.HARDWARE在API 26才有,低版本上访问这个字段会抛NoSuchFieldError
+        private static boolean isHardware(Bitmap.Config config){
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+        }
+
+        //读取文件头判断透明度
+        private boolean hasAlpha(EncodedSource source){
+            final byte[] head = new byte[ImageUtil.ALPHA_HEADER_SIZE];
+            final int length;
             try {
-                editor = mDiskLruCache.edit(key);
-                if(editor != null){
-                    outputStream = editor.newOutputStream(DISK_CACHE_INDEX);
-                    if( writeToStream(cacheElement.getInputStream(), outputStream)){
-                        editor.commit();
-                    }else{
-                        editor.abort();
-                    }
-                    mDiskLruCache.flush();
-                }
+                length = source.readHead(head);
             } catch (IOException e) {
                 e.printStackTrace();
-            }finally {
-                IOUtil.close(outputStream);
+                return true;
             }
+            return ImageUtil.hasAlpha(head, length);
         }
 
-        private boolean writeToStream(InputStream inputStream,OutputStream outputStream) throws IOException {
-            try {
-                int b;
-                while ((b=inputStream.read())!=-1){
-                    outputStream.write(b);
-                }
-                return true;
-            } catch (IOException e) {
-                e.printStackTrace();
-                return false;
-            }finally {
-                IOUtil.close(inputStream);
-                IOUtil.close(outputStream);
+        @Override
+        public Bitmap scale(Bitmap source, int reqWidth, int reqHeight, int flags) {
+            if((flags & FLAG_EXACT_SIZE) == 0){
+                return decodeSampledBitmapFromBitmap(source, reqWidth, reqHeight);
             }
+            if(isHardware(source.getConfig())){
+                return null;
+            }
+            final int[] density = ImageUtil.calculateExactDensity(source.getWidth(), source.getHeight(),
+                    reqWidth, reqHeight);
+            if(density == null){
+                return source;
+            }
+            return Bitmap.createScaledBitmap(source,
+                    ImageUtil.scaledDimension(source.getWidth(), density[0], density[1]),
+                    ImageUtil.scaledDimension(source.getHeight(), density[0], density[1]), true);
         }
 
+        @Override
+        public int getWidth(Bitmap image) {
+            return image.getWidth();
+        }
 
         @Override
-        public Bitmap get(String url, int reqWidth, int reqHeight) {
-            if(Looper.myLooper() == Looper.getMainLooper())
-                throw new RuntimeException("can not visit disk from UI Thread");
-            if(mDiskLruCache == null)
-                return null;
-            Bitmap bitmap = null;
-            String key = hashKeyFormUrl(url);
-            try {
-                DiskLruCache.Snapshot snapshot = mDiskLruCache.get(key);
-                if (snapshot != null) {
-                    FileInputStream fileInputStream = (FileInputStream) snapshot.getInputStream(DISK_CACHE_INDEX);
-                    FileDescriptor fileDescriptor = fileInputStream.getFD();
-                    bitmap = mImageResizer.decodeSampledBitmapFromFileDescriptor(fileDescriptor, reqWidth, reqHeight);
+        public int getHeight(Bitmap image) {
+            return image.getHeight();
+        }
+
+        //复用的Bitmap可能比图片本身大,按实际分配的内存计算
+        @Override
+        public int getByteCount(Bitmap image) {
+            return image.getAllocationByteCount();
+        }
+
+        @Override
+        public int getRequiredFlags(Bitmap image) {
+            final Bitmap.Config config = image.getConfig();
+            if(config == Bitmap.Config.RGB_565){
+                return FLAG_ALLOW_LOW_DEPTH;
+            }
+            if(isHardware(config)){
+                return FLAG_ALLOW_HARDWARE;
+            }
+            return 0;
+        }
+
+        @Override
+        public void recycle(Bitmap image) {
+            //被淘汰的一般是早已滑出屏幕的图片,交给复用池
+            if(mBitmapPool != null){
+                mBitmapPool.put(image);
+            }
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return mBitmapPool == null ? 0 : mBitmapPool.trim(ratio);
+        }
+
+        /**
+         * 解码大图中的一块,
+         * BitmapRegionDecoder复用Bitmap时不改变它的宽高,只复用宽高正好一样的,一般是中间的整块
+         */
+        Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int sampleSize, Bitmap.Config config){
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            options.inMutable = true;
+            final int width = (region.width() + sampleSize - 1) / sampleSize;
+            final int height = (region.height() + sampleSize - 1) / sampleSize;
+            if(mBitmapPool != null){
+                Bitmap reuse = mBitmapPool.get(width, height, config);
+                if(reuse != null && (reuse.getWidth() != width || reuse.getHeight() != height
+                        || reuse.getConfig() != config)){
+                    mBitmapPool.put(reuse);
+                    reuse = null;
                 }
-            }catch (IOException e){
-                e.printStackTrace();
+                options.inBitmap = reuse;
             }
-            return bitmap;
+            if(options.inBitmap != null){
+                try {
+                    return decoder.decodeRegion(region, options);
+                } catch (IllegalArgumentException e) {
+                    LogUtil.logE(POOL_TAG, "inBitmap rejected: " + e.getMessage());
+                    options.inBitmap = null;
+                }
+            }
+            return decoder.decodeRegion(region, options);
         }
 
-        private File getDiskCacheDir(Context context, String fileName){
-            boolean externalStorageAvailable = Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED);
-            final String cachePath;
+        private int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight){
+            return ImageUtil.calculateInSampleSize(width, height, reqWidth, reqHeight);
+        }
+    }
 
-            if(externalStorageAvailable){
-                cachePath = context.getExternalCacheDir().getPath();
-            }else{
-                cachePath = context.getCacheDir().getPath();
+    /**
+     * 解码本机图片,支持文件路径、file://和content://地址,
+     * 相机照片的EXIF里一般有一张160x120左右的缩略图,列表的格子不大时直接用它,
+     * 否则通过文件描述符解码,和网络图片一样按需要的尺寸采样并复用Bitmap
+     */
+    private static class LocalFileDecoder implements LocalImageDecoder<Bitmap> {
+        private final ContentResolver mResolver;
+        private final NativeImageResizer mResizer;
+
+        LocalFileDecoder(Context context, NativeImageResizer resizer){
+            mResolver = context.getContentResolver();
+            mResizer = resizer;
+        }
+
+        @Override
+        public Bitmap decodeThumbnail(String uri, int reqWidth, int reqHeight, int flags) throws IOException {
+            if(reqWidth == 0 || reqHeight == 0){
+                //要的是原图
+                return null;
             }
-            return new File(cachePath + File.separator+fileName);
+            final byte[] thumbnail = readExifThumbnail(uri);
+            if(thumbnail == null){
+                return null;
+            }
+            final int[] size = new int[2];
+            if(!mResizer.decodeBounds(thumbnail, thumbnail.length, size)
+                    || size[0] < reqWidth || size[1] < reqHeight){
+                return null;
+            }
+            return mResizer.decodeBuffer(ByteBuffer.wrap(thumbnail), size[0], size[1], reqWidth, reqHeight, flags);
         }
 
-        private long getUsableSpace(File path){
-            if(Build.VERSION.SDK_INT>= Build.VERSION_CODES.GINGERBREAD){
-                return path.getUsableSpace();
+        //ExifInterface只解析文件头,读到缩略图就停,不会读整张照片
+        private byte[] readExifThumbnail(String uri) throws IOException {
+            final String path = getFilePath(uri);
+            final ExifInterface exif;
+            if(path != null){
+                exif = new ExifInterface(path);
+            }else if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N){
+                InputStream in = mResolver.openInputStream(Uri.parse(uri));
+                if(in == null){
+                    return null;
+                }
+                try {
+                    exif = new ExifInterface(in);
+                } finally {
+                    IOUtil.close(in);
+                }
+            }else{
+                //低版本的ExifInterface只能读文件路径
+                return null;
             }
-            final StatFs stats = new StatFs(path.getPath());
-            return (long) stats.getBlockSize() *(long) stats.getAvailableBlocks();
+            return exif.hasThumbnail() ? exif.getThumbnail() : null;
         }
 
-        private String hashKeyFormUrl(String url){
-            String cacheKey;
+        @Override
+        public Bitmap decode(String uri, int reqWidth, int reqHeight, int flags) throws IOException {
+            final String path = getFilePath(uri);
+            if(path != null){
+                FileInputStream in = new FileInputStream(path);
+                try {
+                    return mResizer.decodeFile(in.getFD(), 0, 0, reqWidth, reqHeight, flags);
+                } finally {
+                    IOUtil.close(in);
+                }
+            }
+            ParcelFileDescriptor pfd = mResolver.openFileDescriptor(Uri.parse(uri), "r");
+            if(pfd == null){
+                return null;
+            }
             try {
-                final MessageDigest messageDigest = MessageDigest.getInstance("MD5");
-                messageDigest.update(url.getBytes());
-                cacheKey = byteToHexString(messageDigest.digest());
-            } catch (NoSuchAlgorithmException e) {
-                cacheKey = String.valueOf(url.hashCode());
+                return mResizer.decodeFile(pfd.getFileDescriptor(), 0, 0, reqWidth, reqHeight, flags);
+            } finally {
+                IOUtil.close(pfd);
+            }
+        }
+
+        /**
+         * @return 文件路径或者file://地址对应的路径,content://地址返回null
+         */
+        private static String getFilePath(String uri){
+            if(uri.startsWith(File.separator)){
+                return uri;
             }
-            return  cacheKey;
+            if(uri.startsWith(ContentResolver.SCHEME_FILE + "://")){
+                return Uri.parse(uri).getPath();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 用BitmapRegionDecoder按区域解码本机大图,支持文件路径、file://和content://地址,
+     * 打开时顺便读文件头判断透明度,不透明的图片允许时用RGB_565解码
+     */
+    private static class LocalRegionDecoderFactory implements RegionDecoder.Factory<Bitmap> {
+        private final ContentResolver mResolver;
+        private final NativeImageResizer mResizer;
+
+        LocalRegionDecoderFactory(Context context, NativeImageResizer resizer){
+            mResolver = context.getContentResolver();
+            mResizer = resizer;
         }
 
-        private String byteToHexString(byte[] digest) {
-            StringBuilder sb = new StringBuilder();
-            for(int i=0;i<digest.length;i++){
-                String hex = Integer.toHexString(0xFF & digest[i]);
-                if(hex.length() == 1){
-                    sb.append('0');
+        //BitmapRegionDecoder会复制一份文件描述符,打开以后就可以关闭
+        @Override
+        public RegionDecoder<Bitmap> open(String uri) throws IOException {
+            final String path = LocalFileDecoder.getFilePath(uri);
+            Closeable owner;
+            FileDescriptor fd;
+            if(path != null){
+                FileInputStream in = new FileInputStream(path);
+                owner = in;
+                fd = in.getFD();
+            }else{
+                ParcelFileDescriptor pfd = mResolver.openFileDescriptor(Uri.parse(uri), "r");
+                if(pfd == null){
+                    throw new FileNotFoundException(uri);
                 }
-                sb.append(hex);
+                owner = pfd;
+                fd = pfd.getFileDescriptor();
+            }
+            try {
+                final boolean opaque = !mResizer.hasAlpha(new FileSource(fd));
+                return new LocalRegionDecoder(BitmapRegionDecoder.newInstance(fd, false), mResizer, opaque);
+            } finally {
+                IOUtil.close(owner);
             }
-            return sb.toString();
         }
     }
 
-    //双缓存加载策略
-    private static class DoubleCacheStrategy implements ILoadStrategy{
-        private IImageResizer iImageResizer = new NativeImageResizer();
-        private IImageCache mDiskCache;
-        private IImageCache mMemoryCache;
-        private Context mContext;
-        private static final String MEMORY_TAG = "Memory_ImageLoader";
-        private static final String DISK_TAG = "Disk_ImageLoader";
-        private static final String WEB_TAG = "Web_ImageLoader";
-        private static final String LOAD_TAG = "_ImageLoader";
-        public static final int MESSAGE_POST_RESULT = 1;
-        private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
-        private static final int CORE_POOL_SIZE = CPU_COUNT+1;
-        private static final int MAXIMUM_POOL_SIZE = CPU_COUNT*2+1;
-        private static final long KEEP_ALIVE = 10L;
-        private static final int IO_BUFFER_SIZE = 8*1024;
-        private static final MyBlockingDeque MY_BLOCKING_DEQUE = new MyBlockingDeque();
-        private static final ThreadFactory sThreadFactory = new ThreadFactory() {
-            private final AtomicInteger mCount = new AtomicInteger(1);
-            @Override
-            public Thread newThread(@NonNull Runnable runnable) {
-                return new Thread(runnable, "ImageLoader#"+mCount.getAndIncrement());
+    private static class LocalRegionDecoder implements RegionDecoder<Bitmap> {
+        private final BitmapRegionDecoder mDecoder;
+        private final NativeImageResizer mResizer;
+        private final boolean mOpaque;
+
+        LocalRegionDecoder(BitmapRegionDecoder decoder, NativeImageResizer resizer, boolean opaque){
+            mDecoder = decoder;
+            mResizer = resizer;
+            mOpaque = opaque;
+        }
+
+        @Override
+        public int getWidth() {
+            return mDecoder.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mDecoder.getHeight();
+        }
+
+        //块要画在软件或者硬件画布上,都能用普通的Bitmap,不用硬件Bitmap,这样才能复用
+        @Override
+        public Bitmap decodeRegion(int left, int top, int right, int bottom, int sampleSize, int flags) {
+            final Bitmap.Config config = mOpaque && (flags & ImageDecoder.FLAG_ALLOW_LOW_DEPTH) != 0
+                    ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            return mResizer.decodeRegion(mDecoder, new Rect(left, top, right, bottom), sampleSize, config);
+        }
+
+        @Override
+        public void close() {
+            mDecoder.recycle();
+        }
+    }
+
+    /**
+     * 通过Handler切到主线程,再在下一帧的Choreographer回调中执行
+     */
+    private static class ChoreographerDispatcher implements MainThreadDispatcher {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public boolean isMainThread() {
+            return Looper.myLooper() == Looper.getMainLooper();
+        }
+
+        @Override
+        public void postFrame(final Runnable task) {
+            //Choreographer只能在主线程获取,通过Handler切到主线程再注册帧回调
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                        @Override
+                        public void doFrame(long frameTimeNanos) {
+                            task.run();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * 把ShowView包装成流水线的等待对象,同一个view包装出来的对象相等
+     */
+    private static class ViewTarget implements ImagePipeline.Target<Bitmap> {
+        private final ShowView mShowView;
+
+        ViewTarget(ShowView showView){
+            mShowView = showView;
+        }
+
+        @Override
+        public boolean isWaitingFor(String uri) {
+            return uri.equals(mShowView.getViewTag(R.id.image_loader_uri));
+        }
+
+        @Override
+        public void onImageReady(Bitmap image) {
+            mShowView.bindView(image);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ViewTarget && ((ViewTarget) o).mShowView == mShowView;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(mShowView);
+        }
+    }
+
+    //双缓存加载策略,加载流程在ImagePipeline中,这里只负责组装Android相关的实现,
+    //同时接收系统的内存不足通知,按级别收缩内存缓存
+    private static class DoubleCacheStrategy implements ILoadStrategy, ComponentCallbacks2{
+        private static final String TRIM_TAG = "Trim_ImageLoader";
+        //收缩后的预算保持这么久,期间没有再收到通知就恢复
+        private static final long TRIM_HOLD_MILLIS = 60*1000;
+        //没有配置BitmapConfigPolicy时,没有实现BitmapConfigPolicy的view和预加载使用的解码方式
+        private static final int DEFAULT_DECODE_FLAGS = ImageDecoder.FLAG_ALLOW_LOW_DEPTH
+                | ImageDecoder.FLAG_ALLOW_HARDWARE | ImageDecoder.FLAG_EXACT_SIZE;
+        //和线程池一样是进程内共享的
+        private static final LoaderMetrics METRICS = new LoaderMetrics();
+        private final ImagePipeline<Bitmap> mPipeline;
+        private final RegionDecoder.Factory<Bitmap> mRegionDecoderFactory;
+
+        private final int mDefaultDecodeFlags;
+
+        public DoubleCacheStrategy(Context context, ImageLoaderConfig config){
+            BitmapPool bitmapPool = new BitmapPool(config.getBitmapPoolSize());
+            NativeImageResizer imageResizer = new NativeImageResizer(bitmapPool);
+            MainThreadDispatcher dispatcher = new ChoreographerDispatcher();
+            //构造时在主线程,不做任何IO,查询存储空间和打开DiskLruCache都放到后台线程
+            DiskCache<Bitmap> diskCache = new DiskCache<>(new CacheDirectories(context, config),
+                    config.getDiskCacheSize(), imageResizer, dispatcher);
+            diskCache.openInBackground();
+            MemoryCache<Bitmap> memoryCache = new MemoryCache<>(config.getMemoryCacheSize(), imageResizer,
+                    config.isFrequencyAdmissionEnabled() ? MemoryCache.TINY_LFU_WINDOW_RATIO : MemoryCache.LRU_WINDOW_RATIO);
+            EncodedMemoryCache encodedCache = new EncodedMemoryCache(config.getEncodedCacheSize());
+            TileCache<Bitmap> tileCache = new TileCache<>(config.getTileCacheSize(), imageResizer);
+            mPipeline = new ImagePipeline<>(memoryCache, encodedCache, tileCache, diskCache, new HttpImageFetcher(),
+                    new LocalFileDecoder(context, imageResizer), imageResizer, dispatcher, METRICS, config.getNetworkThreads(), config.getDecodeThreads());
+            mRegionDecoderFactory = new LocalRegionDecoderFactory(context, imageResizer);
+            mDefaultDecodeFlags = config.getBitmapConfigPolicy() == null
+                    ? DEFAULT_DECODE_FLAGS : decodeFlagsFor(config.getBitmapConfigPolicy());
+            context.registerComponentCallbacks(this);
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            final float ratio = retainRatioFor(level);
+            if(ratio >= 1f){
+                return;
             }
-        };
-        public static final Executor THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(
-                CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, KEEP_ALIVE, TimeUnit.SECONDS,
-                MY_BLOCKING_DEQUE, sThreadFactory
-        );
+            final long freed = mPipeline.trimMemory(ratio, TRIM_HOLD_MILLIS);
+            LogUtil.logI(TRIM_TAG, "level=" + level + " retain=" + ratio + " freedBytes=" + freed);
+        }
 
-        //变成可以通过uri来判定是否相等的runnable
-        private static class MyRunnable implements Runnable{
-            private String uri = null;
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
 
-            public MyRunnable(String uri){
-                this.uri = uri;
+        /**
+         * @return 内存缓存保留的比例,不需要收缩时返回1
+         */
+        private static float retainRatioFor(int level){
+            if(level >= TRIM_MEMORY_COMPLETE){
+                //进程马上就会被杀,全部释放
+                return 0f;
             }
+            if(level >= TRIM_MEMORY_MODERATE){
+                return 0.25f;
+            }
+            if(level >= TRIM_MEMORY_UI_HIDDEN){
+                //界面已经不可见,留一半给回到前台时用
+                return 0.5f;
+            }
+            if(level >= TRIM_MEMORY_RUNNING_CRITICAL){
+                //前台运行但系统已经在杀后台进程了
+                return 0f;
+            }
+            if(level >= TRIM_MEMORY_RUNNING_LOW){
+                return 0.5f;
+            }
+            if(level >= TRIM_MEMORY_RUNNING_MODERATE){
+                return 0.75f;
+            }
+            return 1f;
+        }
 
-            @Override
-            public void run() {
+        @Override
+        public void loadToView(String uri, int reqWidth, int reqHeight, ShowView showView) {
+            mPipeline.load(uri, reqWidth, reqHeight, decodeFlagsFor(showView), new ViewTarget(showView));
+        }
 
+        @Override
+        public void loadLocalToView(String uri, int reqWidth, int reqHeight, ShowView showView) {
+            mPipeline.loadLocal(uri, reqWidth, reqHeight, decodeFlagsFor(showView), new ViewTarget(showView));
+        }
+
+        @Override
+        public boolean prefetch(String uri, int reqWidth, int reqHeight, BitmapConfigPolicy policy) {
+            final int flags = policy == null ? mDefaultDecodeFlags : decodeFlagsFor(policy);
+            return mPipeline.prefetch(uri, reqWidth, reqHeight, flags);
+        }
+
+        @Override
+        public boolean isLoading(String uri, int reqWidth, int reqHeight, ShowView showView) {
+            return mPipeline.isLoading(uri, reqWidth, reqHeight, decodeFlagsFor(showView));
+        }
+
+        @Override
+        public String requestKey(String uri, int reqWidth, int reqHeight, ShowView showView) {
+            return MyRunnable.requestKey(uri, reqWidth, reqHeight, decodeFlagsFor(showView));
+        }
+
+        @Override
+        public TiledImage<Bitmap> openTiled(String uri, TiledImage.Listener listener) {
+            return mPipeline.openTiled(uri, mRegionDecoderFactory, mDefaultDecodeFlags, listener);
+        }
+
+        //showView为null时是默认的解码方式
+        private int decodeFlagsFor(ShowView showView){
+            if(!(showView instanceof BitmapConfigPolicy)){
+                return mDefaultDecodeFlags;
             }
+            return decodeFlagsFor((BitmapConfigPolicy) showView);
+        }
 
-            @Override
-            public boolean equals(Object obj) {
-                if(obj instanceof MyRunnable)
-                    return ((MyRunnable)obj).uri==uri;
-                else
-                    return false;
+        private static int decodeFlagsFor(BitmapConfigPolicy policy){
+            int flags = ImageDecoder.FLAG_EXACT_SIZE;
+            if(policy.allowRgb565()){
+                flags |= ImageDecoder.FLAG_ALLOW_LOW_DEPTH;
+            }
+            if(policy.allowHardwareBitmap()){
+                flags |= ImageDecoder.FLAG_ALLOW_HARDWARE;
             }
+            return flags;
         }
 
-        //变成了一个栈
-        private static class MyBlockingDeque extends LinkedBlockingDeque<Runnable>{
+        @Override
+        public ImageLoaderStats getStats() {
+            return mPipeline.getStats();
+        }
+
+        @Override
+        public void resetStats() {
+            mPipeline.resetStats();
+        }
+
+        /**
+         * 磁盘缓存的目录,在打开磁盘缓存的后台线程上计算,剩余空间不够时不使用磁盘缓存,
+         * 没有配置目录时使用应用的缓存目录
+         */
+        private static class CacheDirectories implements DiskCache.Directories{
+            private final Context mContext;
+            private final File mConfiguredDir;
+            private final long mMaxSize;
+
+            CacheDirectories(Context context, ImageLoaderConfig config){
+                mContext = context;
+                mConfiguredDir = config.getDiskCacheDir();
+                mMaxSize = config.getDiskCacheSize();
+            }
+
             @Override
-            public boolean offer(Runnable runnable) {
-                if(contains(runnable)){
-                    return true;
+            public File getCacheDir() {
+                File diskCacheDir = mConfiguredDir != null ? mConfiguredDir : getDiskCacheDir(mContext,"bitmap");
+                if(!diskCacheDir.exists()){
+                    diskCacheDir.mkdirs();
+                }
+                if(getUsableSpace(diskCacheDir) <= mMaxSize){
+                    return null;
                 }
-                return super.offerFirst(runnable);
+                return diskCacheDir;
             }
-        }
 
-        private class LoadResult{
-            public LoadResult(ShowView view, Bitmap bitmap, String tag) {
-                this.view = view;
-                this.bitmap = bitmap;
-                this.tag = tag;
-            }
-            public ShowView view;
-            public Bitmap bitmap;
-            public String tag;
-        }
-        private Handler mMainHandler = new Handler(Looper.getMainLooper()){
+            //和DiskLruCache的目录分开,版本变化时DiskLruCache会删掉整个目录
             @Override
-            public void handleMessage(Message msg) {
-                LoadResult loadResult = (LoadResult) msg.obj;
-                String uri = loadResult.tag;
-                if(uri.equals(loadResult.view.getViewTag(R.id.image_loader_uri))){
-                    loadResult.view.bindView(loadResult.bitmap);
+            public File getStagingDir() {
+                if(mConfiguredDir != null){
+                    return new File(mConfiguredDir.getParentFile(), mConfiguredDir.getName() + "_partial");
                 }
-                IImageCache.CacheElement cacheElement = new IImageCache.CacheElement();
-                cacheElement.setBitmap(loadResult.bitmap);
-                mMemoryCache.put(uri,cacheElement);
+                return getDiskCacheDir(mContext,"bitmap_partial");
             }
-        };
+        }
 
-        public DoubleCacheStrategy(Context context){
-            mContext = context;
-            mDiskCache = new DiskCache(mContext);
-            mMemoryCache = new MemoryCache();
+        private static File getDiskCacheDir(Context context, String fileName){
+            boolean externalStorageAvailable = Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED);
+            final String cachePath;
+
+            if(externalStorageAvailable){
+                cachePath = context.getExternalCacheDir().getPath();
+            }else{
+                cachePath = context.getCacheDir().getPath();
+            }
+            return new File(cachePath + File.separator+fileName);
         }
-        @Override
-        public void loadToView(final String uri, final int reqWidth, final int reqHeight, final ShowView showView) {
-            Bitmap bitmap = mMemoryCache.get(uri,reqWidth,reqHeight);
-            if(bitmap!=null) {
-                if(uri.equals(showView.getViewTag(R.id.image_loader_uri))){
-                    showView.bindView(bitmap);
-                }
-                return;
+
+        private static long getUsableSpace(File path){
+            if(Build.VERSION.SDK_INT>= Build.VERSION_CODES.GINGERBREAD){
+                return path.getUsableSpace();
             }
-            Runnable loadBitmapTask = new MyRunnable(uri) {
-                @Override
-                public void run() {
-                    Bitmap bitmap = null;
-                    LogUtil.logE("COMPARE_URI_",uri);
-                    try {
-                        bitmap = mDiskCache.get(uri, reqWidth, reqHeight);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    if(bitmap != null) {
-                        LoadResult result = new LoadResult(showView, bitmap,uri);
-                        mMainHandler.obtainMessage(MESSAGE_POST_RESULT, result).sendToTarget();
-                        return;
-                    }
-                    HttpURLConnection httpURLConnection = null;
-                    InputStream is = null;
-                    LoadResult result = null;
-                    BufferedInputStream in = null;
-                    try {
-                        final URL url = new URL(uri);
-                        httpURLConnection = (HttpURLConnection)url.openConnection();
-                        is = httpURLConnection.getInputStream();
-                        in = new BufferedInputStream(is, IO_BUFFER_SIZE);
-                        IImageCache.CacheElement cacheElement = new IImageCache.CacheElement();
-                        cacheElement.setInputStream(in);
-                        mDiskCache.put(uri, cacheElement);
-                        bitmap = mDiskCache.get(uri, reqWidth, reqHeight);
-                        cacheElement.setBitmap(bitmap);
-                        result = new LoadResult(showView, bitmap, uri);
-                        mMainHandler.obtainMessage(MESSAGE_POST_RESULT, result).sendToTarget();
-                    } catch (MalformedURLException e) {
-                        e.printStackTrace();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        if(httpURLConnection != null)
-                            httpURLConnection.disconnect();
-                        IOUtil.close(in);
-                    }
-                }
-            };
-            THREAD_POOL_EXECUTOR.execute(loadBitmapTask);
-            LogUtil.logE("SOURCE_URI_",uri);
+            final StatFs stats = new StatFs(path.getPath());
+            return (long) stats.getBlockSize() *(long) stats.getAvailableBlocks();
         }
     }
     private static Context sContext;
     private static ILoadStrategy sStrategy;
+    private static ImageLoaderConfig sConfig;
     private NativeImageLoader(){}
 
     /**
-     * 单例模式
+     * 用给定的配置初始化,整个进程只能初始化一次,一般在Application.onCreate中调用,
+     * 缓存和线程池跟着进程走,切换Activity时保持不变
+     * @throws IllegalStateException 已经初始化过
+     */
+    public static void init(@NonNull Context context, @NonNull ImageLoaderConfig config){
+        synchronized (NativeImageLoader.class){
+            if(sStrategy != null){
+                throw new IllegalStateException("ImageLoader already initialized with " + sConfig);
+            }
+            createStrategy(context, config);
+        }
+    }
+
+    //调用者持有NativeImageLoader.class的锁
+    private static void createStrategy(Context context, ImageLoaderConfig config){
+        //只保存Application,不持有Activity
+        sContext = context.getApplicationContext();
+        sConfig = config;
+        sStrategy = new DoubleCacheStrategy(sContext, config);
+    }
+
+    /**
+     * 单例模式,还没有初始化时按默认配置初始化
      * @return 返回一个ImageLoader单例
      */
     public static NativeImageLoader getImageLoader(@NonNull Context context){
-        sContext = context;
-        sStrategy = new DoubleCacheStrategy(sContext);
+        synchronized (NativeImageLoader.class){
+            //缓存和线程池跟着策略走,只创建一次,否则内存缓存会丢失,同一个目录也会被打开两次
+            if(sStrategy == null){
+                createStrategy(context, new ImageLoaderConfig.Builder(context).build());
+            }
+        }
         return SingletonHolder.imageLoader;
     }
 
+    /**
+     * @return 正在使用的配置
+     */
+    public ImageLoaderConfig getConfig() {
+        return sConfig;
+    }
+
     /**
      * 用于形成线程安全的单例模式的静态内部类
      */
@@ -501,8 +1062,57 @@ public class NativeImageLoader implements IImageLoader {
         sStrategy.loadToView(uri,reqWidth,reqHeight,showView);
     }
 
+    @Override
+    public boolean prefetchImageFromWeb(String uri, int reqWidth, int reqHeight) {
+        return sStrategy.prefetch(uri, reqWidth, reqHeight, null);
+    }
+
+    @Override
+    public boolean prefetchImageFromWeb(String uri, int reqWidth, int reqHeight, BitmapConfigPolicy policy) {
+        return sStrategy.prefetch(uri, reqWidth, reqHeight, policy);
+    }
+
+    @Override
+    public boolean isLoading(String uri, int reqWidth, int reqHeight) {
+        return sStrategy.isLoading(uri, reqWidth, reqHeight, null);
+    }
+
+    @Override
+    public boolean isLoading(String uri, int reqWidth, int reqHeight, ShowView showView) {
+        return sStrategy.isLoading(uri, reqWidth, reqHeight, showView);
+    }
+
+    @Override
+    public String requestKey(String uri, int reqWidth, int reqHeight, ShowView showView) {
+        return sStrategy.requestKey(uri, reqWidth, reqHeight, showView);
+    }
+
+    /**
+     * @return 各级缓存的命中数、各阶段的耗时分布和线程池状态
+     */
+    public ImageLoaderStats getStats() {
+        return sStrategy.getStats();
+    }
+
+    /**
+     * 统计数据清零,线程池当前的队列长度和活跃线程数不受影响
+     */
+    public void resetStats() {
+        sStrategy.resetStats();
+    }
+
     @Override
     public void asyncLoadImageFromDisk(String uri, int reqWidth, int reqHeight, ShowView showView) {
+        sStrategy.loadLocalToView(uri, reqWidth, reqHeight, showView);
+    }
 
+    /**
+     * 分块显示一张本机大图,只解码看得见的块,见{@link TiledImageView}
+     * @param uri 文件路径、file://或者content://地址
+     * @param listener 图片打开或者有新的块解码好时在主线程回调
+     * @return 不再显示时要调用{@link TiledImage#close()}
+     */
+    public TiledImage<Bitmap> openTiledImage(String uri, TiledImage.Listener listener) {
+        return sStrategy.openTiled(uri, listener);
     }
 }
@@ -0,0 +1,66 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.Iterator;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * 有上限的优先级队列,可见的view优先,
+ * 满了以后先清掉已经过期的任务,再不够就丢掉可以丢掉的任务中优先级最低、最早提交的,
+ * 剩下的都有view在等时超出上限也放进去,在等的view不会比屏幕上的多
+ */
+
+class PriorityTaskQueue extends PriorityBlockingQueue<Runnable>{
+    private final int mMaxSize;
+    private int mDroppedCount = 0;
+
+    public PriorityTaskQueue(int maxSize){
+        mMaxSize = maxSize;
+    }
+
+    @Override
+    public synchronized boolean offer(Runnable runnable) {
+        if(size() >= mMaxSize){
+            removeStaleTasks();
+        }
+        if(size() >= mMaxSize){
+            MyRunnable newTask = (MyRunnable) runnable;
+            MyRunnable worst = newTask.isDroppable() ? newTask : null;
+            for(Runnable r : this){
+                MyRunnable task = (MyRunnable) r;
+                if(task.isDroppable() && (worst == null || task.compareTo(worst) > 0)){
+                    worst = task;
+                }
+            }
+            if(worst == newTask){
+                //新任务比队列中所有能丢掉的任务都次要,直接丢掉
+                mDroppedCount++;
+                newTask.cancel();
+                return true;
+            }
+            if(worst != null && remove(worst)){
+                mDroppedCount++;
+                worst.cancel();
+            }
+        }
+        return super.offer(runnable);
+    }
+
+    private void removeStaleTasks(){
+        Iterator<Runnable> iterator = iterator();
+        while(iterator.hasNext()){
+            MyRunnable task = (MyRunnable) iterator.next();
+            if(task.isStale() && remove(task)){
+                mDroppedCount++;
+                task.cancel();
+            }
+        }
+    }
+
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized void resetDroppedCount() {
+        mDroppedCount = 0;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.io.IOException;
+
+/**
+ * 按区域解码一张大图的服务接口,Android上基于BitmapRegionDecoder,
+ * 一个实例同一时间只会被一个线程使用,需要并行解码时打开多个实例
+ * @param <T> 解码出来的图片类型
+ */
+
+public interface RegionDecoder<T> {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * 解码原图中的一块矩形区域,坐标是原图的像素坐标
+     * @param sampleSize 采样率,2的幂,解码出来的宽高是区域宽高除以它
+     * @param flags 请求方允许的解码方式,见{@link ImageDecoder#FLAG_ALLOW_LOW_DEPTH}
+     * @return 解码失败返回null
+     */
+    T decodeRegion(int left, int top, int right, int bottom, int sampleSize, int flags);
+
+    /**
+     * 释放解码器占用的文件和内存,之后不会再被调用
+     */
+    void close();
+
+    interface Factory<T> {
+        /**
+         * 打开一张图片,在解码线程调用
+         * @param uri 文件路径或者content://地址
+         */
+        RegionDecoder<T> open(String uri) throws IOException;
+    }
+}
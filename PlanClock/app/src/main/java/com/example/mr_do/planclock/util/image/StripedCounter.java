@@ -0,0 +1,57 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器,不同线程落在不同的段上,减少多个线程同时累加时的CAS冲突,
+ * 读取时把所有段加起来,适合写多读少的统计数据
+ */
+
+final class StripedCounter {
+    //每段之间隔开一个缓存行(64字节),避免伪共享
+    private static final int PADDING = 8;
+    private static final int STRIPES = stripeCount(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * PADDING);
+
+    //大于等于2倍核数的2的幂,最多64段
+    private static int stripeCount(int cpuCount) {
+        int stripes = 1;
+        while(stripes < cpuCount * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32));
+        hash ^= (hash >>> 16);
+        return (hash & (STRIPES - 1)) * PADDING;
+    }
+
+    void add(long delta) {
+        mCells.addAndGet(index(), delta);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for(int i = 0; i < STRIPES; i++) {
+            sum += mCells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * 和并发的add之间不是原子的,重置期间累加的值可能丢失,统计数据可以接受
+     */
+    void reset() {
+        for(int i = 0; i < STRIPES; i++) {
+            mCells.set(i * PADDING, 0);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 大图分块解码出来的块的缓存,按最近使用的顺序淘汰,
+ * 和内存缓存分开,来回拖动一张大图时不会把列表里的缩略图挤掉,
+ * 被淘汰的块可能还在画在view上,只去掉引用,不交给解码器回收复用
+ * @param <T> 解码出来的图片类型
+ */
+
+class TileCache<T> {
+    //按访问顺序排列,最早访问的在最前面
+    private final LinkedHashMap<String, T> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private final ImageDecoder<T> mDecoder;
+    //正常情况下的预算
+    private final long mBaseMaxSize;
+    //当前的预算,内存不足时比mBaseMaxSize小
+    private long mMaxSize;
+    //当前的预算在这个时间之后恢复,System.nanoTime的时间
+    private long mRestoreAtNanos;
+    private long mSize = 0;
+
+    /**
+     * @param maxSize 最多占用的字节数,为0时不缓存,每一块解码出来只画一次
+     */
+    public TileCache(long maxSize, ImageDecoder<T> decoder) {
+        mBaseMaxSize = maxSize;
+        mMaxSize = maxSize;
+        mDecoder = decoder;
+    }
+
+    /**
+     * @param key 见{@link TiledImage.Tile#key}
+     * @return 没有缓存时返回null
+     */
+    public synchronized T get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * 放入缓存,已经有的话保留旧的
+     * @return 缓存中的块,比整个预算还大时不缓存,返回null
+     */
+    public synchronized T put(String key, T tile) {
+        restoreBudgetIfExpired();
+        if(mDecoder.getByteCount(tile) > mMaxSize){
+            return null;
+        }
+        T existing = mEntries.get(key);
+        if(existing != null){
+            return existing;
+        }
+        mEntries.put(key, tile);
+        mSize += mDecoder.getByteCount(tile);
+        trimToSize(mMaxSize);
+        return tile;
+    }
+
+    /**
+     * 系统内存不足时收缩,淘汰到预算的ratio为止,
+     * 之后的预算在holdMillis内保持收缩,期间没有再次收缩就恢复
+     * @param ratio 保留的比例,0表示清空
+     * @return 淘汰掉的字节数
+     */
+    public synchronized long trim(float ratio, long holdMillis) {
+        restoreBudgetIfExpired();
+        final long before = mSize;
+        mMaxSize = Math.min(mMaxSize, (long) (mBaseMaxSize * ratio));
+        trimToSize(mMaxSize);
+        mRestoreAtNanos = System.nanoTime() + holdMillis * 1000000L;
+        return before - mSize;
+    }
+
+    //收缩的时间过了就恢复原来的预算
+    private void restoreBudgetIfExpired() {
+        if(mMaxSize < mBaseMaxSize && System.nanoTime() - mRestoreAtNanos >= 0){
+            mMaxSize = mBaseMaxSize;
+        }
+    }
+
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, T>> iterator = mEntries.entrySet().iterator();
+        while(mSize > maxSize && iterator.hasNext()){
+            T eldest = iterator.next().getValue();
+            iterator.remove();
+            mSize -= mDecoder.getByteCount(eldest);
+        }
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public synchronized int count() {
+        return mEntries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TileCache[size=" + mSize + "/" + mMaxSize + ",count=" + mEntries.size() + "]";
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分块显示的大图,只解码当前看得见的块,采样率跟着缩放比例走,
+ * 缩小时一块覆盖原图更大的范围,解码出来的每一块都是差不多的大小,
+ * 块在解码线程池中并行解码,解码好的放进块缓存,再通知主线程重绘,
+ * 通过{@link ImagePipeline#openTiled}创建,除了构造以外的方法都在主线程调用
+ * @param <T> 解码出来的图片类型
+ */
+
+public final class TiledImage<T> {
+    //解码出来的每一块的边长,和采样率无关
+    static final int TILE_SIZE = 512;
+    private static final AtomicInteger sNextId = new AtomicInteger(0);
+
+    /**
+     * 在主线程回调
+     */
+    public interface Listener {
+        /**
+         * 图片打开或者有新的块解码好
+         */
+        void onTilesChanged();
+
+        /**
+         * 图片不存在或者格式不支持分块解码,之后不会再有回调
+         */
+        void onOpenFailed();
+    }
+
+    /**
+     * 原图中的一块,坐标是原图的像素坐标,右下角不包含
+     */
+    public static final class Tile {
+        public final int sampleSize;
+        public final int left;
+        public final int top;
+        public final int right;
+        public final int bottom;
+        //块缓存的key,同一张图片同一采样率同一位置的块共用
+        final String key;
+
+        Tile(String uri, int sampleSize, int left, int top, int right, int bottom) {
+            this.sampleSize = sampleSize;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.key = uri + "@" + sampleSize + ":" + left + "," + top;
+        }
+    }
+
+    private final String mUri;
+    private final RegionDecoder.Factory<T> mFactory;
+    private final TileCache<T> mCache;
+    private final LoadStage mDecodeStage;
+    private final MainThreadDispatcher mDispatcher;
+    private final int mFlags;
+    private final Listener mListener;
+    //同一张图片可能同时打开多次,任务的key要带上是哪一次打开的,否则解码队列会当成重复的任务丢掉
+    private final int mId = sNextId.incrementAndGet();
+    //空闲的解码器,BitmapRegionDecoder内部是串行的,每个同时解码的线程各用一个
+    private final ArrayDeque<RegionDecoder<T>> mIdleDecoders = new ArrayDeque<>();
+    //已经提交还没解码完的块,只在持有mPendingKeys锁的时候访问
+    private final Set<String> mPendingKeys = new HashSet<>();
+    //当前看得见的块,解码线程据此丢掉已经滑出去的块
+    private volatile Set<String> mVisibleKeys = Collections.emptySet();
+    private volatile boolean mClosed = false;
+    //打开之前为0
+    private volatile int mWidth = 0;
+    private volatile int mHeight = 0;
+    //以下字段只在主线程访问
+    private List<Tile> mVisibleTiles = Collections.emptyList();
+    private boolean mHasViewport = false;
+    private float mScale;
+    private int mViewportLeft;
+    private int mViewportTop;
+    private int mViewportRight;
+    private int mViewportBottom;
+
+    TiledImage(String uri, RegionDecoder.Factory<T> factory, TileCache<T> cache, LoadStage decodeStage,
+               MainThreadDispatcher dispatcher, int flags, Listener listener) {
+        mUri = uri;
+        mFactory = factory;
+        mCache = cache;
+        mDecodeStage = decodeStage;
+        mDispatcher = dispatcher;
+        mFlags = flags;
+        mListener = listener;
+    }
+
+    /**
+     * 在解码线程打开图片,打开以后才知道宽高
+     */
+    void open() {
+        mDecodeStage.execute(new OpenTask());
+    }
+
+    /**
+     * @return 图片原始宽度,还没打开或者打开失败时返回0
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public String getUri() {
+        return mUri;
+    }
+
+    /**
+     * 设置当前看得见的范围,开始解码还没有缓存的块,滑出去的块还在队列中的会被丢掉
+     * @param scale 显示的像素和原图像素的比例,小于1时按2的幂采样
+     * @param left 看得见的范围,原图的像素坐标
+     */
+    public void setViewport(float scale, int left, int top, int right, int bottom) {
+        mHasViewport = true;
+        mScale = scale;
+        mViewportLeft = left;
+        mViewportTop = top;
+        mViewportRight = right;
+        mViewportBottom = bottom;
+        requestVisibleTiles();
+    }
+
+    private void requestVisibleTiles() {
+        if(mClosed || mWidth == 0 || !mHasViewport){
+            return;
+        }
+        final List<Tile> tiles = computeTiles(mUri, mWidth, mHeight, sampleSizeForScale(mScale),
+                mViewportLeft, mViewportTop, mViewportRight, mViewportBottom);
+        final Set<String> keys = new HashSet<>();
+        for(Tile tile : tiles){
+            keys.add(tile.key);
+        }
+        mVisibleTiles = tiles;
+        mVisibleKeys = keys;
+        for(Tile tile : tiles){
+            if(mCache.get(tile.key) != null || !markPending(tile.key)){
+                continue;
+            }
+            //解码线程先放进缓存再清除标记,标记成功后再查一次,刚解码好的块不会重复提交
+            if(mCache.get(tile.key) != null){
+                clearPending(tile.key);
+                continue;
+            }
+            mDecodeStage.execute(new TileTask(tile));
+        }
+    }
+
+    /**
+     * @return 当前看得见的块,绘制时用{@link #getTileImage}取出解码好的图片
+     */
+    public List<Tile> getVisibleTiles() {
+        return mVisibleTiles;
+    }
+
+    /**
+     * @return 还没解码好时返回null
+     */
+    public T getTileImage(Tile tile) {
+        return mCache.get(tile.key);
+    }
+
+    /**
+     * 不再显示,还在队列中的块会被丢掉,解码器在正在解码的块完成后关闭,
+     * 已经解码好的块留在块缓存里,再次打开同一张图片时可以直接用
+     */
+    public void close() {
+        mClosed = true;
+        mVisibleKeys = Collections.emptySet();
+        mVisibleTiles = Collections.emptyList();
+        synchronized (mIdleDecoders){
+            while(!mIdleDecoders.isEmpty()){
+                mIdleDecoders.poll().close();
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @param scale 显示的像素和原图像素的比例
+     * @return 不超过1/scale的最大的2的幂,放大显示时为1
+     */
+    static int sampleSizeForScale(float scale) {
+        int sampleSize = 1;
+        if(scale <= 0){
+            return sampleSize;
+        }
+        while(sampleSize * 2 * scale <= 1f){
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 把原图按采样后的块大小切成网格,返回和可见范围相交的块,最右和最下的块裁到原图边界
+     */
+    static List<Tile> computeTiles(String uri, int width, int height, int sampleSize,
+                                   int left, int top, int right, int bottom) {
+        final int sourceTileSize = TILE_SIZE * sampleSize;
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        right = Math.min(width, right);
+        bottom = Math.min(height, bottom);
+        final List<Tile> tiles = new ArrayList<>();
+        if(left >= right || top >= bottom){
+            return tiles;
+        }
+        for(int y = top / sourceTileSize * sourceTileSize; y < bottom; y += sourceTileSize){
+            for(int x = left / sourceTileSize * sourceTileSize; x < right; x += sourceTileSize){
+                tiles.add(new Tile(uri, sampleSize, x, y,
+                        Math.min(width, x + sourceTileSize), Math.min(height, y + sourceTileSize)));
+            }
+        }
+        return tiles;
+    }
+
+    //同一块只提交一次,解码完成或者被丢掉时清除
+    private boolean markPending(String key) {
+        synchronized (mPendingKeys){
+            return mPendingKeys.add(key);
+        }
+    }
+
+    private void clearPending(String key) {
+        synchronized (mPendingKeys){
+            mPendingKeys.remove(key);
+        }
+    }
+
+    /**
+     * @return 空闲的解码器,没有空闲的就再打开一个
+     */
+    private RegionDecoder<T> acquireDecoder() throws IOException {
+        synchronized (mIdleDecoders){
+            RegionDecoder<T> decoder = mIdleDecoders.poll();
+            if(decoder != null){
+                return decoder;
+            }
+        }
+        return mFactory.open(mUri);
+    }
+
+    //已经关闭时直接释放,不再放回去
+    private void releaseDecoder(RegionDecoder<T> decoder) {
+        synchronized (mIdleDecoders){
+            if(!mClosed){
+                mIdleDecoders.push(decoder);
+                return;
+            }
+        }
+        decoder.close();
+    }
+
+    /**
+     * 在下一帧通知重绘,顺便补交还没解码的块,
+     * 可见的块太多时解码队列会丢掉一部分,不补交的话要等下次移动才会再解码
+     */
+    private void notifyListener() {
+        mDispatcher.postFrame(new Runnable() {
+            @Override
+            public void run() {
+                if(!mClosed){
+                    requestVisibleTiles();
+                    mListener.onTilesChanged();
+                }
+            }
+        });
+    }
+
+    //和加载失败一样通知等待的view,已经关闭时不用通知
+    private void notifyOpenFailed() {
+        mDispatcher.postFrame(new Runnable() {
+            @Override
+            public void run() {
+                if(!mClosed){
+                    mListener.onOpenFailed();
+                }
+            }
+        });
+    }
+
+    /**
+     * 打开图片读取宽高,打开的解码器留给第一个块用
+     */
+    private class OpenTask extends MyRunnable {
+        OpenTask() {
+            super(mId + ":" + mUri, 0, 0, ImagePipeline.PRIORITY_VISIBLE);
+        }
+
+        @Override
+        public boolean isStale() {
+            return mClosed;
+        }
+
+        //view在等宽高,不能丢掉
+        @Override
+        public boolean isDroppable() {
+            return false;
+        }
+
+        //被丢掉时不会再有回调,和打开失败一样通知view退回到整张的缩略图
+        @Override
+        public void cancel() {
+            if(!mClosed){
+                notifyOpenFailed();
+            }
+        }
+
+        @Override
+        public void run() {
+            if(mClosed){
+                return;
+            }
+            final RegionDecoder<T> decoder;
+            try {
+                decoder = mFactory.open(mUri);
+            } catch (IOException e) {
+                e.printStackTrace();
+                notifyOpenFailed();
+                return;
+            }
+            mWidth = decoder.getWidth();
+            mHeight = decoder.getHeight();
+            releaseDecoder(decoder);
+            //打开之前设置的可见范围现在才能切块
+            notifyListener();
+        }
+    }
+
+    /**
+     * 解码一块,执行时已经不可见就丢掉
+     */
+    private class TileTask extends MyRunnable {
+        private final Tile tile;
+
+        TileTask(Tile tile) {
+            super(mId + ":" + tile.key, 0, 0, ImagePipeline.PRIORITY_VISIBLE);
+            this.tile = tile;
+        }
+
+        @Override
+        public boolean isStale() {
+            return mClosed || !mVisibleKeys.contains(tile.key);
+        }
+
+        //丢掉的块在别的块解码好时重新提交
+        @Override
+        public boolean isDroppable() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            clearPending(tile.key);
+        }
+
+        @Override
+        public void run() {
+            if(isStale()){
+                cancel();
+                return;
+            }
+            T image = null;
+            try {
+                RegionDecoder<T> decoder = acquireDecoder();
+                try {
+                    image = decoder.decodeRegion(tile.left, tile.top, tile.right, tile.bottom, tile.sampleSize, mFlags);
+                } finally {
+                    releaseDecoder(decoder);
+                }
+                if(image != null){
+                    mCache.put(tile.key, image);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                //范围越界或者内存不足时也要清除,否则这一块再也不会提交
+                clearPending(tile.key);
+            }
+            if(image != null){
+                notifyListener();
+            }
+        }
+    }
+}
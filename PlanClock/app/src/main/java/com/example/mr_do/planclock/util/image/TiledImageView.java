@@ -0,0 +1,248 @@
+package com.example.mr_do.planclock.util.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.example.mr_do.planclock.R;
+
+/**
+ * 分块显示本机大图的view,先通过普通的加载流程显示一张缩小到view大小的底图,
+ * 再按当前的缩放比例和位置解码看得见的块盖在上面,放大后只解码屏幕内的部分,
+ * 缩放和拖动的手势由外部处理,通过{@link #setScaleAndCenter}告诉这个view
+ */
+
+public class TiledImageView extends View implements IImageLoader.ShowView, TiledImage.Listener {
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mDst = new RectF();
+    private String mUri;
+    private TiledImage<Bitmap> mTiledImage;
+    //缩小到view大小的整张图片,块还没解码好的地方先画它
+    private Bitmap mBase;
+    //显示的像素和原图像素的比例,0表示还没确定,图片打开后按完整显示计算
+    private float mScale = 0;
+    //view中心对着的原图坐标
+    private float mCenterX;
+    private float mCenterY;
+
+    public TiledImageView(Context context) {
+        super(context);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * 显示一张本机图片,缩放比例回到完整显示
+     * @param uri 文件路径、file://或者content://地址
+     */
+    public void setImageUri(String uri) {
+        releaseImage();
+        mUri = uri;
+        mBase = null;
+        mScale = 0;
+        setViewTag(R.id.image_loader_uri, uri);
+        if(uri != null){
+            mTiledImage = NativeImageLoader.getImageLoader(getContext()).openTiledImage(uri, this);
+            loadBase();
+        }
+        invalidate();
+    }
+
+    //view有了大小才知道底图要多大
+    private void loadBase() {
+        if(mUri != null && mBase == null && getWidth() > 0 && getHeight() > 0){
+            NativeImageLoader.getImageLoader(getContext()).asyncLoadImageFromDisk(mUri, getWidth(), getHeight(), this);
+        }
+    }
+
+    private void releaseImage() {
+        if(mTiledImage != null){
+            mTiledImage.close();
+            mTiledImage = null;
+        }
+    }
+
+    /**
+     * @param scale 显示的像素和原图像素的比例,不会小于完整显示时的比例
+     * @param centerX view中心对着的原图坐标
+     */
+    public void setScaleAndCenter(float scale, float centerX, float centerY) {
+        if(mTiledImage == null || mTiledImage.getWidth() == 0){
+            return;
+        }
+        mScale = Math.max(scale, getMinScale());
+        mCenterX = centerX;
+        mCenterY = centerY;
+        updateViewport();
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+
+    /**
+     * @return 完整显示整张图片时的比例,图片还没打开时返回0
+     */
+    public float getMinScale() {
+        if(mTiledImage == null || mTiledImage.getWidth() == 0 || getWidth() == 0){
+            return 0;
+        }
+        return Math.min((float) getWidth() / mTiledImage.getWidth(), (float) getHeight() / mTiledImage.getHeight());
+    }
+
+    public float getCenterX() {
+        return mCenterX;
+    }
+
+    public float getCenterY() {
+        return mCenterY;
+    }
+
+    //把中心限制在图片范围内,图片比view小的方向居中
+    private void updateViewport() {
+        if(mTiledImage == null || mTiledImage.getWidth() == 0 || getWidth() == 0 || mScale == 0){
+            return;
+        }
+        mCenterX = clampCenter(mCenterX, mTiledImage.getWidth(), getWidth() / mScale);
+        mCenterY = clampCenter(mCenterY, mTiledImage.getHeight(), getHeight() / mScale);
+        final float left = getOriginX();
+        final float top = getOriginY();
+        mTiledImage.setViewport(mScale, (int) Math.floor(left), (int) Math.floor(top),
+                (int) Math.ceil(left + getWidth() / mScale), (int) Math.ceil(top + getHeight() / mScale));
+        invalidate();
+    }
+
+    private static float clampCenter(float center, int imageSize, float visibleSize) {
+        if(visibleSize >= imageSize){
+            return imageSize / 2f;
+        }
+        return Math.max(visibleSize / 2f, Math.min(imageSize - visibleSize / 2f, center));
+    }
+
+    //view左上角对着的原图坐标
+    private float getOriginX() {
+        return mCenterX - getWidth() / (2 * mScale);
+    }
+
+    private float getOriginY() {
+        return mCenterY - getHeight() / (2 * mScale);
+    }
+
+    @Override
+    public void onTilesChanged() {
+        if(mTiledImage == null){
+            return;
+        }
+        if(mScale == 0){
+            //图片刚打开,按完整显示
+            mScale = getMinScale();
+            mCenterX = mTiledImage.getWidth() / 2f;
+            mCenterY = mTiledImage.getHeight() / 2f;
+        }
+        if(mTiledImage.getVisibleTiles().isEmpty()){
+            //刚打开还没设置过可见范围
+            updateViewport();
+        }
+        invalidate();
+    }
+
+    //不能分块解码时只显示底图
+    @Override
+    public void onOpenFailed() {
+        releaseImage();
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        loadBase();
+        if(mScale != 0){
+            mScale = Math.max(mScale, getMinScale());
+            updateViewport();
+        }else{
+            onTilesChanged();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if(mTiledImage == null && mBase != null){
+            drawBaseOnly(canvas);
+            return;
+        }
+        if(mTiledImage == null || mTiledImage.getWidth() == 0 || mScale == 0){
+            return;
+        }
+        if(mBase != null){
+            drawRegion(canvas, mBase, 0, 0, mTiledImage.getWidth(), mTiledImage.getHeight());
+        }
+        for(TiledImage.Tile tile : mTiledImage.getVisibleTiles()){
+            Bitmap bitmap = mTiledImage.getTileImage(tile);
+            if(bitmap != null){
+                drawRegion(canvas, bitmap, tile.left, tile.top, tile.right, tile.bottom);
+            }
+        }
+    }
+
+    //不知道原图的大小,底图按完整显示居中
+    private void drawBaseOnly(Canvas canvas) {
+        final float scale = Math.min((float) getWidth() / mBase.getWidth(), (float) getHeight() / mBase.getHeight());
+        final float width = mBase.getWidth() * scale;
+        final float height = mBase.getHeight() * scale;
+        mDst.set((getWidth() - width) / 2, (getHeight() - height) / 2,
+                (getWidth() + width) / 2, (getHeight() + height) / 2);
+        canvas.drawBitmap(mBase, null, mDst, mPaint);
+    }
+
+    //把覆盖原图这块区域的图片画到view上对应的位置
+    private void drawRegion(Canvas canvas, Bitmap bitmap, int left, int top, int right, int bottom) {
+        final float originX = getOriginX();
+        final float originY = getOriginY();
+        mDst.set((left - originX) * mScale, (top - originY) * mScale,
+                (right - originX) * mScale, (bottom - originY) * mScale);
+        canvas.drawBitmap(bitmap, null, mDst, mPaint);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if(mUri != null && mTiledImage == null){
+            //保持原来的缩放比例和位置,解码好的块还在块缓存里,重新打开后直接能画
+            mTiledImage = NativeImageLoader.getImageLoader(getContext()).openTiledImage(mUri, this);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseImage();
+    }
+
+    @Override
+    public String getViewTag(int key) {
+        return (String) getTag(key);
+    }
+
+    @Override
+    public void setViewTag(int key, String value) {
+        setTag(key, value);
+    }
+
+    @Override
+    public void bindView(Bitmap bitmap) {
+        mBase = bitmap;
+        invalidate();
+    }
+}
@@ -0,0 +1,431 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 磁盘缓存推迟到工作线程打开,journal在后台攒批flush,进程在一批中间被杀也不丢已经提交的图片,
+ * 按key分片到几个子目录
+ */
+public class DiskCacheTest {
+    private static final int ENTRY_COUNT = 3000;
+    //提交的图片数不是整批,最后几张还没有flush
+    private static final int COMMITTED_COUNT = DiskCache.FLUSH_BATCH_SIZE * 2 + 3;
+    private static final int IMAGE_BYTES = 5000;
+
+    private File mDir;
+    private final ExecutorService mWorker = Executors.newSingleThreadExecutor();
+
+    private static class NoopDecoder implements ImageDecoder<Object> {
+        @Override
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            return false;
+        }
+
+        @Override
+        public Object decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public Object decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public Object scale(Object source, int reqWidth, int reqHeight, int flags) {
+            return source;
+        }
+
+        @Override
+        public int getWidth(Object image) {
+            return 0;
+        }
+
+        @Override
+        public int getHeight(Object image) {
+            return 0;
+        }
+
+        @Override
+        public int getByteCount(Object image) {
+            return 0;
+        }
+
+        @Override
+        public int getRequiredFlags(Object image) {
+            return 0;
+        }
+
+        @Override
+        public void recycle(Object image) {
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return 0;
+        }
+    }
+
+    private static final MainThreadDispatcher NOT_MAIN = new MainThreadDispatcher() {
+        @Override
+        public boolean isMainThread() {
+            return false;
+        }
+
+        @Override
+        public void postFrame(Runnable task) {
+            task.run();
+        }
+    };
+
+    /**
+     * 打开前可以被挡住的目录,记录被调用的次数
+     */
+    private class GatedDirectories implements DiskCache.Directories {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public File getCacheDir() {
+            calls.incrementAndGet();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new File(mDir, "bitmap");
+        }
+
+        @Override
+        public File getStagingDir() {
+            return new File(mDir, "bitmap_partial");
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("disk", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        mWorker.shutdownNow();
+        deleteRecursively(mDir);
+    }
+
+    @Test
+    public void constructionDoesNoIo() {
+        GatedDirectories directories = new GatedDirectories();
+        DiskCache<Object> cache = new DiskCache<>(directories, new NoopDecoder(), NOT_MAIN);
+        assertEquals(0, directories.calls.get());
+        assertFalse(cache.isOpened());
+        assertEquals(-1, cache.getOpenMillis());
+        assertFalse(new File(mDir, "bitmap").exists());
+    }
+
+    @Test
+    public void accessBeforeOpenWaitsForBackgroundOpen() throws Exception {
+        final GatedDirectories directories = new GatedDirectories();
+        final DiskCache<Object> cache = new DiskCache<>(directories, new NoopDecoder(), NOT_MAIN);
+        cache.openInBackground();
+        Future<Boolean> write = mWorker.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return cache.putAndReadBounds("http://a/1.jpg", new ByteArrayInputStream(new byte[100]),
+                        CacheMetadata.fromHeaders(null, null, 0, "max-age=60", 0, System.currentTimeMillis()),
+                        new int[2]);
+            }
+        });
+        Thread.sleep(50);
+        //后台线程还没打开完,写入在磁盘线程上等待
+        assertFalse(write.isDone());
+        directories.gate.countDown();
+        assertTrue(write.get(5, TimeUnit.SECONDS));
+        assertTrue(cache.isOpened());
+        assertEquals(1, directories.calls.get());
+        DiskLruCache.Snapshot snapshot = cache.openSnapshot("http://a/1.jpg");
+        assertNotNull(snapshot);
+        snapshot.close();
+    }
+
+    @Test
+    public void nullDirectoryDisablesDiskCache() throws Exception {
+        DiskCache<Object> cache = new DiskCache<>(null, null, new NoopDecoder(), NOT_MAIN);
+        assertNull(cache.openSnapshot("http://a/1.jpg"));
+        assertNull(cache.acquirePartial("http://a/1.jpg"));
+        assertTrue(cache.isOpened());
+    }
+
+    /**
+     * 对比在构造时打开(原来的做法)和推迟打开时,构造方法在调用线程上的耗时
+     */
+    @Test
+    public void openCostMovedOffCallerThread() throws Exception {
+        File dir = new File(mDir, "bitmap");
+        DiskLruCache seed = DiskLruCache.open(dir, 2, 2, DiskCache.DISK_CACHE_SIZE);
+        for(int i = 0; i < ENTRY_COUNT; i++) {
+            DiskLruCache.Editor editor = seed.edit(ImageUtil.hashKeyFormUrl("http://a/" + i + ".jpg"));
+            editor.set(0, "x");
+            editor.set(1, "m");
+            editor.commit();
+        }
+        seed.close();
+
+        long start = System.nanoTime();
+        DiskLruCache.open(dir, 2, 2, DiskCache.DISK_CACHE_SIZE).close();
+        final double eagerMillis = (System.nanoTime() - start) / 1e6;
+
+        start = System.nanoTime();
+        DiskCache<Object> cache = new DiskCache<>(dir, new File(mDir, "bitmap_partial"), new NoopDecoder(), NOT_MAIN);
+        cache.openInBackground();
+        final double lazyMillis = (System.nanoTime() - start) / 1e6;
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(!cache.isOpened() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(cache.isOpened());
+        assertTrue(cache.getOpenMillis() >= 0);
+        //构造方法只创建后台线程,不读journal
+        assertTrue("lazy " + lazyMillis + "ms, eager " + eagerMillis + "ms", lazyMillis < eagerMillis);
+    }
+
+    @Test
+    public void shutdownFlushesClosesShardsAndCanBeRepeated() throws Exception {
+        File dir = new File(mDir, "bitmap");
+        DiskCache<Object> cache = new DiskCache<>(dir, new File(mDir, "bitmap_partial"), new NoopDecoder(), NOT_MAIN);
+        assertTrue(cache.putAndReadBounds(CrashingWriter.url(0), image(0), CrashingWriter.metadata(), new int[2]));
+        cache.shutdown();
+        cache.shutdown();
+        //分片在后台线程上关闭,关闭后读写都返回失败,不抛异常
+        final long deadline = System.currentTimeMillis() + 5000;
+        DiskLruCache.Snapshot snapshot;
+        while((snapshot = cache.openSnapshot(CrashingWriter.url(0))) != null && System.currentTimeMillis() < deadline) {
+            snapshot.close();
+            Thread.sleep(5);
+        }
+        assertNull(snapshot);
+        assertFalse(cache.putAndReadBounds(CrashingWriter.url(1), image(1), CrashingWriter.metadata(), new int[2]));
+
+        DiskCache<Object> reopened = new DiskCache<>(dir, new File(mDir, "bitmap_partial"), new NoopDecoder(), NOT_MAIN);
+        snapshot = reopened.openSnapshot(CrashingWriter.url(0));
+        assertNotNull(snapshot);
+        snapshot.close();
+        reopened.shutdown();
+    }
+
+    @Test
+    public void entriesAreSpreadAcrossShardsWithProportionalBudget() throws Exception {
+        File dir = new File(mDir, "bitmap");
+        //分片之前的缓存
+        DiskLruCache legacy = DiskLruCache.open(dir, 2, 2, DiskCache.DISK_CACHE_SIZE);
+        DiskLruCache.Editor editor = legacy.edit(ImageUtil.hashKeyFormUrl("http://a/legacy.jpg"));
+        editor.set(0, "x");
+        editor.set(1, "m");
+        editor.commit();
+        legacy.close();
+        final String legacyKey = ImageUtil.hashKeyFormUrl("http://a/legacy.jpg");
+        assertTrue(new File(dir, legacyKey + ".0").exists());
+        //缓存目录里不属于DiskLruCache的文件
+        final File unrelated = new File(dir, "keep.txt");
+        assertTrue(unrelated.createNewFile());
+        final File unrelatedDir = new File(dir, "other");
+        assertTrue(unrelatedDir.mkdirs());
+        final File unrelatedNested = new File(unrelatedDir, "a.0");
+        assertTrue(unrelatedNested.createNewFile());
+
+        final int shardCount = 4;
+        final long maxSize = 40L * IMAGE_BYTES;
+        DiskCache<Object> cache = new DiskCache<>(new DiskCache.Directories() {
+            @Override
+            public File getCacheDir() {
+                return new File(mDir, "bitmap");
+            }
+
+            @Override
+            public File getStagingDir() {
+                return new File(mDir, "bitmap_partial");
+            }
+        }, maxSize, shardCount, new NoopDecoder(), NOT_MAIN);
+        assertNull(cache.openSnapshot("http://a/legacy.jpg"));
+        assertFalse(new File(dir, "journal").exists());
+        assertFalse(new File(dir, legacyKey + ".0").exists());
+        assertFalse(new File(dir, legacyKey + ".1").exists());
+        assertTrue(unrelated.exists());
+        assertTrue(unrelatedNested.exists());
+
+        final int count = 200;
+        for(int i = 0; i < count; i++) {
+            assertTrue(cache.putAndReadBounds(CrashingWriter.url(i), image(i), CrashingWriter.metadata(), new int[2]));
+        }
+        cache.shutdown();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(largestShardBytes(dir, shardCount) > maxSize / shardCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        for(int i = 0; i < shardCount; i++) {
+            final long bytes = shardBytes(new File(dir, Integer.toString(i)));
+            //每个分片都有图片,并且不超过自己的那一份
+            assertTrue("shard " + i + ": " + bytes, bytes > 0);
+            assertTrue("shard " + i + ": " + bytes, bytes <= maxSize / shardCount);
+        }
+    }
+
+    //分片目录里图片占的字节数,不算journal
+    private static long shardBytes(File shardDir) {
+        long bytes = 0;
+        File[] files = shardDir.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(file.getName().endsWith(".0")) {
+                    bytes += file.length();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    //超出大小后的清理在DiskLruCache自己的线程上,不一定已经完成
+    private static long largestShardBytes(File dir, int shardCount) {
+        long bytes = 0;
+        for(int i = 0; i < shardCount; i++) {
+            bytes = Math.max(bytes, shardBytes(new File(dir, Integer.toString(i))));
+        }
+        return bytes;
+    }
+
+    @Test
+    public void committedImagesSurviveProcessKilledMidBatch() throws Exception {
+        final File dir = new File(mDir, "bitmap");
+        Process process = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"), CrashingWriter.class.getName(), mDir.getPath())
+                .redirectErrorStream(true)
+                .start();
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        assertEquals(CrashingWriter.KILLED, output.readLine());
+        output.close();
+        assertEquals(0, process.waitFor());
+
+        DiskCache<Object> cache = new DiskCache<>(dir, new File(mDir, "bitmap_partial"), new NoopDecoder(), NOT_MAIN);
+        for(int i = 0; i < COMMITTED_COUNT; i++) {
+            DiskLruCache.Snapshot snapshot = cache.openSnapshot(CrashingWriter.url(i));
+            assertNotNull("image " + i, snapshot);
+            assertEquals(IMAGE_BYTES, snapshot.getLength(DiskCache.DISK_CACHE_INDEX));
+            InputStream in = snapshot.getInputStream(DiskCache.DISK_CACHE_INDEX);
+            for(int b = 0; b < IMAGE_BYTES; b++) {
+                assertEquals(i & 0xff, in.read());
+            }
+            assertTrue(cache.readMetadata(snapshot).getExpiresAt() > 0);
+            snapshot.close();
+        }
+        //写到一半的图片被丢弃,之后还能正常写入
+        assertNull(cache.openSnapshot(CrashingWriter.url(COMMITTED_COUNT)));
+        assertTrue(cache.putAndReadBounds(CrashingWriter.url(COMMITTED_COUNT), image(COMMITTED_COUNT),
+                CrashingWriter.metadata(), new int[2]));
+        DiskLruCache.Snapshot snapshot = cache.openSnapshot(CrashingWriter.url(COMMITTED_COUNT));
+        assertNotNull(snapshot);
+        snapshot.close();
+        cache.shutdown();
+    }
+
+    /**
+     * 在子进程里提交几批图片,最后一批没写满时再开始写一张,写到一半时直接结束进程,不flush也不关闭缓存
+     */
+    public static class CrashingWriter {
+        static final String KILLED = "killed";
+
+        static String url(int index) {
+            return "http://a/" + index + ".jpg";
+        }
+
+        static CacheMetadata metadata() {
+            return CacheMetadata.fromHeaders(null, null, 0, "max-age=60", 0, System.currentTimeMillis());
+        }
+
+        public static void main(String[] args) throws Exception {
+            final File root = new File(args[0]);
+            final DiskCache<Object> cache = new DiskCache<>(new File(root, "bitmap"), new File(root, "bitmap_partial"),
+                    new NoopDecoder(), NOT_MAIN);
+            for(int i = 0; i < COMMITTED_COUNT; i++) {
+                if(!cache.putAndReadBounds(url(i), image(i), metadata(), new int[2])) {
+                    throw new IOException("put failed: " + i);
+                }
+            }
+            final CountDownLatch halfWritten = new CountDownLatch(1);
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    //读完一半后一直卡住,就像网络断在半路
+                    InputStream stalled = new InputStream() {
+                        private int mRead = 0;
+
+                        @Override
+                        public int read() throws IOException {
+                            if(mRead == IMAGE_BYTES / 2) {
+                                halfWritten.countDown();
+                                try {
+                                    Thread.sleep(Long.MAX_VALUE);
+                                } catch (InterruptedException e) {
+                                    throw new IOException(e);
+                                }
+                            }
+                            mRead++;
+                            return COMMITTED_COUNT & 0xff;
+                        }
+                    };
+                    cache.putAndReadBounds(url(COMMITTED_COUNT), stalled, metadata(), new int[2]);
+                }
+            });
+            writer.setDaemon(true);
+            writer.start();
+            if(!halfWritten.await(5, TimeUnit.SECONDS)) {
+                throw new IOException("writer did not start");
+            }
+            System.out.println(KILLED);
+            System.out.flush();
+            //和被系统杀掉一样,不执行任何清理
+            Runtime.getRuntime().halt(0);
+        }
+    }
+
+    private static InputStream image(int index) {
+        byte[] data = new byte[IMAGE_BYTES];
+        Arrays.fill(data, (byte) index);
+        return new ByteArrayInputStream(data);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
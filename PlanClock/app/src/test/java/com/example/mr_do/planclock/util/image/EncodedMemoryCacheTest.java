@@ -0,0 +1,103 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 原始数据缓存按字节数淘汰最久没用的图片
+ */
+public class EncodedMemoryCacheTest {
+
+    private static ByteBuffer data(int length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        for(int i = 0; i < length; i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBySize() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(8000);
+        cache.put("a", data(1000), 10, 10, Long.MAX_VALUE);
+        cache.put("b", data(1000), 10, 10, Long.MAX_VALUE);
+        for(int i = 0; i < 6; i++) {
+            cache.put("c" + i, data(1000), 10, 10, Long.MAX_VALUE);
+        }
+        assertNotNull(cache.get("a"));
+        cache.put("d", data(1000), 10, 10, Long.MAX_VALUE);
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(8000, cache.size());
+    }
+
+    @Test
+    public void rejectsEntriesLargerThanAnEighthOfTheBudget() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(8000);
+        assertNull(cache.put("big", data(1001), 0, 0, Long.MAX_VALUE));
+        assertNull(cache.get("big"));
+        assertNotNull(cache.put("small", data(1000), 0, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readersHaveIndependentPositions() {
+        EncodedMemoryCache cache = new EncodedMemoryCache(8000);
+        EncodedMemoryCache.Entry entry = cache.put("a", data(100), 20, 30, Long.MAX_VALUE);
+        ByteBuffer first = entry.newReader();
+        first.position(50);
+        ByteBuffer second = entry.newReader();
+        assertEquals(0, second.position());
+        assertEquals(100, second.remaining());
+        assertEquals(20, entry.width);
+        assertEquals(30, entry.height);
+    }
+
+    @Test
+    public void trimShrinksUntilHoldExpires() throws InterruptedException {
+        EncodedMemoryCache cache = new EncodedMemoryCache(8000);
+        for(int i = 0; i < 8; i++) {
+            cache.put("a" + i, data(1000), 0, 0, Long.MAX_VALUE);
+        }
+        assertEquals(6000, cache.trim(0.25f, 20));
+        cache.put("b", data(1000), 0, 0, Long.MAX_VALUE);
+        assertEquals(2000, cache.size());
+        Thread.sleep(30);
+        cache.put("c", data(1000), 0, 0, Long.MAX_VALUE);
+        assertEquals(3000, cache.size());
+    }
+
+    @Test
+    public void readsWholeFileIntoDirectBuffer() throws IOException {
+        File file = File.createTempFile("encoded", "");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            for(int i = 0; i < 500; i++) {
+                out.write(i);
+            }
+            out.close();
+            EncodedMemoryCache cache = new EncodedMemoryCache(8000);
+            FileInputStream in = new FileInputStream(file);
+            try {
+                ByteBuffer buffer = cache.read(in.getChannel(), file.length());
+                assertTrue(buffer.isDirect());
+                assertEquals(500, buffer.remaining());
+                assertEquals((byte) 499, buffer.get(499));
+                //按位置读取,流仍然在开头
+                assertEquals(0, in.read());
+                assertNull(cache.read(in.getChannel(), 1001));
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 在本机起一个HTTP服务,验证条件请求和缓存信息的计算
+ */
+public class HttpImageFetcherTest {
+    private static final byte[] BODY = new byte[32 * 1024];
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Mon, 01 Jan 2018 00:00:00 GMT";
+
+    private HttpServer mServer;
+    private String mUrl;
+    private final AtomicInteger mFullResponses = new AtomicInteger();
+    private final AtomicInteger mNotModifiedResponses = new AtomicInteger();
+    private final AtomicInteger mRangeResponses = new AtomicInteger();
+    private File mStagingDir;
+    private final HttpImageFetcher mFetcher = new HttpImageFetcher();
+
+    @Before
+    public void setUp() throws IOException {
+        for(int i = 0; i < BODY.length; i++) {
+            BODY[i] = (byte) i;
+        }
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/image.jpg", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                exchange.getResponseHeaders().set("Cache-Control", "public, max-age=60");
+                if(ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    mNotModifiedResponses.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    mFullResponses.incrementAndGet();
+                    exchange.sendResponseHeaders(200, BODY.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(BODY);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        mServer.createContext("/ranged.jpg", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                int start = 0;
+                if(range != null && ETAG.equals(exchange.getRequestHeaders().getFirst("If-Range"))) {
+                    start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                }
+                if(start >= BODY.length) {
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                if(start > 0) {
+                    mRangeResponses.incrementAndGet();
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + start + "-" + (BODY.length - 1) + "/" + BODY.length);
+                    exchange.sendResponseHeaders(206, BODY.length - start);
+                } else {
+                    mFullResponses.incrementAndGet();
+                    exchange.sendResponseHeaders(200, BODY.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                out.write(BODY, start, BODY.length - start);
+                out.close();
+                exchange.close();
+            }
+        });
+        mServer.createContext("/missing.jpg", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+        mStagingDir = File.createTempFile("staging", "");
+        mStagingDir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        File[] files = mStagingDir.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                file.delete();
+            }
+        }
+        mStagingDir.delete();
+    }
+
+    @Test
+    public void fullResponseCarriesValidators() throws IOException {
+        long before = System.currentTimeMillis();
+        ImageFetcher.Response response = mFetcher.fetch(mUrl + "/image.jpg", null);
+        try {
+            assertEquals(200, response.getCode());
+            assertFalse(response.isNotModified());
+            assertArrayEquals(BODY, readFully(response.getBody()));
+            CacheMetadata metadata = response.getMetadata();
+            assertEquals(ETAG, metadata.getETag());
+            assertEquals(LAST_MODIFIED, metadata.getLastModified());
+            assertTrue(metadata.getExpiresAt() >= before + 60 * 1000);
+            assertTrue(metadata.isFresh(System.currentTimeMillis()));
+        } finally {
+            response.close();
+        }
+        assertEquals(1, mFullResponses.get());
+    }
+
+    @Test
+    public void staleEntryIsRevalidatedWithoutBody() throws IOException {
+        CacheMetadata stale = new CacheMetadata(ETAG, LAST_MODIFIED, 1);
+        assertFalse(stale.isFresh(System.currentTimeMillis()));
+
+        ImageFetcher.Response response = mFetcher.fetch(mUrl + "/image.jpg", stale);
+        try {
+            assertTrue(response.isNotModified());
+            assertNull(response.getBody());
+            CacheMetadata refreshed = response.getMetadata();
+            assertEquals(ETAG, refreshed.getETag());
+            assertTrue(refreshed.isFresh(System.currentTimeMillis()));
+        } finally {
+            response.close();
+        }
+        assertEquals(0, mFullResponses.get());
+        assertEquals(1, mNotModifiedResponses.get());
+    }
+
+    @Test
+    public void changedEntryIsDownloadedAgain() throws IOException {
+        CacheMetadata stale = new CacheMetadata("\"v0\"", null, 1);
+        ImageFetcher.Response response = mFetcher.fetch(mUrl + "/image.jpg", stale);
+        try {
+            assertFalse(response.isNotModified());
+            assertArrayEquals(BODY, readFully(response.getBody()));
+            assertEquals(ETAG, response.getMetadata().getETag());
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void interruptedDownloadResumesWithRange() throws IOException {
+        DownloadStaging staging = new DownloadStaging(mStagingDir);
+        DownloadStaging.Partial partial = staging.acquire("key");
+        assertNull(staging.acquire("key"));
+
+        //第一次下载到一半断开
+        ImageFetcher.Response response = mFetcher.fetch(mUrl + "/ranged.jpg", null,
+                partial.resumeOffset(), partial.getValidator());
+        try {
+            OutputStream out = partial.openOutput(response.getRangeStart());
+            partial.saveState(response.getRangeValidator(), response.getTotalLength());
+            byte[] half = new byte[BODY.length / 2];
+            int read = 0;
+            while(read < half.length) {
+                read += response.getBody().read(half, read, half.length - read);
+            }
+            out.write(half);
+            out.close();
+        } finally {
+            response.close();
+            partial.close();
+        }
+
+        //重新打开后从断开的位置继续
+        partial = staging.acquire("key");
+        assertFalse(partial.isComplete());
+        assertEquals(BODY.length / 2, partial.resumeOffset());
+        response = mFetcher.fetch(mUrl + "/ranged.jpg", null, partial.resumeOffset(), partial.getValidator());
+        try {
+            assertEquals(206, response.getCode());
+            assertEquals(BODY.length / 2, response.getRangeStart());
+            assertEquals(BODY.length, response.getTotalLength());
+            OutputStream out = partial.openOutput(response.getRangeStart());
+            partial.saveState(response.getRangeValidator(), response.getTotalLength());
+            out.write(readFully(response.getBody()));
+            out.close();
+        } finally {
+            response.close();
+        }
+        assertTrue(partial.isComplete());
+        assertArrayEquals(BODY, readFully(partial.openInput()));
+        partial.delete();
+        partial.close();
+        assertEquals(1, mFullResponses.get());
+        assertEquals(1, mRangeResponses.get());
+    }
+
+    @Test
+    public void unsatisfiableRangeFallsBackToFullDownload() throws IOException {
+        ImageFetcher.Response response = mFetcher.fetch(mUrl + "/ranged.jpg", null, BODY.length, ETAG);
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(0, response.getRangeStart());
+            assertArrayEquals(BODY, readFully(response.getBody()));
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void changedImageIgnoresRange() throws IOException {
+        ImageFetcher.Response response = mFetcher.fetch(mUrl + "/ranged.jpg", null, 100, "\"v0\"");
+        try {
+            assertEquals(200, response.getCode());
+            assertEquals(0, response.getRangeStart());
+        } finally {
+            response.close();
+        }
+        assertEquals(0, mRangeResponses.get());
+    }
+
+    @Test(expected = IOException.class)
+    public void errorResponseThrows() throws IOException {
+        mFetcher.fetch(mUrl + "/missing.jpg", null);
+    }
+
+    @Test
+    public void metadataSurvivesSerialization() {
+        CacheMetadata metadata = new CacheMetadata(ETAG, LAST_MODIFIED, 123456789L);
+        CacheMetadata parsed = CacheMetadata.parse(metadata.serialize());
+        assertEquals(ETAG, parsed.getETag());
+        assertEquals(LAST_MODIFIED, parsed.getLastModified());
+        assertEquals(123456789L, parsed.getExpiresAt());
+        //旧版本没有缓存信息时按已过期处理
+        assertFalse(CacheMetadata.parse(null).isFresh(0));
+    }
+
+    @Test
+    public void freshnessFollowsHeaders() {
+        long now = 1000000000L;
+        assertEquals(now + 30 * 1000,
+                CacheMetadata.fromHeaders(null, null, 0, "max-age=30", now + 5000, now).getExpiresAt());
+        assertEquals(now,
+                CacheMetadata.fromHeaders(ETAG, null, 0, "no-cache", 0, now).getExpiresAt());
+        assertEquals(now + 5000,
+                CacheMetadata.fromHeaders(null, null, 0, null, now + 5000, now).getExpiresAt());
+        assertEquals(now + 10000,
+                CacheMetadata.fromHeaders(null, LAST_MODIFIED, now - 100000, null, 0, now).getExpiresAt());
+        assertEquals(now + CacheMetadata.DEFAULT_FRESHNESS_MILLIS,
+                CacheMetadata.fromHeaders(null, null, 0, null, 0, now).getExpiresAt());
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * 配置的默认值按设备的内存档次计算,设置过的项保持不变
+ */
+public class ImageLoaderConfigTest {
+    private static final long MAX_MEMORY = 256L*1024*1024;
+
+    @Test
+    public void defaultsScaleWithMaxMemory() {
+        ImageLoaderConfig config = new ImageLoaderConfig.Builder(MAX_MEMORY, false).build();
+        assertEquals(MAX_MEMORY / 8, config.getMemoryCacheSize());
+        assertEquals(MAX_MEMORY / 32, config.getBitmapPoolSize());
+        assertEquals(MAX_MEMORY / 16, config.getTileCacheSize());
+        assertEquals(DiskCache.DISK_CACHE_SIZE, config.getDiskCacheSize());
+        assertEquals(ImagePipeline.DEFAULT_NETWORK_THREADS, config.getNetworkThreads());
+        assertEquals(ImagePipeline.DEFAULT_DECODE_THREADS, config.getDecodeThreads());
+        assertNull(config.getBitmapConfigPolicy());
+        assertNull(config.getDiskCacheDir());
+        assertFalse(config.isFrequencyAdmissionEnabled());
+    }
+
+    @Test
+    public void lowRamDeviceGetsSmallerDefaults() {
+        ImageLoaderConfig normal = new ImageLoaderConfig.Builder(MAX_MEMORY, false).build();
+        ImageLoaderConfig lowRam = new ImageLoaderConfig.Builder(MAX_MEMORY, true).build();
+        assertTrue(lowRam.getMemoryCacheSize() < normal.getMemoryCacheSize());
+        assertTrue(lowRam.getBitmapPoolSize() < normal.getBitmapPoolSize());
+        assertTrue(lowRam.getDiskCacheSize() < normal.getDiskCacheSize());
+        assertTrue(lowRam.getNetworkThreads() <= normal.getNetworkThreads());
+        assertTrue(lowRam.getDecodeThreads() <= normal.getDecodeThreads());
+    }
+
+    @Test
+    public void explicitValuesOverrideDefaults() {
+        File dir = new File("images");
+        IImageLoader.BitmapConfigPolicy policy = new IImageLoader.BitmapConfigPolicy() {
+            @Override
+            public boolean allowRgb565() {
+                return false;
+            }
+
+            @Override
+            public boolean allowHardwareBitmap() {
+                return true;
+            }
+        };
+        ImageLoaderConfig config = new ImageLoaderConfig.Builder(MAX_MEMORY, true)
+                .setMemoryCacheSize(1000)
+                .setDiskCacheSize(2000)
+                .setBitmapPoolSize(300)
+                .setNetworkThreads(6)
+                .setDecodeThreads(3)
+                .setBitmapConfigPolicy(policy)
+                .setDiskCacheDir(dir)
+                .setFrequencyAdmissionEnabled(true)
+                .build();
+        assertEquals(1000, config.getMemoryCacheSize());
+        assertEquals(2000, config.getDiskCacheSize());
+        assertEquals(300, config.getBitmapPoolSize());
+        assertEquals(6, config.getNetworkThreads());
+        assertEquals(3, config.getDecodeThreads());
+        assertSame(policy, config.getBitmapConfigPolicy());
+        assertSame(dir, config.getDiskCacheDir());
+        assertTrue(config.isFrequencyAdmissionEnabled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveSize() {
+        new ImageLoaderConfig.Builder(MAX_MEMORY, false).setMemoryCacheSize(0);
+    }
+}
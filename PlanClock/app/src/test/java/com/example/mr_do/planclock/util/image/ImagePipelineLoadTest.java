@@ -0,0 +1,486 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 压力测试:本机HTTP服务模拟网络延迟和带宽,单线程的Executor模拟主线程,
+ * 模拟网格列表来回滑动,检查绑定延迟、各级缓存的命中和重复下载
+ */
+public class ImagePipelineLoadTest {
+    private static final int COLUMNS = 3;
+    private static final int VISIBLE_ROWS = 10;
+    private static final int TOTAL_ROWS = 100;
+    private static final int IMAGE_SIZE = 200;
+    private static final int CELL_SIZE = 100;
+    private static final int BODY_LENGTH = 8 * 1024;
+    //每个请求的响应延迟和每个连接的带宽
+    private static final long LATENCY_MILLIS = 20;
+    private static final int BYTES_PER_SECOND = 256 * 1024;
+    private static final int CHUNK_SIZE = 1024;
+    //绑定延迟的上限,本机上p50不到1ms,p95在10ms以内,留出足够的余量
+    private static final double BIND_P50_LIMIT_MILLIS = 50;
+    private static final double BIND_P95_LIMIT_MILLIS = 500;
+
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private String mBaseUrl;
+    private final ConcurrentHashMap<String, AtomicInteger> mRequestCounts = new ConcurrentHashMap<>();
+    //响应的Cache-Control,带ETag的条件请求返回304
+    private volatile String mCacheControl = "public, max-age=3600";
+    private final AtomicInteger mConditionalRequests = new AtomicInteger();
+    private File mCacheDir;
+    private ExecutorService mMainThread;
+    private volatile Thread mMainThreadRef;
+    private ImagePipeline<FakeImage> mPipeline;
+
+    /**
+     * 不依赖Android的图片,只有宽高
+     */
+    private static class FakeImage {
+        final int width;
+        final int height;
+
+        FakeImage(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * 图片文件的前8个字节是宽和高
+     */
+    private static class FakeDecoder implements ImageDecoder<FakeImage> {
+        @Override
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            if(length < 8) {
+                return false;
+            }
+            outSize[0] = readInt(head, 0);
+            outSize[1] = readInt(head, 4);
+            return true;
+        }
+
+        @Override
+        public FakeImage decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight,
+                                    int flags) {
+            //fd由调用者关闭,这里不能关闭流
+            DataInputStream in = new DataInputStream(new FileInputStream(fd));
+            try {
+                final int width = in.readInt();
+                final int height = in.readInt();
+                final int inSampleSize = ImageUtil.calculateInSampleSize(width, height, reqWidth, reqHeight);
+                return new FakeImage(width / inSampleSize, height / inSampleSize);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public FakeImage decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight,
+                                      int flags) {
+            if(data.remaining() < 8) {
+                return null;
+            }
+            final int width = data.getInt();
+            final int height = data.getInt();
+            final int inSampleSize = ImageUtil.calculateInSampleSize(width, height, reqWidth, reqHeight);
+            return new FakeImage(width / inSampleSize, height / inSampleSize);
+        }
+
+        @Override
+        public FakeImage scale(FakeImage source, int reqWidth, int reqHeight, int flags) {
+            final int inSampleSize = ImageUtil.calculateInSampleSize(source.width, source.height, reqWidth, reqHeight);
+            return inSampleSize == 1 ? source : new FakeImage(source.width / inSampleSize, source.height / inSampleSize);
+        }
+
+        @Override
+        public int getWidth(FakeImage image) {
+            return image.width;
+        }
+
+        @Override
+        public int getHeight(FakeImage image) {
+            return image.height;
+        }
+
+        @Override
+        public int getByteCount(FakeImage image) {
+            return image.width * image.height * 4;
+        }
+
+        @Override
+        public int getRequiredFlags(FakeImage image) {
+            return 0;
+        }
+
+        @Override
+        public void recycle(FakeImage image) {
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return 0;
+        }
+
+        private static int readInt(byte[] b, int offset) {
+            return (b[offset] & 0xff) << 24 | (b[offset + 1] & 0xff) << 16
+                    | (b[offset + 2] & 0xff) << 8 | (b[offset + 3] & 0xff);
+        }
+    }
+
+    /**
+     * 网格中一个会被复用的格子,tag是当前应该显示的图片
+     */
+    private static class FakeView implements ImagePipeline.Target<FakeImage> {
+        volatile String tag;
+        volatile String bound;
+        long requestTime;
+        final List<Long> latencies;
+
+        FakeView(List<Long> latencies) {
+            this.latencies = latencies;
+        }
+
+        @Override
+        public boolean isWaitingFor(String uri) {
+            return uri.equals(tag);
+        }
+
+        //只在模拟的主线程上调用
+        @Override
+        public void onImageReady(FakeImage image) {
+            bound = tag;
+            latencies.add(System.nanoTime() - requestTime);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServerExecutor = Executors.newFixedThreadPool(16);
+        mServer.setExecutor(mServerExecutor);
+        mServer.createContext("/img/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                countRequest(exchange.getRequestURI().getPath());
+                sleep(LATENCY_MILLIS);
+                exchange.getResponseHeaders().set("Cache-Control", mCacheControl);
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                if(exchange.getRequestHeaders().getFirst("If-None-Match") != null) {
+                    mConditionalRequests.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = new byte[BODY_LENGTH];
+                writeInt(body, 0, IMAGE_SIZE);
+                writeInt(body, 4, IMAGE_SIZE);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                //按带宽分块写出
+                for(int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+                    out.write(body, offset, Math.min(CHUNK_SIZE, body.length - offset));
+                    out.flush();
+                    sleep(CHUNK_SIZE * 1000L / BYTES_PER_SECOND);
+                }
+                out.close();
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/img/";
+
+        mCacheDir = File.createTempFile("pipeline", "");
+        mCacheDir.delete();
+        mMainThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                mMainThreadRef = new Thread(r, "fake-main");
+                return mMainThreadRef;
+            }
+        });
+        mPipeline = createPipeline(64L * 1024 * 1024, 0);
+    }
+
+    /**
+     * @param encodedCacheSize 原始数据缓存的预算,为0时不使用
+     */
+    private ImagePipeline<FakeImage> createPipeline(long memoryCacheSize, long encodedCacheSize) {
+        MainThreadDispatcher dispatcher = new MainThreadDispatcher() {
+            @Override
+            public boolean isMainThread() {
+                return Thread.currentThread() == mMainThreadRef;
+            }
+
+            @Override
+            public void postFrame(Runnable task) {
+                mMainThread.execute(task);
+            }
+        };
+        FakeDecoder decoder = new FakeDecoder();
+        MemoryCache<FakeImage> memoryCache = new MemoryCache<>(memoryCacheSize, decoder);
+        DiskCache<FakeImage> diskCache = new DiskCache<>(new File(mCacheDir, "bitmap"),
+                new File(mCacheDir, "bitmap_partial"), decoder, dispatcher);
+        TileCache<FakeImage> tileCache = new TileCache<>(0, decoder);
+        return new ImagePipeline<>(memoryCache, new EncodedMemoryCache(encodedCacheSize), tileCache, diskCache,
+                new HttpImageFetcher(), null, decoder, dispatcher, new LoaderMetrics(),
+                ImagePipeline.DEFAULT_NETWORK_THREADS, ImagePipeline.DEFAULT_DECODE_THREADS);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mPipeline.shutdown();
+        mMainThread.shutdownNow();
+        mMainThread.awaitTermination(5, TimeUnit.SECONDS);
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+        deleteRecursively(mCacheDir);
+    }
+
+    @Test
+    public void scrollDownAndBack() throws Exception {
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final FakeView[] views = createViews(latencies);
+        final int loadCalls = scroll(views);
+
+        int duplicates = 0;
+        int fetched = 0;
+        for(AtomicInteger count : mRequestCounts.values()) {
+            fetched++;
+            duplicates += count.get() - 1;
+        }
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+        ImageLoaderStats stats = mPipeline.getStats();
+
+        assertEquals(0, duplicates);
+        assertTrue(loadCalls > 1000);
+        assertAllBound(views);
+        assertFalse(sorted.isEmpty());
+        //内存缓存放得下所有图片,滑回去时全部命中内存
+        assertTrue(stats.toString(), stats.getNetworkHits() <= fetched);
+        assertTrue(stats.toString(), stats.getMemoryHits() > stats.getNetworkHits());
+        assertEquals(stats.toString(), 0, stats.getFailedCount());
+        final double p50 = percentileMillis(sorted, 0.50);
+        final double p95 = percentileMillis(sorted, 0.95);
+        assertTrue("bind latency p50=" + p50 + "ms", p50 < BIND_P50_LIMIT_MILLIS);
+        assertTrue("bind latency p95=" + p95 + "ms", p95 < BIND_P95_LIMIT_MILLIS);
+    }
+
+    /**
+     * 内存缓存只放得下两屏,滑回去时被淘汰的图片从内存中的原始数据解码,不再读磁盘
+     */
+    @Test
+    public void scrollBackDecodesEvictedImagesFromEncodedCache() throws Exception {
+        mPipeline.shutdown();
+        final long imageBytes = CELL_SIZE * CELL_SIZE * 4;
+        mPipeline = createPipeline(imageBytes * COLUMNS * VISIBLE_ROWS * 2, 4L * 1024 * 1024);
+        final FakeView[] views = createViews(Collections.synchronizedList(new ArrayList<Long>()));
+        scroll(views);
+
+        ImageLoaderStats stats = mPipeline.getStats();
+        assertTrue(stats.toString(), stats.getEncodedHits() > 0);
+        assertTrue(stats.toString(), stats.getEncodedHits() > stats.getDiskHits());
+        assertTrue(stats.toString(), stats.getNetworkHits() <= mRequestCounts.size());
+        assertEquals(stats.toString(), 0, stats.getFailedCount());
+        assertAllBound(views);
+    }
+
+    /**
+     * 原始数据缓存里的图片过期后和磁盘缓存一样,先发条件请求重新验证再解码
+     */
+    @Test
+    public void staleEncodedEntryIsRevalidated() throws Exception {
+        mPipeline.shutdown();
+        //内存缓存放不下,每次都从原始数据缓存解码
+        mPipeline = createPipeline(0, 4L * 1024 * 1024);
+        mCacheControl = "no-cache";
+        final String uri = mBaseUrl + "stale.jpg";
+        loadAndWait(uri);
+        assertEquals(0, mConditionalRequests.get());
+
+        loadAndWait(uri);
+        ImageLoaderStats stats = mPipeline.getStats();
+        assertEquals(1, mConditionalRequests.get());
+        assertEquals(1, stats.getRevalidatedCount());
+        assertEquals(0, stats.getEncodedHits());
+
+        //验证之后有了新的过期时间,没过期时直接从原始数据解码
+        mCacheControl = "public, max-age=3600";
+        loadAndWait(uri);
+        assertEquals(2, mConditionalRequests.get());
+        loadAndWait(uri);
+        assertEquals(2, mConditionalRequests.get());
+        assertEquals(1, mPipeline.getStats().getEncodedHits());
+    }
+
+    private void loadAndWait(final String uri) throws Exception {
+        final FakeView view = new FakeView(Collections.synchronizedList(new ArrayList<Long>()));
+        onMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                view.tag = uri;
+                mPipeline.load(uri, CELL_SIZE, CELL_SIZE, 0, view);
+                return null;
+            }
+        });
+        waitUntilIdle(5000);
+        //请求移出请求表之后结果才投递到主线程,可能还要再等一帧
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(!uri.equals(view.bound) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(uri, view.bound);
+    }
+
+    private static FakeView[] createViews(List<Long> latencies) {
+        FakeView[] views = new FakeView[COLUMNS * VISIBLE_ROWS];
+        for(int i = 0; i < views.length; i++) {
+            views[i] = new FakeView(latencies);
+        }
+        return views;
+    }
+
+    //最后停在顶部,每个格子都要绑定上自己的图片
+    private static void assertAllBound(FakeView[] views) {
+        for(FakeView view : views) {
+            assertNotNull(view.tag);
+            assertEquals(view.tag, view.bound);
+        }
+    }
+
+    /**
+     * 先滑到底,再滑回顶部,等所有任务结束
+     * @return 调用load的次数
+     */
+    private int scroll(final FakeView[] views) throws Exception {
+        //先滑到底,再滑回顶部,每一行停留两帧
+        List<Integer> positions = new ArrayList<>();
+        for(int row = 0; row <= TOTAL_ROWS - VISIBLE_ROWS; row++) {
+            positions.add(row);
+            positions.add(row);
+        }
+        for(int row = TOTAL_ROWS - VISIBLE_ROWS; row >= 0; row--) {
+            positions.add(row);
+            positions.add(row);
+        }
+        final AtomicInteger loadCalls = new AtomicInteger();
+        for(final int firstRow : positions) {
+            onMainThread(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for(int i = 0; i < views.length; i++) {
+                        final String uri = mBaseUrl + (firstRow * COLUMNS + i) + ".jpg";
+                        FakeView view = views[i];
+                        if(uri.equals(view.bound)) {
+                            continue;
+                        }
+                        view.tag = uri;
+                        view.requestTime = System.nanoTime();
+                        mPipeline.load(uri, CELL_SIZE, CELL_SIZE, 0, view);
+                        loadCalls.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+            Thread.sleep(4);
+        }
+        waitUntilIdle(30000);
+        return loadCalls.get();
+    }
+
+    private void onMainThread(Callable<Void> task) throws Exception {
+        mMainThread.submit(task).get();
+    }
+
+    //等所有任务结束,并且已经投递的结果都在模拟的主线程上绑定完
+    private void waitUntilIdle(long timeoutMillis) throws Exception {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(mPipeline.getInFlightCount() > 0) {
+            if(System.currentTimeMillis() > deadline) {
+                fail("pipeline still busy: " + mPipeline.getInFlightCount());
+            }
+            Thread.sleep(10);
+        }
+        onMainThread(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+    }
+
+    private void countRequest(String path) {
+        AtomicInteger count = mRequestCounts.get(path);
+        if(count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = mRequestCounts.putIfAbsent(path, created);
+            if(count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    //sorted不能为空
+    private static double percentileMillis(List<Long> sorted, double percentile) {
+        final int index = Math.min(sorted.size() - 1, (int) (sorted.size() * percentile));
+        return sorted.get(index) / 1e6;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
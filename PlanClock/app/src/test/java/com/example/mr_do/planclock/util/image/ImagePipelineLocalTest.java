@@ -0,0 +1,235 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 本机图片:缩略图够大时不解码原图,和网络图片共用内存缓存和请求表
+ */
+public class ImagePipelineLocalTest {
+    private static final int PHOTO_WIDTH = 4000;
+    private static final int PHOTO_HEIGHT = 3000;
+    private static final int THUMBNAIL_WIDTH = 160;
+    private static final int THUMBNAIL_HEIGHT = 120;
+
+    //结果直接在工作线程上分发
+    private static final MainThreadDispatcher DIRECT = new MainThreadDispatcher() {
+        @Override
+        public boolean isMainThread() {
+            return false;
+        }
+
+        @Override
+        public void postFrame(Runnable task) {
+            task.run();
+        }
+    };
+
+    private FakeLocalDecoder mLocalDecoder;
+    private ImagePipeline<int[]> mPipeline;
+
+    /**
+     * 图片是{宽,高},不依赖Android
+     */
+    private static class SizeDecoder implements ImageDecoder<int[]> {
+        @Override
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            return false;
+        }
+
+        @Override
+        public int[] decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] scale(int[] source, int reqWidth, int reqHeight, int flags) {
+            final int inSampleSize = ImageUtil.calculateInSampleSize(source[0], source[1], reqWidth, reqHeight);
+            return new int[]{source[0] / inSampleSize, source[1] / inSampleSize};
+        }
+
+        @Override
+        public int getWidth(int[] image) {
+            return image[0];
+        }
+
+        @Override
+        public int getHeight(int[] image) {
+            return image[1];
+        }
+
+        @Override
+        public int getByteCount(int[] image) {
+            return image[0] * image[1] * 4;
+        }
+
+        @Override
+        public int getRequiredFlags(int[] image) {
+            return 0;
+        }
+
+        @Override
+        public void recycle(int[] image) {
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return 0;
+        }
+    }
+
+    /**
+     * 每张照片都带一张160x120的缩略图,解码原图前等待gate,用来测试合并请求
+     */
+    private static class FakeLocalDecoder implements LocalImageDecoder<int[]> {
+        final AtomicInteger thumbnailReads = new AtomicInteger();
+        final AtomicInteger fullDecodes = new AtomicInteger();
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        @Override
+        public int[] decodeThumbnail(String uri, int reqWidth, int reqHeight, int flags) {
+            thumbnailReads.incrementAndGet();
+            if(reqWidth == 0 || reqHeight == 0 || THUMBNAIL_WIDTH < reqWidth || THUMBNAIL_HEIGHT < reqHeight) {
+                return null;
+            }
+            return new int[]{THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT};
+        }
+
+        @Override
+        public int[] decode(String uri, int reqWidth, int reqHeight, int flags) {
+            fullDecodes.incrementAndGet();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            final int inSampleSize = ImageUtil.calculateInSampleSize(PHOTO_WIDTH, PHOTO_HEIGHT, reqWidth, reqHeight);
+            return new int[]{PHOTO_WIDTH / inSampleSize, PHOTO_HEIGHT / inSampleSize};
+        }
+    }
+
+    private static class LatchTarget implements ImagePipeline.Target<int[]> {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int[] image;
+
+        @Override
+        public boolean isWaitingFor(String uri) {
+            return true;
+        }
+
+        @Override
+        public void onImageReady(int[] image) {
+            this.image = image;
+            done.countDown();
+        }
+
+        int[] await() throws InterruptedException {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            return image;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        SizeDecoder decoder = new SizeDecoder();
+        mLocalDecoder = new FakeLocalDecoder();
+        MemoryCache<int[]> memoryCache = new MemoryCache<>(64L * 1024 * 1024, decoder);
+        DiskCache<int[]> diskCache = new DiskCache<>(null, null, decoder, DIRECT);
+        TileCache<int[]> tileCache = new TileCache<>(0, decoder);
+        mPipeline = new ImagePipeline<>(memoryCache, new EncodedMemoryCache(0), tileCache, diskCache,
+                new HttpImageFetcher(), mLocalDecoder, decoder, DIRECT, new LoaderMetrics(),
+                ImagePipeline.DEFAULT_NETWORK_THREADS, ImagePipeline.DEFAULT_DECODE_THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        mLocalDecoder.gate.countDown();
+        mPipeline.shutdown();
+    }
+
+    @Test
+    public void smallCellUsesEmbeddedThumbnail() throws Exception {
+        LatchTarget target = new LatchTarget();
+        mPipeline.loadLocal("/sdcard/DCIM/1.jpg", 100, 100, 0, target);
+        int[] image = target.await();
+        assertArrayEquals(new int[]{THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT}, image);
+        assertEquals(0, mLocalDecoder.fullDecodes.get());
+        assertEquals(1, mPipeline.getStats().getThumbnailHits());
+    }
+
+    @Test
+    public void largeRequestDecodesFullPhoto() throws Exception {
+        mLocalDecoder.gate.countDown();
+        LatchTarget target = new LatchTarget();
+        mPipeline.loadLocal("/sdcard/DCIM/1.jpg", 500, 500, 0, target);
+        int[] image = target.await();
+        assertArrayEquals(new int[]{PHOTO_WIDTH / 4, PHOTO_HEIGHT / 4}, image);
+        assertEquals(1, mLocalDecoder.thumbnailReads.get());
+        assertEquals(1, mLocalDecoder.fullDecodes.get());
+        assertEquals(0, mPipeline.getStats().getThumbnailHits());
+    }
+
+    @Test
+    public void concurrentRequestsShareOneDecodeAndTheMemoryCache() throws Exception {
+        LatchTarget first = new LatchTarget();
+        LatchTarget second = new LatchTarget();
+        mPipeline.loadLocal("content://media/external/images/media/7", 500, 500, 0, first);
+        mPipeline.loadLocal("content://media/external/images/media/7", 500, 500, 0, second);
+        mLocalDecoder.gate.countDown();
+        assertSame(first.await(), second.await());
+        assertEquals(1, mLocalDecoder.fullDecodes.get());
+
+        //已经在内存缓存里,直接在调用线程绑定
+        LatchTarget third = new LatchTarget();
+        mPipeline.loadLocal("content://media/external/images/media/7", 500, 500, 0, third);
+        assertEquals(0, third.done.getCount());
+        assertSame(first.image, third.image);
+        assertEquals(1, mLocalDecoder.fullDecodes.get());
+        assertEquals(1, mPipeline.getStats().getCoalescedCount());
+    }
+
+    @Test
+    public void visibleLoadsAreNotDroppedWhenQueuesAreFull() throws Exception {
+        //原图解码都卡在gate上,请求数超出磁盘和解码阶段的队列上限
+        final int count = 120;
+        LatchTarget[] targets = new LatchTarget[count];
+        for(int i = 0; i < count; i++) {
+            targets[i] = new LatchTarget();
+            mPipeline.loadLocal("/sdcard/DCIM/" + i + ".jpg", 500, 500, 0, targets[i]);
+        }
+        mLocalDecoder.gate.countDown();
+        //有view在等的任务不能丢掉,否则view一直显示占位图
+        for(LatchTarget target : targets) {
+            assertNotNull(target.await());
+        }
+        assertEquals(0, mPipeline.getStats().getCancelledCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void pipelineWithoutLocalDecoderRejectsLocalLoads() {
+        SizeDecoder decoder = new SizeDecoder();
+        MemoryCache<int[]> memoryCache = new MemoryCache<>(1024, decoder);
+        DiskCache<int[]> diskCache = new DiskCache<>(null, null, decoder, DIRECT);
+        ImagePipeline<int[]> pipeline = new ImagePipeline<>(memoryCache, diskCache, new HttpImageFetcher(),
+                decoder, DIRECT, new LoaderMetrics());
+        try {
+            pipeline.loadLocal("/sdcard/DCIM/1.jpg", 100, 100, 0, new LatchTarget());
+        } finally {
+            pipeline.shutdown();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 采样率和根据文件头判断透明度
+ */
+public class ImageUtilTest {
+
+    private static byte[] webp(String chunk, int flagOffset, int flag) {
+        byte[] head = new byte[ImageUtil.ALPHA_HEADER_SIZE];
+        System.arraycopy("RIFF".getBytes(), 0, head, 0, 4);
+        System.arraycopy("WEBP".getBytes(), 0, head, 8, 4);
+        System.arraycopy(chunk.getBytes(), 0, head, 12, 4);
+        head[flagOffset] = (byte) flag;
+        return head;
+    }
+
+    @Test
+    public void inSampleSizeKeepsBothSidesAboveRequested() {
+        assertEquals(1, ImageUtil.calculateInSampleSize(400, 400, 0, 0));
+        assertEquals(1, ImageUtil.calculateInSampleSize(400, 400, 300, 300));
+        assertEquals(2, ImageUtil.calculateInSampleSize(400, 400, 100, 100));
+        assertEquals(8, ImageUtil.calculateInSampleSize(1000, 1000, 100, 100));
+    }
+
+    @Test
+    public void exactDensityHitsRequestedSize() {
+        //1000x1250按8采样后是125x157,再缩放到120x151
+        final int sample = ImageUtil.calculateInSampleSize(1000, 1250, 120, 150);
+        assertEquals(8, sample);
+        int[] density = ImageUtil.calculateExactDensity(125, 157, 120, 150);
+        assertNotNull(density);
+        assertEquals(120, ImageUtil.scaledDimension(125, density[0], density[1]));
+        assertEquals(151, ImageUtil.scaledDimension(157, density[0], density[1]));
+    }
+
+    @Test
+    public void exactDensityNeverGoesBelowRequested() {
+        for(int w = 121; w < 600; w += 7) {
+            for(int h = 151; h < 600; h += 11) {
+                int[] density = ImageUtil.calculateExactDensity(w, h, 120, 150);
+                assertNotNull(density);
+                final int scaledWidth = ImageUtil.scaledDimension(w, density[0], density[1]);
+                final int scaledHeight = ImageUtil.scaledDimension(h, density[0], density[1]);
+                assertTrue(scaledWidth >= 120 && scaledHeight >= 150);
+                assertTrue(scaledWidth == 120 || scaledHeight == 150);
+            }
+        }
+    }
+
+    @Test
+    public void exactDensityDoesNotUpscale() {
+        assertNull(ImageUtil.calculateExactDensity(100, 100, 120, 150));
+        assertNull(ImageUtil.calculateExactDensity(120, 150, 120, 150));
+        assertNull(ImageUtil.calculateExactDensity(400, 400, 0, 0));
+    }
+
+    @Test
+    public void jpegAndLossyWebpAreOpaque() {
+        byte[] jpeg = new byte[ImageUtil.ALPHA_HEADER_SIZE];
+        jpeg[0] = (byte) 0xff;
+        jpeg[1] = (byte) 0xd8;
+        jpeg[2] = (byte) 0xff;
+        assertFalse(ImageUtil.hasAlpha(jpeg, jpeg.length));
+        assertFalse(ImageUtil.hasAlpha(webp("VP8 ", 20, 0), ImageUtil.ALPHA_HEADER_SIZE));
+    }
+
+    @Test
+    public void webpAlphaFlags() {
+        assertTrue(ImageUtil.hasAlpha(webp("VP8L", 24, 0x10), ImageUtil.ALPHA_HEADER_SIZE));
+        assertFalse(ImageUtil.hasAlpha(webp("VP8L", 24, 0), ImageUtil.ALPHA_HEADER_SIZE));
+        assertTrue(ImageUtil.hasAlpha(webp("VP8X", 20, 0x10), ImageUtil.ALPHA_HEADER_SIZE));
+        assertFalse(ImageUtil.hasAlpha(webp("VP8X", 20, 0), ImageUtil.ALPHA_HEADER_SIZE));
+    }
+
+    @Test
+    public void pngAndUnknownFormatsAssumeAlpha() {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+        assertTrue(ImageUtil.hasAlpha(png, png.length));
+        assertTrue(ImageUtil.hasAlpha(new byte[0], 0));
+        //被截断的JPEG头
+        assertTrue(ImageUtil.hasAlpha(new byte[]{(byte) 0xff, (byte) 0xd8}, 2));
+    }
+}
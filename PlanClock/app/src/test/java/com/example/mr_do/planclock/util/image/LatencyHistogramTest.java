@@ -0,0 +1,65 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void stripedCounterSumsAcrossThreads() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        final int threads = 8;
+        final int perThread = 100000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for(int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for(int j = 0; j < perThread; j++) {
+                        counter.increment();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(threads * perThread, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    @Test
+    public void percentilesFallInTheRightBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        //90个1毫秒,10个100毫秒
+        for(int i = 0; i < 90; i++) {
+            histogram.record(1000000L);
+        }
+        for(int i = 0; i < 10; i++) {
+            histogram.record(100000000L);
+        }
+        ImageLoaderStats.Histogram snapshot = histogram.snapshot("test");
+        assertEquals(100, snapshot.getCount());
+        assertEquals(10.9, snapshot.getMeanMillis(), 0.001);
+        assertEquals(100, snapshot.getMaxMillis(), 0.001);
+        //分桶的上界误差在2倍以内
+        assertTrue(snapshot.getPercentileMillis(50) >= 1 && snapshot.getPercentileMillis(50) <= 2.048);
+        assertTrue(snapshot.getPercentileMillis(90) <= 2.048);
+        assertEquals(100, snapshot.getPercentileMillis(99), 0.001);
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot("test").getCount());
+        assertEquals(0, histogram.snapshot("test").getPercentileMillis(99), 0);
+    }
+
+    @Test
+    public void bucketsAreClamped() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(999));
+        assertEquals(1, LatencyHistogram.bucketOf(1000));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+}
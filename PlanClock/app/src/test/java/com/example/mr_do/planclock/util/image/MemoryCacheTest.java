@@ -0,0 +1,246 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 内存缓存的淘汰、准入和内存不足时的收缩,图片用{宽,高}的数组代替
+ */
+public class MemoryCacheTest {
+    //100x100的图片占40000字节
+    private static final int IMAGE_BYTES = 100 * 100 * 4;
+
+    private static class SizeDecoder implements ImageDecoder<int[]> {
+        final List<int[]> recycled = new ArrayList<>();
+
+        @Override
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            return false;
+        }
+
+        @Override
+        public int[] decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] scale(int[] source, int reqWidth, int reqHeight, int flags) {
+            return source;
+        }
+
+        @Override
+        public int getWidth(int[] image) {
+            return image[0];
+        }
+
+        @Override
+        public int getHeight(int[] image) {
+            return image[1];
+        }
+
+        @Override
+        public int getByteCount(int[] image) {
+            return image[0] * image[1] * 4;
+        }
+
+        //第三个元素是解码方式
+        @Override
+        public int getRequiredFlags(int[] image) {
+            return image.length > 2 ? image[2] : 0;
+        }
+
+        @Override
+        public void recycle(int[] image) {
+            recycled.add(image);
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return 0;
+        }
+    }
+
+    private final SizeDecoder mDecoder = new SizeDecoder();
+
+    //按W-TinyLFU淘汰的缓存
+    private MemoryCache<int[]> createCache(int capacity) {
+        return new MemoryCache<>((long) capacity * IMAGE_BYTES, mDecoder, MemoryCache.TINY_LFU_WINDOW_RATIO);
+    }
+
+    private static void fill(MemoryCache<int[]> cache, int count) {
+        for(int i = 0; i < count; i++) {
+            cache.put("u" + i, new int[]{100, 100}, false);
+        }
+    }
+
+    /**
+     * 先请求一次没有命中,再把解码好的图片放进去,和流水线的用法一样
+     * @return 是否命中
+     */
+    private static boolean request(MemoryCache<int[]> cache, String url) {
+        if(cache.get(url, 100, 100, 0) != null) {
+            return true;
+        }
+        cache.put(url, new int[]{100, 100}, false);
+        return false;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        //默认按LRU淘汰
+        MemoryCache<int[]> cache = new MemoryCache<>(4L * IMAGE_BYTES, mDecoder);
+        fill(cache, 4);
+        assertNotNull(cache.get("u0", 100, 100, 0));
+        cache.put("u4", new int[]{100, 100}, false);
+        assertNotNull(cache.get("u0", 100, 100, 0));
+        assertNull(cache.get("u1", 100, 100, 0));
+        assertEquals(1, mDecoder.recycled.size());
+    }
+
+    @Test
+    public void scanDoesNotEvictFrequentlyUsedImages() {
+        MemoryCache<int[]> cache = createCache(20);
+        MemoryCache<int[]> lru = new MemoryCache<>(20L * IMAGE_BYTES, mDecoder);
+        //列表顶部的几张图片反复回来看
+        for(int round = 0; round < 4; round++) {
+            for(int i = 0; i < 5; i++) {
+                request(cache, "top" + i);
+                request(lru, "top" + i);
+            }
+        }
+        //快速滑过一遍列表,每张只看一次
+        for(int i = 0; i < 200; i++) {
+            request(cache, "feed" + i);
+            request(lru, "feed" + i);
+        }
+        for(int i = 0; i < 5; i++) {
+            assertNotNull(cache.get("top" + i, 100, 100, 0));
+            assertNull(lru.get("top" + i, 100, 100, 0));
+        }
+        assertEquals(20L * IMAGE_BYTES, cache.size());
+    }
+
+    @Test
+    public void frequentlyRequestedNewcomerIsAdmitted() {
+        MemoryCache<int[]> cache = createCache(10);
+        for(int i = 0; i < 10; i++) {
+            request(cache, "u" + i);
+        }
+        //请求过几次的图片比只请求过一次的更常用,放进来时能挤掉主区里的图片
+        for(int i = 0; i < 3; i++) {
+            cache.get("hot", 100, 100, 0);
+        }
+        cache.put("hot", new int[]{100, 100}, false);
+        for(int i = 0; i < 10; i++) {
+            request(cache, "scan" + i);
+        }
+        assertNotNull(cache.get("hot", 100, 100, 0));
+    }
+
+    @Test
+    public void lowDepthVariantOnlyServesRequestsThatAllowIt() {
+        MemoryCache<int[]> cache = createCache(4);
+        cache.put("u", new int[]{100, 100, ImageDecoder.FLAG_ALLOW_LOW_DEPTH}, false);
+        assertNull(cache.get("u", 100, 100, 0));
+        assertNull(cache.get("u", 100, 100, ImageDecoder.FLAG_ALLOW_HARDWARE));
+        assertNotNull(cache.get("u", 100, 100, ImageDecoder.FLAG_ALLOW_LOW_DEPTH));
+        //普通的图片满足任意请求
+        cache.put("u", new int[]{100, 100}, false);
+        assertNotNull(cache.get("u", 100, 100, 0));
+    }
+
+    @Test
+    public void trimShrinksAndLimitsBudget() {
+        MemoryCache<int[]> cache = createCache(8);
+        fill(cache, 8);
+        final long freed = cache.trim(0.5f, 60000);
+        assertEquals(4L * IMAGE_BYTES, freed);
+        assertEquals(4L * IMAGE_BYTES, cache.size());
+        assertEquals(4L * IMAGE_BYTES, cache.maxSize());
+        //收缩时淘汰的图片可能还显示在view上,不能被复用
+        assertTrue(mDecoder.recycled.isEmpty());
+        //收缩期间放入新的图片不会超出收缩后的预算
+        fill(cache, 8);
+        assertEquals(4L * IMAGE_BYTES, cache.size());
+    }
+
+    @Test
+    public void evictionOutsideProbationDoesNotRecycle() {
+        MemoryCache<int[]> cache = createCache(10);
+        for(int i = 0; i < 10; i++) {
+            request(cache, "u" + i);
+        }
+        //再看一遍,试用区的图片升级到保护区
+        for(int i = 0; i < 10; i++) {
+            assertNotNull(cache.get("u" + i, 100, 100, 0));
+        }
+        //比窗口区大的图片把窗口区整个挤进试用区,自己作为候选被拒绝
+        final int[] large = {300, 100};
+        cache.put("large", large, false);
+        assertNull(cache.get("large", 300, 100, 0));
+        //收缩时先淘汰试用区,剩下保护区
+        cache.trim(0.6f, 60000);
+        mDecoder.recycled.clear();
+        //窗口区还没满,没有候选,只能淘汰保护区最老的图片,它可能还在view上
+        final int[] fresh = {100, 100};
+        cache.put("fresh", fresh, false);
+        assertEquals(6L * IMAGE_BYTES, cache.size());
+        assertTrue(mDecoder.recycled.isEmpty());
+    }
+
+    @Test
+    public void justInsertedImageIsNeverRecycled() {
+        MemoryCache<int[]> cache = createCache(10);
+        for(int i = 0; i < 10; i++) {
+            request(cache, "u" + i);
+        }
+        for(int i = 0; i < 10; i++) {
+            assertNotNull(cache.get("u" + i, 100, 100, 0));
+        }
+        //请求次数多的大图被准入,挤掉整个试用区后仍然超出预算,自己也被淘汰,但它马上要绑定到view上
+        for(int i = 0; i < 5; i++) {
+            cache.get("large", 500, 100, 0);
+        }
+        final int[] large = {500, 100};
+        cache.put("large", large, false);
+        assertNull(cache.get("large", 500, 100, 0));
+        for(int[] image : mDecoder.recycled) {
+            assertNotSame(large, image);
+        }
+    }
+
+    @Test
+    public void clearKeepsMinimumBudget() {
+        MemoryCache<int[]> cache = createCache(16);
+        fill(cache, 16);
+        assertEquals(16L * IMAGE_BYTES, cache.trim(0f, 60000));
+        assertEquals(0, cache.size());
+        //清空后仍然能放下刚解码的图片
+        cache.put("new", new int[]{100, 100}, false);
+        assertNotNull(cache.get("new", 100, 100, 0));
+        assertEquals((long) (16L * IMAGE_BYTES * MemoryCache.MIN_BUDGET_RATIO), cache.maxSize());
+    }
+
+    @Test
+    public void budgetRestoresAfterHold() throws InterruptedException {
+        MemoryCache<int[]> cache = createCache(8);
+        fill(cache, 8);
+        cache.trim(0.25f, 20);
+        assertEquals(2L * IMAGE_BYTES, cache.maxSize());
+        Thread.sleep(40);
+        fill(cache, 8);
+        assertEquals(8L * IMAGE_BYTES, cache.maxSize());
+        assertEquals(8L * IMAGE_BYTES, cache.size());
+    }
+}
@@ -0,0 +1,425 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 大图分块:按缩放比例选采样率,只解码看得见的块,块并行解码并缓存,滑出去的块不再解码
+ */
+public class TiledImageTest {
+    private static final String URI = "/sdcard/DCIM/panorama.jpg";
+    private static final int IMAGE_WIDTH = 2000;
+    private static final int IMAGE_HEIGHT = 1500;
+    private static final int DECODE_THREADS = 4;
+
+    private final ExecutorService mMainThread = Executors.newSingleThreadExecutor();
+    //回调在单独的"主线程"上执行
+    private final MainThreadDispatcher mDispatcher = new MainThreadDispatcher() {
+        @Override
+        public boolean isMainThread() {
+            return false;
+        }
+
+        @Override
+        public void postFrame(Runnable task) {
+            mMainThread.execute(task);
+        }
+    };
+    private LoadStage mDecodeStage;
+    private TileCache<int[]> mTileCache;
+    private FakeRegionFactory mFactory;
+
+    /**
+     * 块是{宽,高},不依赖Android
+     */
+    private static class SizeDecoder implements ImageDecoder<int[]> {
+        @Override
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            return false;
+        }
+
+        @Override
+        public int[] decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] scale(int[] source, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int getWidth(int[] image) {
+            return image[0];
+        }
+
+        @Override
+        public int getHeight(int[] image) {
+            return image[1];
+        }
+
+        @Override
+        public int getByteCount(int[] image) {
+            return image[0] * image[1] * 4;
+        }
+
+        @Override
+        public int getRequiredFlags(int[] image) {
+            return 0;
+        }
+
+        @Override
+        public void recycle(int[] image) {
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return 0;
+        }
+    }
+
+    /**
+     * 记录打开的解码器和解码过的块,同一个解码器被两个线程同时使用时失败
+     */
+    private static class FakeRegionFactory implements RegionDecoder.Factory<int[]> {
+        final AtomicInteger opened = new AtomicInteger();
+        final List<String> decodedTiles = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicBoolean concurrentUse = new AtomicBoolean(false);
+        //不为null时每次解码先在这里等待
+        volatile CyclicBarrier barrier;
+        volatile CountDownLatch gate;
+        //为true时下一次解码像范围越界一样抛出异常
+        volatile boolean failNextDecode;
+
+        @Override
+        public RegionDecoder<int[]> open(String uri) {
+            opened.incrementAndGet();
+            return new RegionDecoder<int[]>() {
+                private final AtomicBoolean mBusy = new AtomicBoolean(false);
+
+                @Override
+                public int getWidth() {
+                    return IMAGE_WIDTH;
+                }
+
+                @Override
+                public int getHeight() {
+                    return IMAGE_HEIGHT;
+                }
+
+                @Override
+                public int[] decodeRegion(int left, int top, int right, int bottom, int sampleSize, int flags) {
+                    if(!mBusy.compareAndSet(false, true)){
+                        concurrentUse.set(true);
+                    }
+                    if(failNextDecode){
+                        failNextDecode = false;
+                        mBusy.set(false);
+                        throw new IllegalArgumentException("rectangle is outside the image");
+                    }
+                    try {
+                        decodedTiles.add(left + "," + top);
+                        if(barrier != null){
+                            barrier.await(5, TimeUnit.SECONDS);
+                        }
+                        if(gate != null){
+                            gate.await(5, TimeUnit.SECONDS);
+                        }
+                    } catch (Exception e) {
+                        return null;
+                    } finally {
+                        mBusy.set(false);
+                    }
+                    return new int[]{(right - left + sampleSize - 1) / sampleSize, (bottom - top + sampleSize - 1) / sampleSize};
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /**
+     * 每次有新的块解码好时计数
+     */
+    private static class CountingListener implements TiledImage.Listener {
+        final AtomicInteger changes = new AtomicInteger();
+        final CountDownLatch failed = new CountDownLatch(1);
+
+        @Override
+        public void onTilesChanged() {
+            changes.incrementAndGet();
+        }
+
+        @Override
+        public void onOpenFailed() {
+            failed.countDown();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mDecodeStage = new LoadStage("decode", DECODE_THREADS, 32);
+        mTileCache = new TileCache<>(64L * 1024 * 1024, new SizeDecoder());
+        mFactory = new FakeRegionFactory();
+    }
+
+    @After
+    public void tearDown() {
+        mDecodeStage.shutdown();
+        mMainThread.shutdownNow();
+    }
+
+    @Test
+    public void sampleSizeIsLargestPowerOfTwoNotAboveInverseScale() {
+        assertEquals(1, TiledImage.sampleSizeForScale(2f));
+        assertEquals(1, TiledImage.sampleSizeForScale(1f));
+        assertEquals(1, TiledImage.sampleSizeForScale(0.6f));
+        assertEquals(2, TiledImage.sampleSizeForScale(0.5f));
+        assertEquals(2, TiledImage.sampleSizeForScale(0.3f));
+        assertEquals(4, TiledImage.sampleSizeForScale(0.25f));
+        assertEquals(8, TiledImage.sampleSizeForScale(0.1f));
+    }
+
+    @Test
+    public void computesOnlyTilesIntersectingViewport() {
+        List<TiledImage.Tile> all = TiledImage.computeTiles(URI, IMAGE_WIDTH, IMAGE_HEIGHT, 1,
+                0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        assertEquals(4 * 3, all.size());
+        TiledImage.Tile last = all.get(all.size() - 1);
+        assertEquals(1536, last.left);
+        assertEquals(1024, last.top);
+        assertEquals(IMAGE_WIDTH, last.right);
+        assertEquals(IMAGE_HEIGHT, last.bottom);
+
+        List<TiledImage.Tile> one = TiledImage.computeTiles(URI, IMAGE_WIDTH, IMAGE_HEIGHT, 1,
+                600, 600, 700, 700);
+        assertEquals(1, one.size());
+        assertEquals(512, one.get(0).left);
+        assertEquals(512, one.get(0).top);
+
+        //缩小到四分之一时一块覆盖2048x2048的原图
+        List<TiledImage.Tile> zoomedOut = TiledImage.computeTiles(URI, IMAGE_WIDTH, IMAGE_HEIGHT, 4,
+                -100, -100, IMAGE_WIDTH + 100, IMAGE_HEIGHT + 100);
+        assertEquals(1, zoomedOut.size());
+        assertEquals(IMAGE_WIDTH, zoomedOut.get(0).right);
+    }
+
+    @Test
+    public void decodesVisibleTilesInParallelWithOneDecoderPerThread() throws Exception {
+        //四块必须同时在解码才能都通过barrier
+        mFactory.barrier = new CyclicBarrier(4);
+        CountingListener listener = new CountingListener();
+        TiledImage<int[]> image = open(listener);
+        setViewport(image, 1f, 0, 0, 1024, 1024);
+        awaitDecoded(4);
+
+        assertEquals(4, mFactory.decodedTiles.size());
+        assertFalse(mFactory.concurrentUse.get());
+        assertTrue(mFactory.opened.get() <= DECODE_THREADS);
+        assertEquals(4, mTileCache.count());
+        for(TiledImage.Tile tile : image.getVisibleTiles()){
+            int[] tileImage = image.getTileImage(tile);
+            assertNotNull(tileImage);
+            assertEquals(TiledImage.TILE_SIZE, tileImage[0]);
+        }
+        assertTrue(listener.changes.get() >= 1);
+    }
+
+    @Test
+    public void cachedTilesAreNotDecodedAgain() throws Exception {
+        TiledImage<int[]> first = open(new CountingListener());
+        setViewport(first, 0.25f, 0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        awaitDecoded(1);
+        first.close();
+
+        TiledImage<int[]> second = open(new CountingListener());
+        setViewport(second, 0.25f, 0, 0, IMAGE_WIDTH, IMAGE_HEIGHT);
+        Thread.sleep(100);
+        assertEquals(1, mFactory.decodedTiles.size());
+        assertNotNull(second.getTileImage(second.getVisibleTiles().get(0)));
+    }
+
+    @Test
+    public void tilesScrolledOutOfViewAreDropped() throws Exception {
+        mDecodeStage.shutdown();
+        mDecodeStage = new LoadStage("decode", 1, 32);
+        mFactory.gate = new CountDownLatch(1);
+        TiledImage<int[]> image = open(new CountingListener());
+        //第一行四块,只有一个线程,第一块解码时其余的在排队
+        setViewport(image, 1f, 0, 0, IMAGE_WIDTH, 512);
+        awaitStarted(1);
+        //移到最下面一行,排队的块已经看不见了
+        setViewport(image, 1f, 0, 1024, IMAGE_WIDTH, IMAGE_HEIGHT);
+        mFactory.gate.countDown();
+        awaitDecoded(5);
+        Thread.sleep(100);
+
+        assertEquals(5, mFactory.decodedTiles.size());
+        for(String tile : mFactory.decodedTiles.subList(1, 5)){
+            assertTrue(tile, tile.endsWith(",1024"));
+        }
+    }
+
+    @Test
+    public void sameImageOpenedTwiceDecodesForBoth() throws Exception {
+        mDecodeStage.shutdown();
+        mDecodeStage = new LoadStage("decode", 1, 2);
+        mFactory.gate = new CountDownLatch(1);
+        TiledImage<int[]> first = open(new CountingListener());
+        TiledImage<int[]> second = open(new CountingListener());
+        setViewport(first, 1f, 0, 0, 512, 512);
+        awaitStarted(1);
+        //两次打开的同一块都在队列里,先关掉的那次的任务过期
+        setViewport(first, 1f, 512, 0, 1024, 512);
+        setViewport(second, 1f, 512, 0, 1024, 512);
+        first.close();
+        //队列满了,清掉过期的任务时不能误删另一次打开的同一块
+        setViewport(second, 1f, 512, 0, 1536, 512);
+        mFactory.gate.countDown();
+        awaitDecoded(3);
+        for(TiledImage.Tile tile : second.getVisibleTiles()){
+            assertNotNull(second.getTileImage(tile));
+        }
+    }
+
+    @Test
+    public void openFailureIsReportedToListener() throws Exception {
+        final CountingListener listener = new CountingListener();
+        final RegionDecoder.Factory<int[]> missing = new RegionDecoder.Factory<int[]>() {
+            @Override
+            public RegionDecoder<int[]> open(String uri) throws IOException {
+                throw new FileNotFoundException(uri);
+            }
+        };
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                new TiledImage<>(URI, missing, mTileCache, mDecodeStage, mDispatcher, 0, listener).open();
+            }
+        });
+        assertTrue(listener.failed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, listener.changes.get());
+    }
+
+    @Test
+    public void openIsNotDroppedFromFullQueue() throws Exception {
+        mDecodeStage.shutdown();
+        mDecodeStage = new LoadStage("decode", 1, 1);
+        mFactory.gate = new CountDownLatch(1);
+        TiledImage<int[]> busy = open(new CountingListener());
+        //唯一的线程在解码,队列只放得下一个任务
+        setViewport(busy, 1f, 0, 0, 512, 512);
+        awaitStarted(1);
+        final CountingListener first = new CountingListener();
+        final CountingListener second = new CountingListener();
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                //view在等宽高,第二个打开的任务超出上限也不能挤掉第一个
+                new TiledImage<>(URI, mFactory, mTileCache, mDecodeStage, mDispatcher, 0, first).open();
+                new TiledImage<>(URI, mFactory, mTileCache, mDecodeStage, mDispatcher, 0, second).open();
+            }
+        });
+        mFactory.gate.countDown();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while((first.changes.get() == 0 || second.changes.get() == 0) && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertEquals(1, first.changes.get());
+        assertEquals(1, second.changes.get());
+        assertEquals(1, first.failed.getCount());
+        assertEquals(1, second.failed.getCount());
+        assertEquals(0, mDecodeStage.getDroppedCount());
+    }
+
+    @Test
+    public void tileIsRequestedAgainAfterDecodeThrows() throws Exception {
+        TiledImage<int[]> image = open(new CountingListener());
+        mFactory.failNextDecode = true;
+        setViewport(image, 1f, 0, 0, 512, 512);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(mFactory.failNextDecode && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        assertEquals(0, mTileCache.count());
+        //再次移动时这一块重新提交
+        setViewport(image, 1f, 0, 0, 512, 512);
+        awaitDecoded(1);
+    }
+
+    private TiledImage<int[]> open(final TiledImage.Listener listener) throws Exception {
+        TiledImage<int[]> image = mMainThread.submit(new Callable<TiledImage<int[]>>() {
+            @Override
+            public TiledImage<int[]> call() {
+                TiledImage<int[]> image = new TiledImage<>(URI, mFactory, mTileCache, mDecodeStage, mDispatcher,
+                        0, listener);
+                image.open();
+                return image;
+            }
+        }).get(5, TimeUnit.SECONDS);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(image.getWidth() == 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertEquals(IMAGE_WIDTH, image.getWidth());
+        return image;
+    }
+
+    private void setViewport(final TiledImage<int[]> image, final float scale,
+                             final int left, final int top, final int right, final int bottom) throws Exception {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                image.setViewport(scale, left, top, right, bottom);
+            }
+        });
+    }
+
+    //在"主线程"上执行并等它完成
+    private void onMainThread(Runnable task) throws Exception {
+        mMainThread.submit(task).get(5, TimeUnit.SECONDS);
+    }
+
+    private void awaitStarted(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(mFactory.decodedTiles.size() < count && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertTrue(mFactory.decodedTiles.size() >= count);
+    }
+
+    private void awaitDecoded(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(mTileCache.count() < count && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertTrue("decoded " + mTileCache.count(), mTileCache.count() >= count);
+    }
+}
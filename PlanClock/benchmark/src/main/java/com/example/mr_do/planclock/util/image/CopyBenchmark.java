@@ -0,0 +1,64 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.example.mr_do.planclock.util.IOUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 磁盘缓存writeToStream的写入吞吐量,和DiskCache一样按块拷贝到文件后关闭
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyBenchmark {
+    //缩略图、普通图片和大图
+    @Param({"16384", "262144", "2097152"})
+    public int size;
+
+    private byte[] mData;
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mData = new byte[size];
+        new Random(42).nextBytes(mData);
+        mFile = File.createTempFile("copy", ".bench");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long writeToStream() throws IOException {
+        OutputStream out = new FileOutputStream(mFile);
+        try {
+            return IOUtil.copy(new ByteArrayInputStream(mData), out);
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.mr_do.planclock.util.image;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个磁盘线程同时读写磁盘缓存的吞吐量,比较不同的分片数,
+ * 大部分是磁盘命中,少量是下载完成后的写入,和列表滑动时磁盘线程的负载接近,
+ * 线程数用-t指定: ./gradlew :benchmark:jmh -PjmhArgs="DiskCacheBenchmark -t 8",
+ * 直接运行main在1到8个线程上各跑一遍并打印对比: ./gradlew :benchmark:diskCacheScaling
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiskCacheBenchmark {
+    private static final int ENTRY_COUNT = 512;
+    //缩略图大小的图片
+    private static final int IMAGE_BYTES = 16 * 1024;
+    //每100次请求中写入的次数
+    private static final int WRITE_PERCENT = 10;
+
+    @Param({"1", "4", "8"})
+    public int shards;
+
+    private File mDir;
+    private DiskCache<Object> mCache;
+    private byte[] mImage;
+
+    private static final MainThreadDispatcher NOT_MAIN = new MainThreadDispatcher() {
+        @Override
+        public boolean isMainThread() {
+            return false;
+        }
+
+        @Override
+        public void postFrame(Runnable task) {
+            task.run();
+        }
+    };
+
+    /**
+     * 磁盘缓存只在写入时读取宽高,这里不需要解码
+     */
+    private static class NoopDecoder implements ImageDecoder<Object> {
+        @Override
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            return false;
+        }
+
+        @Override
+        public Object decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public Object decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public Object scale(Object source, int reqWidth, int reqHeight, int flags) {
+            return source;
+        }
+
+        @Override
+        public int getWidth(Object image) {
+            return 0;
+        }
+
+        @Override
+        public int getHeight(Object image) {
+            return 0;
+        }
+
+        @Override
+        public int getByteCount(Object image) {
+            return 0;
+        }
+
+        @Override
+        public int getRequiredFlags(Object image) {
+            return 0;
+        }
+
+        @Override
+        public void recycle(Object image) {
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return 0;
+        }
+    }
+
+    /**
+     * 每个线程自己的随机数和读缓冲
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+        final Random random = new Random();
+        final byte[] buffer = new byte[8 * 1024];
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("disk-bench", "");
+        mDir.delete();
+        mDir.mkdirs();
+        //所有图片都能放下,测量时不会触发清理
+        mCache = new DiskCache<>(new DiskCache.Directories() {
+            @Override
+            public File getCacheDir() {
+                return new File(mDir, "bitmap");
+            }
+
+            @Override
+            public File getStagingDir() {
+                return new File(mDir, "bitmap_partial");
+            }
+        }, 4L * ENTRY_COUNT * IMAGE_BYTES, shards, new NoopDecoder(), NOT_MAIN);
+        mImage = new byte[IMAGE_BYTES];
+        Arrays.fill(mImage, (byte) 0x5a);
+        for(int i = 0; i < ENTRY_COUNT; i++) {
+            if(!put(url(i))) {
+                throw new IOException("put failed: " + i);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mCache.shutdown();
+        deleteRecursively(mDir);
+    }
+
+    /**
+     * 读出一张图片的全部数据,或者重新写入一张
+     * @return 读到的字节数,写入时为0
+     */
+    @Benchmark
+    public long readOrWrite(Worker worker) throws IOException {
+        final String url = url(worker.random.nextInt(ENTRY_COUNT));
+        if(worker.random.nextInt(100) < WRITE_PERCENT) {
+            //同一张图片正在被别的线程写入时直接放弃,和流水线一样
+            put(url);
+            return 0;
+        }
+        DiskLruCache.Snapshot snapshot = mCache.openSnapshot(url);
+        if(snapshot == null) {
+            return 0;
+        }
+        long read = 0;
+        try {
+            InputStream in = snapshot.getInputStream(DiskCache.DISK_CACHE_INDEX);
+            int count;
+            while((count = in.read(worker.buffer)) != -1) {
+                read += count;
+            }
+        } finally {
+            snapshot.close();
+        }
+        return read;
+    }
+
+    private boolean put(String url) {
+        return mCache.putAndReadBounds(url, new ByteArrayInputStream(mImage),
+                CacheMetadata.fromHeaders(null, null, 0, "max-age=3600", 0, System.currentTimeMillis()), new int[2]);
+    }
+
+    private static String url(int index) {
+        return "https://img.example.com/feed/" + index + ".jpg";
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if(children != null) {
+            for(File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * 在1、2、4、8个线程上分别跑所有的分片数,打印每秒请求数
+     */
+    public static void main(String[] args) throws RunnerException {
+        final int[] threadCounts = {1, 2, 4, 8};
+        final String[] shardCounts = {"1", "4", "8"};
+        Map<String, Double> scores = new HashMap<>();
+        for(int threads : threadCounts) {
+            Collection<RunResult> results = new Runner(new OptionsBuilder()
+                    .include(DiskCacheBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .param("shards", shardCounts)
+                    .build()).run();
+            for(RunResult result : results) {
+                scores.put(threads + "/" + result.getParams().getParam("shards"),
+                        result.getPrimaryResult().getScore());
+            }
+        }
+        StringBuilder header = new StringBuilder(String.format("%-8s", "threads"));
+        for(String shardCount : shardCounts) {
+            header.append(String.format(" %12s", shardCount + " shards"));
+        }
+        System.out.println(header);
+        for(int threads : threadCounts) {
+            StringBuilder row = new StringBuilder(String.format("%-8d", threads));
+            for(String shardCount : shardCounts) {
+                row.append(String.format(" %10.0f/s", scores.get(threads + "/" + shardCount)));
+            }
+            System.out.println(row);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.mr_do.planclock.util.image;
+
+/**
+ * benchmark用的空任务,不会过期
+ */
+class FakeTask extends MyRunnable {
+    FakeTask(String uri, int priority) {
+        super(uri, 120, 150, priority);
+    }
+
+    @Override
+    public boolean isStale() {
+        return false;
+    }
+
+    @Override
+    public boolean isDroppable() {
+        return true;
+    }
+
+    @Override
+    public void cancel() {
+    }
+
+    @Override
+    public void run() {
+    }
+}
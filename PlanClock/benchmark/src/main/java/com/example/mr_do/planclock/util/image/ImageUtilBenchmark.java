@@ -0,0 +1,64 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 采样率计算和磁盘缓存key计算,每次加载都会调用
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageUtilBenchmark {
+    private static final int URL_COUNT = 256;
+
+    private String[] mUrls;
+    private byte[] mDigest;
+    private int mIndex;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        mUrls = new String[URL_COUNT];
+        for(int i = 0; i < URL_COUNT; i++) {
+            mUrls[i] = "https://img.example.com/feed/2018/04/" + i + "/photo_" + (i * 7919) + ".jpg";
+        }
+        mDigest = MessageDigest.getInstance("MD5").digest(mUrls[0].getBytes());
+    }
+
+    private String nextUrl() {
+        mIndex = (mIndex + 1) & (URL_COUNT - 1);
+        return mUrls[mIndex];
+    }
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        //4000x3000的照片缩到列表里的缩略图
+        mIndex = (mIndex + 1) & (URL_COUNT - 1);
+        return ImageUtil.calculateInSampleSize(4000 + mIndex, 3000 + mIndex, 120, 150);
+    }
+
+    @Benchmark
+    public String hashKeyFormUrl() {
+        return ImageUtil.hashKeyFormUrl(nextUrl());
+    }
+
+    @Benchmark
+    public String byteToHexString() {
+        return ImageUtil.byteToHexString(mDigest);
+    }
+}
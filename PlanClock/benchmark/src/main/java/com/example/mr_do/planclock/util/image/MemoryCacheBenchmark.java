@@ -0,0 +1,184 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内存缓存在滑动轨迹上的命中率和每次请求的开销,比较普通的LRU和W-TinyLFU,
+ * 命中和未命中的次数作为辅助计数输出,
+ * 只看命中率时直接运行main: ./gradlew :benchmark:cacheHitRate
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryCacheBenchmark {
+    static final String LRU = "lru";
+    static final String TINY_LFU = "tinylfu";
+    //和ScrollTraces里缩略图的平均大小一致
+    private static final long AVERAGE_IMAGE_BYTES = 256 * 256 * 4;
+
+    @Param({ScrollTraces.REVISIT, ScrollTraces.BROWSE, ScrollTraces.FLING})
+    public String trace;
+
+    @Param({LRU, TINY_LFU})
+    public String policy;
+
+    //能放下的平均大小的缩略图张数,一屏是12张
+    @Param({"60", "150"})
+    public int capacity;
+
+    private String[] mTrace;
+    private MemoryCache<int[]> mCache;
+    private int mPosition;
+
+    /**
+     * 每轮测量的命中和未命中次数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HitCounters {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    /**
+     * 图片是{宽,高},不依赖Android
+     */
+    private static class SizeDecoder implements ImageDecoder<int[]> {
+        @Override
+        public boolean decodeBounds(byte[] head, int length, int[] outSize) {
+            return false;
+        }
+
+        @Override
+        public int[] decodeFile(FileDescriptor fd, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] decodeBuffer(ByteBuffer data, int srcWidth, int srcHeight, int reqWidth, int reqHeight, int flags) {
+            return null;
+        }
+
+        @Override
+        public int[] scale(int[] source, int reqWidth, int reqHeight, int flags) {
+            return source;
+        }
+
+        @Override
+        public int getWidth(int[] image) {
+            return image[0];
+        }
+
+        @Override
+        public int getHeight(int[] image) {
+            return image[1];
+        }
+
+        @Override
+        public int getByteCount(int[] image) {
+            return image[0] * image[1] * 4;
+        }
+
+        @Override
+        public int getRequiredFlags(int[] image) {
+            return 0;
+        }
+
+        @Override
+        public void recycle(int[] image) {
+        }
+
+        @Override
+        public long trimRecycled(float ratio) {
+            return 0;
+        }
+    }
+
+    static MemoryCache<int[]> createCache(String policy, int capacity) {
+        final float windowRatio = LRU.equals(policy) ? MemoryCache.LRU_WINDOW_RATIO : MemoryCache.TINY_LFU_WINDOW_RATIO;
+        return new MemoryCache<>(capacity * AVERAGE_IMAGE_BYTES, new SizeDecoder(), windowRatio);
+    }
+
+    /**
+     * 和流水线一样,没有命中时把"解码"好的图片放进去
+     * @return 是否命中
+     */
+    static boolean request(MemoryCache<int[]> cache, String url) {
+        if(cache.get(url, 120, 120, 0) != null) {
+            return true;
+        }
+        cache.put(url, ScrollTraces.imageOf(url), false);
+        return false;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mTrace = ScrollTraces.get(trace);
+        mCache = createCache(policy, capacity);
+        mPosition = 0;
+    }
+
+    @Benchmark
+    public boolean replay(HitCounters counters) {
+        final String url = mTrace[mPosition];
+        mPosition = mPosition + 1 == mTrace.length ? 0 : mPosition + 1;
+        if(request(mCache, url)) {
+            counters.hits++;
+            return true;
+        }
+        counters.misses++;
+        return false;
+    }
+
+    /**
+     * 每条轨迹从空缓存开始回放一遍,打印两种策略的命中率
+     */
+    public static void main(String[] args) {
+        final String[] traces = {ScrollTraces.REVISIT, ScrollTraces.BROWSE, ScrollTraces.FLING};
+        final int[] capacities = {60, 150};
+        System.out.println(String.format("%-8s %8s %8s %8s %8s", "trace", "capacity", "requests", LRU, TINY_LFU));
+        for(String trace : traces) {
+            final String[] requests = ScrollTraces.get(trace);
+            for(int capacity : capacities) {
+                System.out.println(String.format("%-8s %8d %8d %7.1f%% %7.1f%%", trace, capacity, requests.length,
+                        hitRate(requests, createCache(LRU, capacity)),
+                        hitRate(requests, createCache(TINY_LFU, capacity))));
+            }
+        }
+    }
+
+    private static double hitRate(String[] requests, MemoryCache<int[]> cache) {
+        int hits = 0;
+        for(String url : requests) {
+            if(request(cache, url)) {
+                hits++;
+            }
+        }
+        return 100.0 * hits / requests.length;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 整个加载流水线:内存缓存 -> 合并相同请求 -> 磁盘、网络、解码三个阶段,
+ * 线程池和队列用的是app里的LoadStage,下载和解码换成可替换的假实现,
+ * 用来比较缓存和调度的改动对吞吐量的影响
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    //一屏半左右的格子
+    private static final int BATCH = 64;
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 下载图片的后端
+     */
+    interface Fetcher {
+        byte[] fetch(String uri) throws IOException;
+    }
+
+    /**
+     * 解码图片的后端
+     * @return 解码结果的大小
+     */
+    interface Decoder {
+        long decode(byte[] data, int reqWidth, int reqHeight);
+    }
+
+    //磁盘缓存命中的比例
+    @Param({"0", "80"})
+    public int diskHitPercent;
+
+    //假网络每次请求的延迟
+    @Param({"5"})
+    public int networkLatencyMillis;
+
+    @Param({"65536"})
+    public int imageBytes;
+
+    private LoadStage mDiskStage;
+    private LoadStage mNetworkStage;
+    private LoadStage mDecodeStage;
+    private Fetcher mFetcher;
+    private Decoder mDecoder;
+    private byte[] mImage;
+    private final Map<String, PipelineTask> mInFlightTasks = new HashMap<>();
+    private final Map<String, Long> mMemoryCache = new ConcurrentHashMap<>();
+    private int mGeneration;
+
+    @Setup
+    public void setUp() {
+        //和DoubleCacheStrategy中的配置一致
+        mDiskStage = new LoadStage("disk", 2, 48);
+        mNetworkStage = new LoadStage("network", Math.max(4, CPU_COUNT), 32);
+        mDecodeStage = new LoadStage("decode", CPU_COUNT, 32);
+        mImage = new byte[imageBytes];
+        new Random(42).nextBytes(mImage);
+        mFetcher = new Fetcher() {
+            @Override
+            public byte[] fetch(String uri) throws IOException {
+                try {
+                    Thread.sleep(networkLatencyMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return mImage;
+            }
+        };
+        //解码的开销用一次CRC32代替,和图片大小成正比
+        mDecoder = new Decoder() {
+            @Override
+            public long decode(byte[] data, int reqWidth, int reqHeight) {
+                CRC32 crc = new CRC32();
+                crc.update(data, 0, data.length);
+                return crc.getValue() / ImageUtil.calculateInSampleSize(4000, 3000, reqWidth, reqHeight);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDiskStage.shutdown();
+        mNetworkStage.shutdown();
+        mDecodeStage.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void loadScrollBatch() throws InterruptedException {
+        mGeneration++;
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        for(int i = 0; i < BATCH; i++) {
+            //每张图片请求两次,第二次应该合并到第一次的任务上
+            load("https://img.example.com/" + mGeneration + "/" + (i / 2), done);
+        }
+        done.await();
+    }
+
+    private void load(String uri, CountDownLatch done) {
+        if(mMemoryCache.containsKey(uri)) {
+            done.countDown();
+            return;
+        }
+        PipelineTask task;
+        synchronized (mInFlightTasks) {
+            task = mInFlightTasks.get(uri);
+            if(task != null) {
+                task.waiters.add(done);
+                return;
+            }
+            task = new PipelineTask(uri);
+            task.waiters.add(done);
+            mInFlightTasks.put(uri, task);
+        }
+        mDiskStage.execute(task);
+    }
+
+    private boolean isOnDisk(String uri) {
+        return (uri.hashCode() & 0x7fffffff) % 100 < diskHitPercent;
+    }
+
+    private class PipelineTask extends MyRunnable {
+        //只在持有mInFlightTasks锁的时候访问
+        final List<CountDownLatch> waiters = new ArrayList<>();
+        private int stage = 0;
+        private byte[] data;
+
+        PipelineTask(String uri) {
+            super(uri, 120, 150, 0);
+        }
+
+        @Override
+        public boolean isStale() {
+            return false;
+        }
+
+        //benchmark不区分有没有调用方在等,队列满了都可以丢掉
+        @Override
+        public boolean isDroppable() {
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            finish();
+        }
+
+        @Override
+        public void run() {
+            try {
+                switch (stage) {
+                    case 0:
+                        if(isOnDisk(uri)) {
+                            data = mImage;
+                            stage = 2;
+                            mDecodeStage.execute(this);
+                        } else {
+                            stage = 1;
+                            mNetworkStage.execute(this);
+                        }
+                        break;
+                    case 1:
+                        data = mFetcher.fetch(uri);
+                        stage = 2;
+                        mDecodeStage.execute(this);
+                        break;
+                    default:
+                        mMemoryCache.put(uri, mDecoder.decode(data, 120, 150));
+                        finish();
+                        break;
+                }
+            } catch (IOException e) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            List<CountDownLatch> waiting;
+            synchronized (mInFlightTasks) {
+                mInFlightTasks.remove(uri);
+                waiting = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            for(CountDownLatch latch : waiting) {
+                latch.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.mr_do.planclock.util.image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 按首页信息流的滑动方式生成的请求轨迹,
+ * 三列的网格一屏四行,每滑进一行请求这一行的三张图片,和列表绑定view的顺序一样,
+ * 固定的随机种子,每次生成的轨迹相同
+ */
+final class ScrollTraces {
+    static final String REVISIT = "revisit";
+    static final String BROWSE = "browse";
+    static final String FLING = "fling";
+
+    private static final int FEED_SIZE = 1000;
+    private static final int COLUMNS = 3;
+    private static final int VISIBLE_ROWS = 4;
+    private static final int ROW_COUNT = FEED_SIZE / COLUMNS;
+
+    private final List<String> mRequests = new ArrayList<>();
+    //当前屏幕第一行
+    private int mTopRow = 0;
+
+    private ScrollTraces() {
+    }
+
+    /**
+     * @param name {@link #REVISIT}、{@link #BROWSE}或者{@link #FLING}
+     */
+    static String[] get(String name) {
+        ScrollTraces traces = new ScrollTraces();
+        traces.showScreen();
+        if(REVISIT.equals(name)) {
+            traces.revisit();
+        } else if(BROWSE.equals(name)) {
+            traces.browse();
+        } else if(FLING.equals(name)) {
+            traces.fling();
+        } else {
+            throw new IllegalArgumentException("unknown trace: " + name);
+        }
+        return traces.mRequests.toArray(new String[traces.mRequests.size()]);
+    }
+
+    static String url(int index) {
+        return "https://img.example.com/feed/" + index + ".jpg";
+    }
+
+    /**
+     * @return 缩略图的{宽,高},按图片序号在192到320之间变化,内存缓存按字节计算大小
+     */
+    static int[] imageOf(String url) {
+        final int side = 192 + (url.hashCode() & 0x7f);
+        return new int[]{side, side};
+    }
+
+    //反复回到顶部看最新的几屏,中间滑到很深的地方再滑回来
+    private void revisit() {
+        Random random = new Random(42);
+        for(int session = 0; session < 10; session++) {
+            for(int look = 0; look < 3; look++) {
+                scrollTo(1 + random.nextInt(3 * VISIBLE_ROWS));
+                scrollTo(0);
+            }
+            scrollTo(50 + random.nextInt(ROW_COUNT - 50 - VISIBLE_ROWS));
+            scrollTo(0);
+        }
+    }
+
+    //一边往下看一边偶尔往回翻几行,隔一会回到顶部刷新
+    private void browse() {
+        Random random = new Random(42);
+        for(int step = 0; step < 400; step++) {
+            final int move = random.nextInt(10) - 3;
+            scrollTo(Math.max(0, Math.min(ROW_COUNT - VISIBLE_ROWS, mTopRow + move)));
+            if(random.nextInt(40) == 0) {
+                scrollTo(0);
+            }
+        }
+    }
+
+    //从头到尾快速滑过整个信息流,每张图片只看一次
+    private void fling() {
+        for(int pass = 0; pass < 3; pass++) {
+            scrollTo(ROW_COUNT - VISIBLE_ROWS);
+            jumpToTop();
+        }
+    }
+
+    private void showScreen() {
+        for(int row = mTopRow; row < mTopRow + VISIBLE_ROWS; row++) {
+            requestRow(row);
+        }
+    }
+
+    //一行一行地滑,滑进屏幕的行请求图片
+    private void scrollTo(int topRow) {
+        while(mTopRow < topRow) {
+            mTopRow++;
+            requestRow(mTopRow + VISIBLE_ROWS - 1);
+        }
+        while(mTopRow > topRow) {
+            mTopRow--;
+            requestRow(mTopRow);
+        }
+    }
+
+    //点击状态栏回到顶部,中间的行不会显示
+    private void jumpToTop() {
+        mTopRow = 0;
+        showScreen();
+    }
+
+    private void requestRow(int row) {
+        for(int column = 0; column < COLUMNS; column++) {
+            mRequests.add(url(row * COLUMNS + column));
+        }
+    }
+}
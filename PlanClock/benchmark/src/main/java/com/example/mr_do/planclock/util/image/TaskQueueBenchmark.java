@@ -0,0 +1,58 @@
+package com.example.mr_do.planclock.util.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 各阶段线程池的有上限优先级队列,多个线程同时提交和取任务,
+ * 队列小的时候会频繁走满了以后丢任务的路径
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskQueueBenchmark {
+    //32和48是网络、磁盘阶段实际用的大小
+    @Param({"32", "48", "1024"})
+    public int maxSize;
+
+    private PriorityTaskQueue mQueue;
+    private final AtomicInteger mSequence = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        mQueue = new PriorityTaskQueue(maxSize);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public boolean offer() {
+        final int n = mSequence.incrementAndGet();
+        //大约四分之一是可见的请求,其余是预加载
+        return mQueue.offer(new FakeTask("https://img.example.com/" + (n & 1023), (n & 3) == 0 ? 0 : 1));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public Runnable poll() {
+        return mQueue.poll();
+    }
+}